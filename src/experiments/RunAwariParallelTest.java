@@ -4,6 +4,7 @@ import game.Game;
 import main.Constants;
 import other.RankUtils;
 import mcts.PNSMCTS_L2;
+import mcts.PNSMCTS_L2_Arena;
 import mcts.PNSMCTS_L2_MAST;
 import mcts.PNSMCTS_L2_RAVE;
 import mcts.PNSMCTS_MAST;
@@ -32,6 +33,7 @@ enum AIType {
     PNSMCTS_L2_RAVE,
     PNSMCTS_RAVE,
     PNSMCTS_L2,
+    PNSMCTS_L2_ARENA,
     MCTS,
     ALPHA_BETA
 }
@@ -71,23 +73,25 @@ public class RunAwariParallelTest {
 //    private static final int MAX_ITERATIONS = 50000; // Recommended starting point for MCTS/PNSMCTS strength
 //    private static final int MAX_DEPTH = 500; // Large depth to prevent pruning of long games
 
-    // Thread pool configuration - 4 parallel instances per game type
+    // Match scheduler configuration
     private static final int MAX_CORES = 15;  // Maximum number of cores to use
     private static final int AVAILABLE_CORES = Math.min(MAX_CORES, Runtime.getRuntime().availableProcessors());
-    // Number of parallel instances per game type
-    // Reduced to 8 to prevent resource exhaustion on a 10-core system
-    private static final int INSTANCES_PER_GAME = 15;
-    // Total number of game types
-    private static final int NUM_GAME_TYPES = GAME_FILES.length;
-    // Total parallel instances (4 per game type)
-    private static final int GAMES_IN_PARALLEL = NUM_GAME_TYPES * INSTANCES_PER_GAME;  // 5 * 4 = 20 instances
     // Calculate cores per game instance
     private static final int USABLE_CORES = Math.max(1, AVAILABLE_CORES / 2);  // Use half of available cores for system
+    // Search threads of one AI (for the AIs that support parallel search). The two AIs of a game take turns,
+    // so a running game keeps this many cores busy.
+    private static final int SEARCH_THREADS_PER_AI = 1;
+    // Playouts every search thread runs at once from a new leaf (PNSMCTS_L2 leaf parallelisation). All but one
+    // of them run on extra leaf threads, so a running game keeps SEARCH_THREADS_PER_AI x this many cores busy.
+    private static final int LEAF_PLAYOUTS_PER_AI = 1;
+    // Games running at the same time, so that games x search threads x leaf playouts never oversubscribe the usable cores
+    private static final int GAMES_IN_PARALLEL = Math.max(1, USABLE_CORES / (SEARCH_THREADS_PER_AI * LEAF_PLAYOUTS_PER_AI));
 
     // Print system info for debugging
     static {
         System.out.println("System Info - Available CPU Cores: " + AVAILABLE_CORES);
-        System.out.println("Using " + GAMES_IN_PARALLEL + " parallel game instances");
+        System.out.println("Using " + GAMES_IN_PARALLEL + " parallel games x " + SEARCH_THREADS_PER_AI + " search threads per AI x "
+                + LEAF_PLAYOUTS_PER_AI + " leaf playouts per thread");
         System.out.println("Leaving " + (AVAILABLE_CORES - USABLE_CORES) + " cores free for system/other applications");
     }
     private static final Scanner scanner = new Scanner(System.in);
@@ -96,6 +100,13 @@ public class RunAwariParallelTest {
     private static final AIType PLAYER1_AI = AIType.PNSMCTS_L2_RAVE;
     private static final AIType PLAYER2_AI = AIType.ALPHA_BETA;
 
+    // Match-ups played on every game in GAME_FILES, NUM_GAMES games each; all of them share one scheduler
+    private static final AIType[][] MATCH_UPS = {
+            {PLAYER1_AI, PLAYER2_AI}
+//            {AIType.PNSMCTS_L2, AIType.MCTS},
+//            {AIType.PNSMCTS_L2_MAST, AIType.PNSMCTS_L2}
+    };
+
     // AI parameters (if needed)
     // MCTS and Alpha-Beta will use their default parameters
 
@@ -111,7 +122,7 @@ public class RunAwariParallelTest {
         switch (type) {
             case PNSMCTS_L2_MAST: {
                 // Initialize with the specified player ID
-                PNSMCTS_L2_MAST ai = new PNSMCTS_L2_MAST(finMove, minVisits, pnCons, cFactor, 1);
+                PNSMCTS_L2_MAST ai = new PNSMCTS_L2_MAST(finMove, minVisits, pnCons, cFactor, 1, SEARCH_THREADS_PER_AI);
                 ai.initAI(game, playerId);
                 return ai;
             }
@@ -124,12 +135,17 @@ public class RunAwariParallelTest {
             case PNSMCTS_L2_RAVE: {
                 //double[] raveSettings = {1, Math.sqrt(2), 1};
 //                PNSMCTS_L2_RAVE ai = new PNSMCTS_L2_RAVE(raveSettings);
-                PNSMCTS_L2_RAVE ai = new PNSMCTS_L2_RAVE(finMove, minVisits, pnCons, cFactor);
+                PNSMCTS_L2_RAVE ai = new PNSMCTS_L2_RAVE(finMove, minVisits, pnCons, cFactor, SEARCH_THREADS_PER_AI);
                 ai.initAI(game, playerId);
                 return ai;
             }
             case PNSMCTS_L2: {
-                PNSMCTS_L2 ai = new PNSMCTS_L2(finMove, minVisits, pnCons, cFactor);
+                PNSMCTS_L2 ai = new PNSMCTS_L2(finMove, minVisits, pnCons, cFactor, SEARCH_THREADS_PER_AI, 1, LEAF_PLAYOUTS_PER_AI);
+                ai.initAI(game, playerId);
+                return ai;
+            }
+            case PNSMCTS_L2_ARENA: {
+                PNSMCTS_L2_Arena ai = new PNSMCTS_L2_Arena(finMove, minVisits, pnCons, cFactor);
                 ai.initAI(game, playerId);
                 return ai;
             }
@@ -153,6 +169,7 @@ public class RunAwariParallelTest {
             case PNSMCTS_MAST: return "PNSMCTS_MAST";
             case PNSMCTS_L2_RAVE: return "PNSMCTS_L2_RAVE";
             case PNSMCTS_L2: return "PNSMCTS_L2";
+            case PNSMCTS_L2_ARENA: return "PNSMCTS_L2_Arena";
             case MCTS: return "MCTS(Standard UCT)";
             case ALPHA_BETA: return "Alpha-Beta(Standard)";
             default: return type.name();
@@ -161,83 +178,41 @@ public class RunAwariParallelTest {
 
     public static void main(final String[] args) {
         System.out.println("\n" + "=".repeat(70));
-        System.out.println("            AI COMPARISON TOOL - " + PLAYER1_AI + " vs " + PLAYER2_AI);
+        System.out.println("            AI COMPARISON TOOL - " + MATCH_UPS.length + " match-up(s)");
         System.out.println("=".repeat(70));
+        for (AIType[] matchUp : MATCH_UPS) {
+            System.out.println(getAIName(matchUp[0]) + " vs " + getAIName(matchUp[1]));
+        }
         System.out.println("Running " + GAME_FILES.length + " different game types in parallel");
-        System.out.println("Each game type will run " + NUM_GAMES + " matches");
+        System.out.println("Each game type will run " + NUM_GAMES + " matches per match-up");
         System.out.println("Time per move: " + TIME_PER_MOVE + "s");
         System.out.println("=".repeat(70) + "\n");
 
-        // Create a thread pool with optimal size for the system
-        ExecutorService executor = Executors.newFixedThreadPool(GAMES_IN_PARALLEL);//max_cores
-        System.out.println("Starting " + GAMES_IN_PARALLEL + " game types in parallel...\n");
-
-        // Store results for each game type
-        Map<String, GameResults> allResults = new ConcurrentHashMap<>();
-
-        // Submit all games to run in parallel
+        List<MatchUp> matchUps = new ArrayList<>();
         for (int i = 0; i < GAME_FILES.length; i++) {
-            final int gameIndex = i;
-            executor.submit(() -> {
-                try {
-                    String gameName = GAME_NAMES[gameIndex];
-                    System.out.println("[" + gameName + "] Starting " + NUM_GAMES + " games...");
-                    GameResults results = runGameMatch(GAME_FILES[gameIndex], gameName, false);
-                    System.out.println("\n[" + gameName + "] Completed all " + NUM_GAMES + " games");
-                    allResults.put(gameName, results);
-
-                    // Print results for this game type
-                    int totalGames = results.getWins(getAIName(PLAYER1_AI)) + results.getWins(getAIName(PLAYER2_AI)) + results.getDraws();
-                    System.out.println("\n" + "=".repeat(60));
-                    System.out.println("FINAL RESULTS FOR " + gameName.toUpperCase());
-                    System.out.println("=" + " ".repeat(58) + "=\n");
-                    printStatistics(results, totalGames);
-                    System.out.println("\n" + "=".repeat(60) + "\n");
-
-                    // Save results to file
-                    saveResultsToFile(gameName, results, totalGames);
-
-                } catch (Exception e) {
-                    System.err.println("Error running " + GAME_NAMES[gameIndex] + ": " + e.getMessage());
-                    e.printStackTrace();
-                }
-            });
-        }
-
-        // Shutdown the executor and wait for all tasks to complete
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(8, TimeUnit.HOURS)) {
-                System.out.println("Forcing shutdown of remaining tasks...");
-                executor.shutdownNow();
+            for (AIType[] pair : MATCH_UPS) {
+                matchUps.add(new MatchUp(GAME_FILES[i], GAME_NAMES[i], pair[0], pair[1]));
             }
-        } catch (InterruptedException e) {
-            System.err.println("Interrupted while waiting for tasks to complete");
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
         }
 
-        // Force exit to ensure all threads are terminated
-        System.out.println("\nAll tasks completed. Exiting...");
-        System.exit(0);
+        runMatches(matchUps, false);
 
         // Print summary of all results
         System.out.println("\n" + "#".repeat(70));
         System.out.println("#" + " ".repeat(23) + "ALL GAMES COMPLETED" + " ".repeat(23) + "#");
         System.out.println("#".repeat(70) + "\n");
 
-        for (String gameName : GAME_NAMES) {
-            GameResults results = allResults.get(gameName);
-            if (results != null) {
-                int totalGames = results.getWins(getAIName(PLAYER1_AI)) + results.getWins(getAIName(PLAYER2_AI)) + results.getDraws();
-                System.out.println("\n=== " + gameName + " ===");
-                printStatistics(results, totalGames);
-            }
+        for (MatchUp matchUp : matchUps) {
+            System.out.println("\n=== " + matchUp.label() + " ===");
+            printStatistics(matchUp.results, matchUp.completedGames);
         }
 
         System.out.println("\n" + "#".repeat(70));
         System.out.println("#" + " ".repeat(27) + "END OF REPORT" + " ".repeat(27) + "#");
         System.out.println("#".repeat(70) + "\n");
+
+        // Force exit to ensure all threads are terminated
+        System.exit(0);
     }
 
     /**
@@ -381,6 +356,31 @@ public class RunAwariParallelTest {
         }
     }
 
+    /**
+     * One pairing of AIs on one game and the results of its games so far. Only the scheduler thread
+     * updates it.
+     */
+    private static class MatchUp {
+        private final String gameFile;
+        private final String gameName;
+        private final AIType player1;
+        private final AIType player2;
+        private final GameResults results;
+        private int completedGames = 0;
+
+        MatchUp(String gameFile, String gameName, AIType player1, AIType player2) {
+            this.gameFile = gameFile;
+            this.gameName = gameName;
+            this.player1 = player1;
+            this.player2 = player2;
+            this.results = new GameResults(getAIName(player1), getAIName(player2));
+        }
+
+        String label() {
+            return gameName + ": " + getAIName(player1) + " vs " + getAIName(player2);
+        }
+    }
+
     private static class GameTask implements Callable<GameResults.GameResult> {
         private final String gameName;
         private final int gameNumber;
@@ -571,6 +571,8 @@ public class RunAwariParallelTest {
                             simsThisTurn = ((PNSMCTS_L2_MAST) ai1).getSimsThisTurn();
                         } else if (ai1 instanceof PNSMCTS_MAST) {
                             simsThisTurn = ((PNSMCTS_MAST) ai1).getSimsThisTurn();
+                        } else if (ai1 instanceof PNSMCTS_L2_Arena) {
+                            simsThisTurn = ((PNSMCTS_L2_Arena) ai1).getSimsThisTurn();
                         }
                         totalSimulationsAI1 += simsThisTurn;
                         turnsAI1++;
@@ -583,6 +585,8 @@ public class RunAwariParallelTest {
                             simsThisTurn = ((PNSMCTS_L2_MAST) ai2).getSimsThisTurn();
                         } else if (ai2 instanceof PNSMCTS_MAST) {
                             simsThisTurn = ((PNSMCTS_MAST) ai2).getSimsThisTurn();
+                        } else if (ai2 instanceof PNSMCTS_L2_Arena) {
+                            simsThisTurn = ((PNSMCTS_L2_Arena) ai2).getSimsThisTurn();
                         }
                         totalSimulationsAI2 += simsThisTurn;
                         turnsAI2++;
@@ -705,14 +709,12 @@ public class RunAwariParallelTest {
     }
 
     private static class GameWorker implements Callable<GameResults.GameResult> {
-        private final String gameFile;
-        private final String gameName;
+        private final MatchUp matchUp;
         private final int gameNumber;
         private final boolean player1IsFirst;
 
-        public GameWorker(String gameFile, String gameName, int gameNumber, boolean player1IsFirst) {
-            this.gameFile = gameFile;
-            this.gameName = gameName;
+        public GameWorker(MatchUp matchUp, int gameNumber, boolean player1IsFirst) {
+            this.matchUp = matchUp;
             this.gameNumber = gameNumber;
             this.player1IsFirst = player1IsFirst;
         }
@@ -720,18 +722,18 @@ public class RunAwariParallelTest {
         @Override
         public GameResults.GameResult call() throws Exception {
             // Load a fresh game instance
-            Game game = GameLoader.loadGameFromFile(new File(gameFile));
-//            Game game = GameLoader.loadGameFromName(gameFile);
+            Game game = GameLoader.loadGameFromFile(new File(matchUp.gameFile));
+//            Game game = GameLoader.loadGameFromName(matchUp.gameFile);
             Trial trial = new Trial(game);
             Context context = new Context(game, trial);
-            AI ai1 = createAI(PLAYER1_AI, game, 1);
-            AI ai2 = createAI(PLAYER2_AI, game, 2);
+            AI ai1 = createAI(matchUp.player1, game, 1);
+            AI ai2 = createAI(matchUp.player2, game, 2);
 
             try {
                 // Create and run the game task
                 GameTask task = new GameTask(
-                    gameName, gameNumber, player1IsFirst,
-                    getAIName(PLAYER1_AI), getAIName(PLAYER2_AI),
+                    matchUp.gameName, gameNumber, player1IsFirst,
+                    getAIName(matchUp.player1), getAIName(matchUp.player2),
                     game, trial, context, ai1, ai2
                 );
                 
@@ -757,156 +759,108 @@ public class RunAwariParallelTest {
         }
     }
 
-    private static GameResults runGameMatch(String gameFile, String gameName, boolean showAllOutput) {
-        GameResults gameResults = new GameResults(getAIName(PLAYER1_AI), getAIName(PLAYER2_AI));
+    /**
+     * Plays NUM_GAMES games of every match-up on one pool of GAMES_IN_PARALLEL workers. The games wait in a
+     * queue that interleaves the match-ups, and a new one is started whenever one finishes, so every match-up
+     * makes progress from the start. Results are streamed as the games complete: each one is added to its
+     * match-up and reported, and the final statistics of a match-up are printed and saved as soon as its last
+     * game is in.
+     */
+    private static void runMatches(List<MatchUp> matchUps, boolean showAllOutput) {
         showDetailedOutput = showAllOutput;
 
-        if (showDetailedOutput) {
-            System.out.println("\n" + "=".repeat(50));
-            System.out.println("STARTING MATCH: " + gameName);
-            System.out.println("=".repeat(50));
-            System.out.println("\n=== AI Comparison ===");
-            System.out.println("Game: " + gameName);
-            System.out.println("Time per move: " + TIME_PER_MOVE + "s");
-            System.out.println("Number of games: " + NUM_GAMES);
-            System.out.println("Games in parallel: " + GAMES_IN_PARALLEL);
-            System.out.println("Player 1: " + getAIName(PLAYER1_AI));
-            System.out.println("Player 2: " + getAIName(PLAYER2_AI));
-        } else {
-            System.out.println("\nRunning " + gameName + " (" + GAMES_IN_PARALLEL + " parallel games at a time)...");
+        // Player 1 moves first in odd games, second in even ones
+        Deque<GameWorker> queue = new ArrayDeque<>();
+        for (int gameNumber = 1; gameNumber <= NUM_GAMES; gameNumber++) {
+            for (MatchUp matchUp : matchUps) {
+                queue.add(new GameWorker(matchUp, gameNumber, gameNumber % 2 == 1));
+            }
         }
+        System.out.println("Starting " + queue.size() + " games, " + GAMES_IN_PARALLEL + " at a time...\n");
 
-        // Create a thread pool with the desired number of parallel games
-        ExecutorService executor = Executors.newFixedThreadPool(GAMES_IN_PARALLEL);
-        // Create a completion service to handle completed tasks
+        ExecutorService executor = Executors.newFixedThreadPool(GAMES_IN_PARALLEL, runnable -> {
+            Thread thread = new Thread(runnable, "match worker");
+            thread.setDaemon(true);
+            return thread;
+        });
         CompletionService<GameResults.GameResult> completionService = new ExecutorCompletionService<>(executor);
-        int completedGames = 0;
-        int submittedGames = 0;
-
-        // Submit initial batch of games
-        for (int i = 0; i < Math.min(GAMES_IN_PARALLEL, NUM_GAMES); i++) {
-            boolean player1First = (i % 2 == 0);
-            completionService.submit(new GameWorker(gameFile, gameName, i + 1, player1First));
-            submittedGames++;
-            if (showDetailedOutput) {
-                System.out.println("Started game " + (i + 1) + " (Player 1 " + (player1First ? "first" : "second") + ")");
+        Map<Future<GameResults.GameResult>, GameWorker> running = new HashMap<>();
+
+        try {
+            while (running.size() < GAMES_IN_PARALLEL && !queue.isEmpty()) {
+                GameWorker worker = queue.poll();
+                running.put(completionService.submit(worker), worker);
             }
-        }
 
-        // Process completed games and submit new ones
-        int nextGameNumber = GAMES_IN_PARALLEL + 1;
-        while (completedGames < NUM_GAMES) {
-            try {
+            while (!running.isEmpty()) {
                 // Wait for any game to complete (with timeout to handle potential hangs)
                 Future<GameResults.GameResult> completedFuture = completionService.poll(24, TimeUnit.HOURS);
                 if (completedFuture == null) {
-                    throw new TimeoutException("Timed out waiting for game completion");
-                }
-                
-                // Process completed game
-                GameResults.GameResult result = completedFuture.get();
-                if (result != null) {
-                    gameResults.addResult(result);
-                }
-                completedGames++;
-                
-                // Submit new game if there are more to run
-                if (submittedGames < NUM_GAMES) {
-                    boolean player1First = (nextGameNumber % 2 == 1);
-                    completionService.submit(
-                        new GameWorker(gameFile, gameName, nextGameNumber, player1First)
-                    );
-                    submittedGames++;
-                    if (showDetailedOutput) {
-                        System.out.println("Started game " + nextGameNumber + 
-                                         " (Player 1 " + (player1First ? "first" : "second") + ")");
-                    }
-                    nextGameNumber++;
+                    System.err.println("Timed out waiting for game completion");
+                    break;
                 }
-                
-                // Print progress
-                if (showDetailedOutput) {
-                    System.out.println("\n=== Progress Update (" + completedGames + "/" + NUM_GAMES + " games) ===");
-                    printStatistics(gameResults, completedGames);
-                    System.out.println("Currently running: " + (submittedGames - completedGames) + " games in parallel");
-                } else {
-                    System.out.print(".");
-                    if (completedGames % 50 == 0) System.out.println();
+                GameWorker finished = running.remove(completedFuture);
+
+                // Keep the pool busy before processing the result
+                if (!queue.isEmpty()) {
+                    GameWorker worker = queue.poll();
+                    running.put(completionService.submit(worker), worker);
                 }
-                
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                System.err.println("Game execution was interrupted: " + e.getMessage());
-                break;
-            } catch (ExecutionException e) {
-                System.err.println("Error executing game task: " + e.getCause().getMessage());
-                e.getCause().printStackTrace();
-                // Continue with the next game
-            } catch (Exception e) {
-                System.err.println("An unexpected error occurred: " + e.getMessage());
-                e.printStackTrace();
-            }
-        }
-        
-        // Shutdown the executor
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
-                executor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
-        }
 
-        // Process any remaining completed futures to ensure all games complete
-        while (completedGames < submittedGames) {
-            try {
-                Future<GameResults.GameResult> completedFuture = completionService.poll(5, TimeUnit.SECONDS);
-                if (completedFuture == null) {
-                    System.err.println("Timed out waiting for remaining games to complete");
-                    break;
+                MatchUp matchUp = finished.matchUp;
+                GameResults.GameResult result = null;
+                try {
+                    result = completedFuture.get();
+                } catch (ExecutionException e) {
+                    System.err.println("[" + matchUp.label() + "] Error executing game " + finished.gameNumber
+                            + ": " + e.getCause().getMessage());
+                    e.getCause().printStackTrace();
                 }
-                
-                GameResults.GameResult result = completedFuture.get();
                 if (result != null) {
-                    gameResults.addResult(result);
+                    matchUp.results.addResult(result);
                 }
-                completedGames++;
+                matchUp.completedGames++;
 
-                // Print progress for the remaining games
+                // Stream the result
+                GameResults results = matchUp.results;
+                System.out.println("[" + matchUp.label() + "] Game " + finished.gameNumber + ": "
+                        + (result == null ? "failed" : result.wasDraw ? "draw" : result.winner + " wins")
+                        + " | " + results.player1Name + " " + results.getWins(results.player1Name)
+                        + " - " + results.getWins(results.player2Name) + " " + results.player2Name
+                        + ", " + results.getDraws() + " draws after " + matchUp.completedGames + "/" + NUM_GAMES);
                 if (showDetailedOutput) {
-                    System.out.println("\n=== Progress Update (" + completedGames + "/" + NUM_GAMES + " games) ===");
-                    printStatistics(gameResults, completedGames);
-                } else {
-                    System.out.print(".");
-                    if (completedGames % 50 == 0) System.out.println();
+                    printStatistics(results, matchUp.completedGames);
+                    System.out.println("Currently running: " + running.size() + " games in parallel");
                 }
-            } catch (Exception e) {
-                System.err.println("Error processing remaining game: " + e.getMessage());
-                e.printStackTrace();
-            }
-        }
 
-        // Shutdown the executor and wait for all games to complete
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
-                System.err.println("Some games did not complete within the timeout period");
-                executor.shutdownNow();
-            } else if (completedGames == NUM_GAMES) {
-                System.out.println("\n\n=== ALL " + NUM_GAMES + " GAMES COMPLETED SUCCESSFULLY ===");
-                printStatistics(gameResults, completedGames);
-            } else {
-                System.out.println("\n\n=== COMPLETED " + completedGames + " OUT OF " + NUM_GAMES + " GAMES ===");
-                printStatistics(gameResults, completedGames);
+                if (matchUp.completedGames == NUM_GAMES) {
+                    finishMatchUp(matchUp);
+                }
             }
         } catch (InterruptedException e) {
-            executor.shutdownNow();
             Thread.currentThread().interrupt();
+            System.err.println("Game execution was interrupted: " + e.getMessage());
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        return gameResults;
+    /**
+     * Prints and saves the final statistics of a match-up
+     */
+    private static void finishMatchUp(MatchUp matchUp) {
+        GameResults results = matchUp.results;
+        results.finalizeStats();
+
+        System.out.println("\n" + "=".repeat(60));
+        System.out.println("FINAL RESULTS FOR " + matchUp.label().toUpperCase());
+        System.out.println("=" + " ".repeat(58) + "=\n");
+        printStatistics(results, matchUp.completedGames);
+        System.out.println("\n" + "=".repeat(60) + "\n");
+
+        // Save results to file
+        saveResultsToFile(matchUp.gameName + " " + results.player1Name + " vs " + results.player2Name,
+                results, matchUp.completedGames);
     }
 
     private static void saveResultsToFile(String gameName, GameResults gameResults, int gamesPlayed) {
@@ -933,8 +887,8 @@ public class RunAwariParallelTest {
             pw.println("=" + " ".repeat(58) + "=\n");
 
             // Calculate win rates
-            int p1Wins = gameResults.getWins(getAIName(PLAYER1_AI));
-            int p2Wins = gameResults.getWins(getAIName(PLAYER2_AI));
+            int p1Wins = gameResults.getWins(gameResults.player1Name);
+            int p2Wins = gameResults.getWins(gameResults.player2Name);
             int draws = gameResults.getDraws();
 
             // Write statistics
@@ -943,8 +897,8 @@ public class RunAwariParallelTest {
             pw.println("-".repeat(40));
 
             // Format player names and results
-            String p1Name = String.format("%-15s", getAIName(PLAYER1_AI));
-            String p2Name = String.format("%-15s", getAIName(PLAYER2_AI));
+            String p1Name = String.format("%-15s", gameResults.player1Name);
+            String p2Name = String.format("%-15s", gameResults.player2Name);
 
             pw.println(String.format("%-20s: %d (%.1f%%)",
                     p1Name + " wins", p1Wins, (p1Wins * 100.0 / gamesPlayed)));
@@ -956,8 +910,8 @@ public class RunAwariParallelTest {
             // Add average simulations and turns
             pw.println("\n=== Performance Metrics ===");
             // Get player names from gameResults
-            String player1 = gameResults.results.keySet().stream().findFirst().orElse("Player1");
-            String player2 = gameResults.results.keySet().stream().skip(1).findFirst().orElse("Player2");
+            String player1 = gameResults.player1Name;
+            String player2 = gameResults.player2Name;
 
             pw.println(String.format("%-30s: %,.1f", player1 + " avg sims/game", gameResults.getAverageSimulations(player1)));
             pw.println(String.format("%-30s: %,.1f", player2 + " avg sims/game", gameResults.getAverageSimulations(player2)));
@@ -1004,8 +958,8 @@ public class RunAwariParallelTest {
                 (draws * 100.0) / gamesPlayed);
 
         // Add average simulations and turns per AI
-        String player1Name = getAIName(PLAYER1_AI);
-        String player2Name = getAIName(PLAYER2_AI);
+        String player1Name = gameResults.player1Name;
+        String player2Name = gameResults.player2Name;
 
         System.out.println("\n=== Performance Metrics ===");
         System.out.printf("%-30s: %,.1f\n", player1Name + " avg sims/game", gameResults.getAverageSimulations(player1Name));
@@ -0,0 +1,60 @@
+package experiments;
+
+import game.Game;
+import mcts.PNSMCTS_L2;
+import mcts.SearchConfig;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+
+import java.io.File;
+
+/**
+ * Stress test of the tree-parallel PNSMCTS_L2 search: THREADS workers share one tree with nothing but the
+ * atomic node statistics, the node locks of development and proof number updates, and the ranking monitor
+ * between them. The agent plays a game against itself, and after every search the tree is checked by
+ * PNSMCTS_L2.checkLastSearch.
+ * <p>
+ * Usage: TreeParallelStressTest [game file] [iterations per move] [moves]
+ */
+public class TreeParallelStressTest {
+
+    private static final int THREADS = 32;
+    private static final String DEFAULT_GAME = "games/Knightthrough.lud";
+    private static final int DEFAULT_ITERATIONS = 50000;
+    private static final int DEFAULT_MOVES = 10;
+
+    public static void main(final String[] args) {
+        final File gameFile = new File(args.length > 0 ? args[0] : DEFAULT_GAME);
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        final int maxMoves = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MOVES;
+
+        final Game game = GameLoader.loadGameFromFile(gameFile);
+        final Context context = new Context(game, new Trial(game));
+        game.start(context);
+
+        // The trees are only kept for the check with tree reuse; initAI makes every search start on a new root
+        final SearchConfig config = new SearchConfig(1.0, Math.sqrt(2), 1.0, true, 5, 0.2).withTreeReuse(true);
+        final PNSMCTS_L2 ai = new PNSMCTS_L2(config, THREADS, 1, 1);
+
+        int failures = 0;
+        for (int moves = 0; moves < maxMoves && !context.trial().over(); ++moves) {
+            ai.initAI(game, context.state().mover());
+            final long startTime = System.currentTimeMillis();
+            final Move move = ai.selectAction(game, new Context(context), -1.0, iterations, -1);
+            final long elapsed = System.currentTimeMillis() - startTime;
+
+            System.out.println(gameFile.getName() + ", move " + moves + ": " + THREADS + " threads, "
+                    + iterations + " iterations in " + elapsed + " ms");
+            failures += ai.checkLastSearch(iterations);
+            game.apply(context, move);
+        }
+        ai.closeAI();
+
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " invariant violations");
+        }
+        System.out.println("All invariants hold");
+    }
+}
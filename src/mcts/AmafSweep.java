@@ -0,0 +1,89 @@
+package mcts;
+
+import java.util.Arrays;
+
+/**
+ * Set of the (mover, move code) pairs played from some point of the current iteration on, used for the
+ * AMAF updates of the RAVE agents. The playout moves are added first, then the tree moves one at a time
+ * while backpropagation walks up towards the root, so at every node the set holds exactly the moves played
+ * after it and a move counts once however often it was played.
+ * <p>
+ * One instance per worker is reused by all its iterations: a new iteration only bumps the stamp that marks
+ * the valid entries, so nothing is cleared or allocated once the arrays fit the longest playout.
+ */
+final class AmafSweep {
+
+    private long[] codes = new long[256];
+    private int[] movers = new int[256];
+    private int[] stamps = new int[256];
+    private int stamp = 0;
+    private int size = 0;
+
+    /**
+     * Empties the set for a new iteration
+     */
+    void start() {
+        ++stamp;
+        size = 0;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+    }
+
+    /**
+     * Adds a move played by the given player
+     */
+    void markPlayed(final long moveCode, final int mover) {
+        if (2 * (size + 1) > codes.length) {
+            grow();
+        }
+        final int slot = slotOf(moveCode, mover);
+        if (stamps[slot] != stamp) {
+            codes[slot] = moveCode;
+            movers[slot] = mover;
+            stamps[slot] = stamp;
+            ++size;
+        }
+    }
+
+    /**
+     * @return True if the given player played the move since the set was started
+     */
+    boolean wasPlayed(final long moveCode, final int mover) {
+        return stamps[slotOf(moveCode, mover)] == stamp;
+    }
+
+    /**
+     * @return Slot of the pair, or the free slot where it would be added
+     */
+    private int slotOf(final long moveCode, final int mover) {
+        final int mask = codes.length - 1;
+        final long h = (moveCode + mover * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (stamps[slot] == stamp && (codes[slot] != moveCode || movers[slot] != mover)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Moves the pairs of the current iteration into twice the number of slots
+     */
+    private void grow() {
+        final long[] oldCodes = codes;
+        final int[] oldMovers = movers;
+        final int[] oldStamps = stamps;
+        codes = new long[oldCodes.length * 2];
+        movers = new int[oldCodes.length * 2];
+        stamps = new int[oldCodes.length * 2];
+        for (int i = 0; i < oldCodes.length; ++i) {
+            if (oldStamps[i] == stamp) {
+                final int slot = slotOf(oldCodes[i], oldMovers[i]);
+                codes[slot] = oldCodes[i];
+                movers[slot] = oldMovers[i];
+                stamps[slot] = stamp;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package mcts;
+
+import java.util.Arrays;
+
+/**
+ * AMAF statistics of one tree node: visit count and total score per move code (see MastTable.moveKey).
+ * <p>
+ * Open addressing with linear probing over parallel primitive arrays, sized for the legal moves of the node
+ * when it is developed, so a lookup is usually a single probe and updates neither box nor allocate. Only
+ * the thread that owns the tree of the node reads and writes it.
+ */
+final class AmafTable {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] visits;          // AMAF visits per move
+    private double[] totalScores;  // AMAF(s,a) * N_AMAF(s,a) per move
+    private int size = 0;
+
+    AmafTable(final int expectedMoves) {
+        allocate(capacityFor(expectedMoves));
+    }
+
+    /**
+     * Adds one result to the statistics of the move
+     */
+    void update(final long moveCode, final double result) {
+        if (2 * (size + 1) > keys.length) {
+            rehash(keys.length * 2);
+        }
+        final int slot = slotOf(moveCode);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = moveCode;
+            ++size;
+        }
+        ++visits[slot];
+        totalScores[slot] += result;
+    }
+
+    /**
+     * @return Mean AMAF score of the move, 0 if it has none
+     */
+    double getAmafValue(final long moveCode) {
+        final int slot = slotOf(moveCode);
+        return (visits[slot] > 0) ? (totalScores[slot] / visits[slot]) : 0.0;
+    }
+
+    int getAmafVisits(final long moveCode) {
+        return visits[slotOf(moveCode)];
+    }
+
+    /**
+     * @return Mean of the AMAF scores of all moves with statistics
+     */
+    double averageAmafValue() {
+        double total = 0.0;
+        int count = 0;
+
+        for (int slot = 0; slot < keys.length; ++slot) {
+            if (keys[slot] != EMPTY && visits[slot] > 0) {
+                total += totalScores[slot] / visits[slot];
+                ++count;
+            }
+        }
+
+        return count > 0 ? total / count : 0.0;
+    }
+
+    /**
+     * Makes room for the given number of moves without growing on the way
+     */
+    void ensureCapacity(final int expectedMoves) {
+        final int capacity = capacityFor(expectedMoves);
+        if (capacity > keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    /**
+     * @return Slot holding the move, or the free slot where it would be inserted
+     */
+    private int slotOf(final long moveCode) {
+        final int mask = keys.length - 1;
+        final long h = moveCode * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[slot] != moveCode && keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int capacityFor(final int expectedMoves) {
+        int capacity = 4;
+        while (capacity < 2 * expectedMoves) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        visits = new int[capacity];
+        totalScores = new double[capacity];
+    }
+
+    private void rehash(final int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldVisits = visits;
+        final double[] oldTotalScores = totalScores;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                final int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                visits[slot] = oldVisits[i];
+                totalScores[slot] = oldTotalScores[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package mcts;
+
+/**
+ * UCT-PN ranks of the children of one node, kept under the proof numbers (OR node) or disproof numbers (AND node)
+ * of the children. The rank of a child is one plus the number of siblings with a strictly lower number, so ties
+ * share a rank just like in the old sort-based setChildRanks(). Children are identified by the order in which
+ * they were added.
+ * <p>
+ * Every rank is cached, so selection reads it with a single array access. A changed number only shifts the ranks
+ * of the siblings whose number lies between its old and its new value, found in one pass over the flat key array
+ * without any allocation. An update is therefore O(k) in the number of children, not O(log k): an order-statistic
+ * tree would make every one of the k rank reads of a selection O(log k) instead, and selection already walks all
+ * k children, so the linear update costs no more than the selection that follows it.
+ */
+final class ChildRanks {
+
+    private double[] keys = new double[4];
+
+    private int[] ranks = new int[4];
+
+    private int size = 0;
+
+    /**
+     * Adds the number of a new child
+     *
+     * @return Index of the new child, used for all later updates and reads
+     */
+    int add(final double key) {
+        if (size == keys.length) {
+            final double[] grownKeys = new double[size * 2];
+            final int[] grownRanks = new int[size * 2];
+            System.arraycopy(keys, 0, grownKeys, 0, size);
+            System.arraycopy(ranks, 0, grownRanks, 0, size);
+            keys = grownKeys;
+            ranks = grownRanks;
+        }
+        int rank = 1;
+        for (int i = 0; i < size; ++i) {
+            if (keys[i] < key) {
+                ++rank;
+            } else if (keys[i] > key) {
+                ++ranks[i];
+            }
+        }
+        keys[size] = key;
+        ranks[size] = rank;
+        return size++;
+    }
+
+    /**
+     * Changes the number of a child and the ranks of the siblings it passes
+     */
+    void update(final int index, final double newKey) {
+        update(keys, ranks, 0, size, index, newKey);
+    }
+
+    /**
+     * Changes the number of a child and the ranks of the siblings it passes, for children whose numbers and
+     * ranks are kept at indices from (inclusive) to to (exclusive) of the given arrays, like the child range of
+     * a PNSMCTS_L2_Arena node
+     */
+    static void update(final double[] keys, final int[] ranks, final int from, final int to, final int index,
+                       final double newKey) {
+        final double oldKey = keys[index];
+        if (oldKey == newKey) {
+            return;
+        }
+        int rank = 1;
+        for (int i = from; i < to; ++i) {
+            final double key = keys[i];
+            if (key < newKey && i != index) {
+                ++rank;
+            }
+            if (oldKey < key && key <= newKey) {
+                // The child no longer ranks ahead of this sibling
+                --ranks[i];
+            } else if (newKey < key && key <= oldKey) {
+                ++ranks[i];
+            }
+        }
+        keys[index] = newKey;
+        ranks[index] = rank;
+    }
+
+    /**
+     * @return Rank of the child with the given index, 1 being the best
+     */
+    int rank(final int index) {
+        return ranks[index];
+    }
+
+    /**
+     * Copies the ranks of all children
+     *
+     * @param buffer Array to copy into if it is large enough
+     * @return buffer or a new, larger array, holding the rank of every child at its index
+     */
+    int[] copyRanks(final int[] buffer) {
+        final int[] copy = (buffer.length >= size) ? buffer : new int[Math.max(size, 2 * buffer.length)];
+        System.arraycopy(ranks, 0, copy, 0, size);
+        return copy;
+    }
+
+    /**
+     * @return Number the child with the given index is ranked under
+     */
+    double key(final int index) {
+        return keys[index];
+    }
+
+    /**
+     * Removes all children, keeping the allocated arrays
+     */
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,171 @@
+package mcts;
+
+import other.move.Move;
+
+import java.util.Arrays;
+
+/**
+ * Move-level MAST statistics of one side (our player or the opponents), keyed by a compact move code.
+ * <p>
+ * Open addressing with linear probing over parallel primitive arrays, so lookups and updates neither
+ * allocate nor box. Two moves with the same from site, to site and component share their statistics,
+ * like the move keys of Ludii's own MAST.
+ * <p>
+ * One thread may write at a time (concurrent callers hold a lock), while any number of threads read
+ * without locking. Growing publishes a new set of arrays at once, so a reader always probes arrays that
+ * belong together. Values are updated in place, so a reader sees a recent state of every move, not
+ * necessarily the latest one.
+ */
+final class MastTable {
+
+    private static final long EMPTY = -1L;
+
+    /**
+     * The arrays of one capacity
+     */
+    private static final class Slots {
+        final long[] keys;
+        final double[] scores;
+        final int[] visits;
+        final int mask;
+
+        Slots(final int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            scores = new double[capacity];
+            visits = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Slots slots = new Slots(64);
+    private int size = 0;
+
+    /**
+     * @return Compact code of a move built from its from site, to site and component, never negative
+     */
+    static long moveKey(final Move move) {
+        return ((move.from() + 1L) & 0xFFFFFL)
+                | (((move.to() + 1L) & 0xFFFFFL) << 20)
+                | ((move.what() & 0xFFFFFL) << 40);
+    }
+
+    /**
+     * @return The score stored for the move, or defaultScore if there is none yet
+     */
+    double score(final long key, final double defaultScore) {
+        final Slots s = slots;
+        final int slot = find(s, key);
+        return (slot < 0) ? defaultScore : s.scores[slot];
+    }
+
+    /**
+     * @return Number of updates of the move
+     */
+    int visits(final long key) {
+        final Slots s = slots;
+        final int slot = find(s, key);
+        return (slot < 0) ? 0 : s.visits[slot];
+    }
+
+    /**
+     * Stores a new score for the move and counts one more update
+     */
+    void update(final long key, final double score) {
+        final Slots s = slotsFor(key);
+        final int slot = findOrAdd(s, key);
+        s.scores[slot] = score;
+        ++s.visits[slot];
+    }
+
+    /**
+     * Adds a change to the score of the move (starting from 0 for a new move) and counts one more update
+     */
+    void add(final long key, final double delta) {
+        final Slots s = slotsFor(key);
+        final int slot = findOrAdd(s, key);
+        s.scores[slot] += delta;
+        ++s.visits[slot];
+    }
+
+    /**
+     * Removes all moves
+     */
+    void clear() {
+        slots = new Slots(slots.keys.length);
+        size = 0;
+    }
+
+    /**
+     * @return Slot of the move, or -1 if it is not in the table
+     */
+    private static int find(final Slots s, final long key) {
+        int slot = (int) mix(key) & s.mask;
+        while (true) {
+            final long resident = s.keys[slot];
+            if (resident == key) {
+                return slot;
+            }
+            if (resident == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & s.mask;
+        }
+    }
+
+    /**
+     * @return The arrays to write the move to, grown first if the move is new and the table is half full
+     */
+    private Slots slotsFor(final long key) {
+        final Slots s = slots;
+        if (2 * (size + 1) > s.keys.length && find(s, key) < 0) {
+            grow();
+            return slots;
+        }
+        return s;
+    }
+
+    /**
+     * @return Slot of the move, added with score 0 and no updates if it is not in the table yet
+     */
+    private int findOrAdd(final Slots s, final long key) {
+        int slot = (int) mix(key) & s.mask;
+        while (s.keys[slot] != key) {
+            if (s.keys[slot] == EMPTY) {
+                s.keys[slot] = key;
+                ++size;
+                break;
+            }
+            slot = (slot + 1) & s.mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Copies all moves into arrays of twice the capacity and publishes them
+     */
+    private void grow() {
+        final Slots old = slots;
+        final Slots grown = new Slots(old.keys.length * 2);
+        for (int i = 0; i < old.keys.length; ++i) {
+            if (old.keys[i] != EMPTY) {
+                int slot = (int) mix(old.keys[i]) & grown.mask;
+                while (grown.keys[slot] != EMPTY) {
+                    slot = (slot + 1) & grown.mask;
+                }
+                grown.keys[slot] = old.keys[i];
+                grown.scores[slot] = old.scores[i];
+                grown.visits[slot] = old.visits[i];
+            }
+        }
+        slots = grown;
+    }
+
+    /**
+     * Spreads the packed move fields over the low bits used for the slot index
+     */
+    private static long mix(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
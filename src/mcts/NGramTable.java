@@ -0,0 +1,264 @@
+package mcts;
+
+import other.move.Move;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * N-gram (NST) statistics of one side (our player or the opponents), keyed by a 64-bit rolling hash of the
+ * move codes of the sequence (see MastTable.moveKey), newest move first. The hash of an n-gram is the hash of
+ * its suffix extended by its oldest move, so all n-grams ending in one move are hashed in O(1) each.
+ * <p>
+ * Entries live in parallel primitive arrays in insertion order, the hash slots only point into them, so an
+ * entry keeps its index when the table grows. Lookups and updates don't allocate. Every entry links to its
+ * suffix (the same sequence without its oldest move), and all entries ending in the same move are chained
+ * from the 1-gram entry of that move, which makes the move-level aggregate a walk along one short list.
+ * Two different sequences with the same hash share an entry; with 64 bits that is ignored.
+ * <p>
+ * Like MastTable, one thread may write at a time while others read find(), score() and visits() without
+ * locking. Slots and entry columns are only replaced by fully built, larger copies. A new slot is published by
+ * storing its hash with release semantics after its entry index and columns, and find() loads slot hashes with
+ * acquire semantics, so a reader that finds a hash also sees its entry.
+ */
+final class NGramTable {
+
+    /**
+     * Hash of the empty sequence, extend() it by one move code at a time, from the newest move to the oldest
+     */
+    static final long EMPTY_SEQUENCE = 0x2545F4914F6CDD1DL;
+
+    private static final long FREE = 0L;
+
+    /**
+     * Release/acquire access to the slot hashes
+     */
+    private static final VarHandle SLOT_HASHES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    /**
+     * Hash slots: sequence hash and entry index
+     */
+    private static final class Slots {
+        final long[] hashes;
+        final int[] entries;
+        final int mask;
+
+        Slots(final int capacity) {
+            hashes = new long[capacity];
+            entries = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    /**
+     * Entry columns
+     */
+    private static final class Entries {
+        final long[] hashes;
+        final double[] scores;
+        final int[] visits;
+        final int[] lastSeen;
+        final byte[] lengths;
+        final int[] suffixes;
+        final int[] nextSameMove;
+        final Move[] firstMoves;
+
+        Entries(final int capacity) {
+            hashes = new long[capacity];
+            scores = new double[capacity];
+            visits = new int[capacity];
+            lastSeen = new int[capacity];
+            lengths = new byte[capacity];
+            suffixes = new int[capacity];
+            nextSameMove = new int[capacity];
+            firstMoves = new Move[capacity];
+        }
+
+        Entries(final Entries old, final int capacity) {
+            hashes = Arrays.copyOf(old.hashes, capacity);
+            scores = Arrays.copyOf(old.scores, capacity);
+            visits = Arrays.copyOf(old.visits, capacity);
+            lastSeen = Arrays.copyOf(old.lastSeen, capacity);
+            lengths = Arrays.copyOf(old.lengths, capacity);
+            suffixes = Arrays.copyOf(old.suffixes, capacity);
+            nextSameMove = Arrays.copyOf(old.nextSameMove, capacity);
+            firstMoves = Arrays.copyOf(old.firstMoves, capacity);
+        }
+    }
+
+    private volatile Slots slots = new Slots(256);
+    private volatile Entries entries = new Entries(128);
+    private int size = 0;
+
+    /**
+     * @return Hash of the sequence hashed by the given hash, extended by one older move
+     */
+    static long extend(final long hash, final long moveCode) {
+        long h = (hash ^ moveCode) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return (h == FREE) ? 1L : h;
+    }
+
+    /**
+     * @return Index of the entry with the given hash, or -1 if there is none
+     */
+    int find(final long hash) {
+        final Slots s = slots;
+        int slot = (int) hash & s.mask;
+        while (true) {
+            final long resident = (long) SLOT_HASHES.getAcquire(s.hashes, slot);
+            if (resident == hash) {
+                return s.entries[slot];
+            }
+            if (resident == FREE) {
+                return -1;
+            }
+            slot = (slot + 1) & s.mask;
+        }
+    }
+
+    /**
+     * Looks up an n-gram, adding it without statistics if it is new. An n-gram with n > 1 is chained to
+     * the 1-gram of its last move, reached through the suffix links.
+     *
+     * @param firstMove Oldest move of the sequence
+     * @param suffix    Entry of the sequence without its oldest move, -1 for a 1-gram
+     * @return Index of the entry
+     */
+    int findOrAdd(final long hash, final Move firstMove, final int suffix) {
+        final Slots s = slots;
+        int slot = (int) hash & s.mask;
+        while (s.hashes[slot] != FREE) {
+            if (s.hashes[slot] == hash) {
+                return s.entries[slot];
+            }
+            slot = (slot + 1) & s.mask;
+        }
+
+        Entries e = entries;
+        if (size == e.hashes.length) {
+            e = new Entries(e, size * 2);
+            entries = e;
+        }
+        final int entry = size++;
+        e.hashes[entry] = hash;
+        e.firstMoves[entry] = firstMove;
+        e.suffixes[entry] = suffix;
+        e.lengths[entry] = (byte) ((suffix < 0) ? 1 : e.lengths[suffix] + 1);
+        e.nextSameMove[entry] = -1;
+        if (suffix >= 0) {
+            final int head = oneGram(suffix);
+            e.nextSameMove[entry] = e.nextSameMove[head];
+            e.nextSameMove[head] = entry;
+        }
+
+        s.entries[slot] = entry;
+        // Publishes the entry index and columns written above to readers that find the hash
+        SLOT_HASHES.setRelease(s.hashes, slot, hash);
+        if (2 * size > s.hashes.length) {
+            growSlots();
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the outcome of one more occurrence to the running mean score of an entry
+     */
+    void update(final int entry, final double utility, final int simulation) {
+        final Entries e = entries;
+        final int newVisits = e.visits[entry] + 1;
+        e.scores[entry] = (e.scores[entry] * e.visits[entry] + utility) / newVisits;
+        e.visits[entry] = newVisits;
+        e.lastSeen[entry] = simulation;
+    }
+
+    /**
+     * Multiplies the score and (rounded up) visit count of an entry by the given factor
+     */
+    void decay(final int entry, final double factor) {
+        final Entries e = entries;
+        e.scores[entry] *= factor;
+        e.visits[entry] = (int) Math.ceil(e.visits[entry] * factor);
+    }
+
+    /**
+     * Multiplies the scores and (rounded up) visit counts of all entries by the given factor
+     */
+    void decayAll(final double factor) {
+        for (int entry = 0; entry < size; ++entry) {
+            decay(entry, factor);
+        }
+    }
+
+    /**
+     * @return Entry of the 1-gram of the last move of the given entry, the head of its chain
+     */
+    int oneGram(final int entry) {
+        final int[] suffixes = entries.suffixes;
+        int e = entry;
+        while (suffixes[e] >= 0) {
+            e = suffixes[e];
+        }
+        return e;
+    }
+
+    /**
+     * @return Next entry ending in the same move, or -1 at the end of the chain
+     */
+    int nextSameMove(final int entry) {
+        return entries.nextSameMove[entry];
+    }
+
+    int size() {
+        return size;
+    }
+
+    double score(final int entry) {
+        return entries.scores[entry];
+    }
+
+    int visits(final int entry) {
+        return entries.visits[entry];
+    }
+
+    int length(final int entry) {
+        return entries.lengths[entry];
+    }
+
+    int suffix(final int entry) {
+        return entries.suffixes[entry];
+    }
+
+    Move firstMove(final int entry) {
+        return entries.firstMoves[entry];
+    }
+
+    /**
+     * Removes all entries
+     */
+    void clear() {
+        slots = new Slots(slots.hashes.length);
+        entries = new Entries(entries.hashes.length);
+        size = 0;
+    }
+
+    /**
+     * Reinserts all entries into twice the number of hash slots and publishes them
+     */
+    private void growSlots() {
+        final Entries e = entries;
+        final Slots grown = new Slots(slots.hashes.length * 2);
+        for (int entry = 0; entry < size; ++entry) {
+            int slot = (int) e.hashes[entry] & grown.mask;
+            while (grown.hashes[slot] != FREE) {
+                slot = (slot + 1) & grown.mask;
+            }
+            grown.hashes[slot] = e.hashes[entry];
+            grown.entries[slot] = entry;
+        }
+        slots = grown;
+    }
+}
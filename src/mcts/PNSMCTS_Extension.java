@@ -8,17 +8,13 @@ import other.context.Context;
 import other.move.Move;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PNSMCTS_Extension extends AI {
 
 
-    public static boolean FIN_MOVE_SEL = false;
-    public static int SOLVERLIKE_MINVISITS = Integer.MAX_VALUE; // 5; // Integer.MAX_VALUE;
-
-
     //-------------------------------------------------------------------------
 
     /**
@@ -27,15 +23,15 @@ public class PNSMCTS_Extension extends AI {
     protected int player = -1;
 
     /**
-     * Settings contain (in order): pnConstant, explorationConstant, time per turn
+     * Search parameters of this agent
      */
-    private static double[] settings; // PN-Constant, MCTS-Constant, Time per turn
+    private final SearchConfig config;
 
 
-    // Used to count simulations per second
-    private static double sims = 0;
-    private static double simsThisTurn = 0;
-    private static double turns = 0;
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
 
     //-------------------------------------------------------------------------
 
@@ -44,26 +40,29 @@ public class PNSMCTS_Extension extends AI {
      */
     public PNSMCTS_Extension() {
         this.friendlyName = "PNS_ext UCT";
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, false, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
     }
 
     public PNSMCTS_Extension(boolean finMove, int minVisits, double pnCons) {
-        this.FIN_MOVE_SEL = finMove;
-        this.SOLVERLIKE_MINVISITS = minVisits;
         this.friendlyName = "PNS_ext UCT";
-        double[] defaultSettings = {pnCons, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
     }
 
     public PNSMCTS_Extension(double[] settings) {
         this.friendlyName = "PNS_ext UCT";
-        this.settings = settings;
+        this.config = SearchConfig.fromSettings(settings, false, Integer.MAX_VALUE, -100);
     }
 
 
     //-------------------------------------------------------------------------
 
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
+    }
+
     @Override
     public Move selectAction(
             final Game game,
@@ -72,8 +71,8 @@ public class PNSMCTS_Extension extends AI {
             final int maxIterations,
             final int maxDepth
     ) {
-        this.simsThisTurn = this.sims;
-        this.turns++;
+        simsThisTurn.reset();
+        turns.increment();
         // Start out by creating a new root node (no tree reuse in this example)
         final Node root = new Node(null, null, context, player);
 
@@ -99,7 +98,7 @@ public class PNSMCTS_Extension extends AI {
                     break;
                 }
 
-                current = select(current);
+                current = select(current, config);
 
                 if (current.visitCount == 0) {
                     // We've expanded a new node, time for playout!
@@ -122,7 +121,8 @@ public class PNSMCTS_Extension extends AI {
                                 -1,
                                 ThreadLocalRandom.current()
                         );
-                sims++;
+                sims.increment();
+                simsThisTurn.increment();
             }
 
             // This computes utilities for all players at the of the playout,
@@ -132,6 +132,7 @@ public class PNSMCTS_Extension extends AI {
             // Backpropagate utilities through the tree
             boolean changed = true;
             boolean firstNode = true;
+            Node child = null;
             while (current != null) {
                 current.visitCount += 1;
                 for (int p = 1; p <= game.players().count(); ++p) {
@@ -140,14 +141,13 @@ public class PNSMCTS_Extension extends AI {
                 if (!firstNode) {
                     if (changed) {
                         changed = current.setProofAndDisproofNumbers();
-                        if (current.getChildren().size() > 0) {
-                            current.setChildRanks();
-                        }
+                        current.updateChildRank(child);
                     }
                 } else {
                     firstNode = false;
                 }
 
+                child = current;
                 current = current.parent;
             }
             // if proofNum of root changed -> check is proven or disproven
@@ -165,7 +165,7 @@ public class PNSMCTS_Extension extends AI {
         }
 
         // Return the move we wish to play
-        return finalMoveSelection(root);
+        return finalMoveSelection(root, config);
     }
 
     /**
@@ -174,9 +174,10 @@ public class PNSMCTS_Extension extends AI {
      * new nodes if the given current node has unexpanded moves.
      *
      * @param current
+     * @param config Search parameters of the agent
      * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
      */
-    public static Node select(final Node current) {
+    public static Node select(final Node current, final SearchConfig config) {
         // All child nodes are created and added to the child list of the current node
         if (!current.expanded) {
             return current.developNode();
@@ -192,9 +193,9 @@ public class PNSMCTS_Extension extends AI {
         double bestValue = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
 
-        double explorationConstant = settings[1];
+        double explorationConstant = config.explorationConstant();
 
-        double pnConstant = settings[0];
+        double pnConstant = config.pnConstant();
         double total = current.getChildren().size();
 
         final int numChildren = current.children.size();
@@ -204,8 +205,8 @@ public class PNSMCTS_Extension extends AI {
             final Node child = current.children.get(i);
 
             if (current.proofNum != 0 && current.disproofNum != 0) {
-                if (child.proofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
-                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
+                if (child.proofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
+                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
             }
 
             final double exploit = child.scoreSums[mover] / child.visitCount;
@@ -235,9 +236,10 @@ public class PNSMCTS_Extension extends AI {
      * with the highest visit count).
      *
      * @param rootNode
+     * @param config Search parameters of the agent
      * @return Final move as selected by PN-MCTS
      */
-    public static Move finalMoveSelection(final Node rootNode) {
+    public static Move finalMoveSelection(final Node rootNode, final SearchConfig config) {
         Node bestChild = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
@@ -259,7 +261,7 @@ public class PNSMCTS_Extension extends AI {
         }
 
         // To ensure a proven node will select the proven child too
-        if (FIN_MOVE_SEL) {
+        if (config.finMoveSel()) {
             //System.out.println("XXXXXXX");
             if (rootNode.proofNum == 0) {
                 for (Node child : rootNode.children) {
@@ -298,7 +300,7 @@ public class PNSMCTS_Extension extends AI {
      *
      * @author Dennis Soemers
      */
-    private static class Node implements Comparable<Node> {
+    private static class Node {
 
         /**
          * Our parent node
@@ -349,9 +351,15 @@ public class PNSMCTS_Extension extends AI {
         private double disproofNum;
 
         /**
-         * Rank of a node compared to "siblings". Needed for UCT-PN. Ranks ordered best to worst
+         * Index of this node in the childRanks of its parent, where it is ranked under its proof number
+         * (OR parent) or disproof number (AND parent) compared to "siblings"
+         */
+        private int rankIndex;
+
+        /**
+         * Ranks of the child nodes, ordered best to worst
          */
-        private int rank;
+        private final ChildRanks childRanks = new ChildRanks();
 
         /**
          * Various necessary information variables.
@@ -422,8 +430,10 @@ public class PNSMCTS_Extension extends AI {
             // This means we do not support simultaneous-move games.
             unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
 
-            if (parent != null)
+            if (parent != null) {
                 parent.children.add(this);
+                rankIndex = parent.childRanks.add((parent.type == PNSNodeTypes.OR_NODE) ? proofNum : disproofNum);
+            }
         }
 
         /**
@@ -531,26 +541,11 @@ public class PNSMCTS_Extension extends AI {
         }
 
         /**
-         * Set an ordered ranking for the UCT-PN formula in the selection step of MCTS
+         * Re-positions a child in the UCT-PN ranking after its proof or disproof number may have changed
          */
-
-        public void setChildRanks() {
-            List<Node> sorted = new ArrayList<Node>(this.children);
-            Collections.sort(sorted);
-            Node lastNode = null;
-            for (int i = 0; i < sorted.size(); i++) {
-                Node child = sorted.get(i);
-                // If there's a tie
-                if (lastNode != null && this.type == PNSNodeTypes.OR_NODE && lastNode.getProofNum() == child.getProofNum()) {
-                    child.setRank(lastNode.getRank());
-                    // If there's a tie
-                } else if (lastNode != null && this.type == PNSNodeTypes.AND_NODE && lastNode.getDisproofNum() == child.getDisproofNum()) {
-                    child.setRank(lastNode.getRank());
-                } else {
-                    child.setRank(i + 1);
-                }
-                lastNode = child;
-            }
+        public void updateChildRank(final Node child) {
+            final double key = (this.type == PNSNodeTypes.OR_NODE) ? child.getProofNum() : child.getDisproofNum();
+            childRanks.update(child.rankIndex, key);
         }
 
         public List<Node> getChildren() {
@@ -570,39 +565,12 @@ public class PNSMCTS_Extension extends AI {
         }
 
         public int getRank() {
-            return rank;
+            return parent.childRanks.rank(rankIndex);
         }
 
         public List<Node> getUnexpandedChildren() {
             return unexpandedChildren;
         }
-
-        public void setRank(int rank) {
-            this.rank = rank;
-        }
-
-        // Used to rank children
-        @Override
-        public int compareTo(Node o) {
-            if (this.parent.getType() == PNSNodeTypes.OR_NODE) {
-                if (this.getProofNum() < o.getProofNum()) {
-                    return -1;
-                } else if (this.getProofNum() > o.getProofNum()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else if (this.parent.getType() == PNSNodeTypes.AND_NODE) {
-                if (this.getDisproofNum() < o.getDisproofNum()) {
-                    return -1;
-                } else if (this.getDisproofNum() > o.getDisproofNum()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            return 0;
-        }
     }
 
     //-------------------------------------------------------------------------
@@ -6,20 +6,28 @@ import other.AI;
 import other.RankUtils;
 import other.context.Context;
 import other.move.Move;
+import other.trial.Trial;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PNSMCTS_L2 extends AI {
 
 
-    public static boolean FIN_MOVE_SEL = true;
-    public static int SOLVERLIKE_MINVISITS = Integer.MAX_VALUE; // 5; // Integer.MAX_VALUE;
-    public static int counter = 0;
-    public static double CONTEMPT_FACTOR = -100; // -0.1; 0.0; 0.1; 0.2; ... ?
-
     //-------------------------------------------------------------------------
 
     /**
@@ -28,23 +36,90 @@ public class PNSMCTS_L2 extends AI {
     protected int player = -1;
 
     /**
-     * Settings contain (in order): pnConstant, explorationConstant, time per turn
+     * Search parameters of this agent, including the cached context depth, lazy expansion, tree reuse,
+     * transposition table, solved-subtree compaction, proof stop and time bank switches
+     */
+    private final SearchConfig config;
+
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
+
+    /**
+     * Number of moves for which the final move selection played a level 2 proof because the root score
+     * was at most the contempt factor
+     */
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /**
+     * Virtual loss added to a node for every worker currently below it (tree parallelisation)
      */
-    private static double[] settings;
+    private static final int VIRTUAL_LOSS = 1;
 
-    // Used to count simulations per second
-    private static double sims = 0;
-    private static double simsThisTurn = 0;
-    private static double turns = 0;
+    /**
+     * Number of worker threads (1 = sequential search)
+     */
+    private final int numThreads;
+
+    /**
+     * Number of independent trees, whose root statistics are merged at the deadline (root parallelisation).
+     * The workers are spread evenly over the trees, and the workers of one tree share it (tree parallelisation).
+     */
+    private final int numRoots;
+
+    /**
+     * Number of playouts run from every new leaf, all but one of them on the leaf pool (leaf parallelisation).
+     * Their utilities are summed and backpropagated as that many visits.
+     */
+    private final int leafPlayouts;
+
+    /**
+     * Simulations performed by every worker thread in the current turn
+     */
+    private final long[] simsPerThread;
+
+    /**
+     * Roots of the previous search and the number of moves in the trial at that time, used for tree reuse
+     */
+    private Node[] lastRoots = null;
+    private int lastNumMoves = 0;
+
+    /**
+     * Transposition table of the current game, null if the config has no transposition bits
+     */
+    private TranspositionTable transpositions = null;
+
+    /**
+     * Seconds left over by earlier searches of this game (proof stop), a share of which is spent on later moves
+     */
+    private double bankedSeconds = 0.0;
+
+    /**
+     * Worker pool for tree parallelisation, created on the first parallel search
+     */
+    private ExecutorService workers = null;
+
+    /**
+     * Worker pool for the extra playouts of leaf parallelisation, created on the first batch
+     */
+    private ExecutorService leafWorkers = null;
 
     //-------------------------------------------------------------------------
 
     //-----------david---------------------------
     /**
-     * @return The number of simulations performed in the current turn
+     * @return The number of simulations performed in the current turn (summed over all worker threads)
      */
     public double getSimsThisTurn() {
-        return simsThisTurn;
+        return simsThisTurn.sum();
+    }
+
+    /**
+     * @return The number of simulations every worker thread performed in the current turn
+     */
+    public long[] getSimsThisTurnPerThread() {
+        return simsPerThread.clone();
     }
     //-----------david---------------------------
     /**
@@ -52,32 +127,104 @@ public class PNSMCTS_L2 extends AI {
      */
     public PNSMCTS_L2() {
         this.friendlyName = "PNS_L2 UCT";
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, true, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+        this.numThreads = 1;
+        this.numRoots = 1;
+        this.leafPlayouts = 1;
+        this.simsPerThread = new long[1];
     }
 
     public PNSMCTS_L2(double[] settings) {
         this.friendlyName = "PNS_L2 UCT";
-        this.settings = settings;
+        this.config = SearchConfig.fromSettings(settings, true, Integer.MAX_VALUE, -100);
+        this.numThreads = 1;
+        this.numRoots = 1;
+        this.leafPlayouts = 1;
+        this.simsPerThread = new long[1];
     }
 
     public PNSMCTS_L2(boolean finMove, int minVisits, double pnCons, double contemptFactor) {
-        this.FIN_MOVE_SEL = finMove;
-        this.SOLVERLIKE_MINVISITS = minVisits;
-        this.CONTEMPT_FACTOR = contemptFactor; // applies only if FIN_MOVE_SEL is true
-        this.friendlyName = "PNS_L2 UCT";
-        double[] defaultSettings = {pnCons, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
-        this.counter = 0;
+        this(finMove, minVisits, pnCons, contemptFactor, 1);
+    }
+
+    /**
+     * Constructor for tree-parallel search
+     *
+     * @param numThreads Number of worker threads sharing one search tree (1 = sequential search)
+     */
+    public PNSMCTS_L2(boolean finMove, int minVisits, double pnCons, double contemptFactor, int numThreads) {
+        this(finMove, minVisits, pnCons, contemptFactor, numThreads, false);
+    }
+
+    /**
+     * Constructor for parallel search
+     *
+     * @param numThreads   Number of worker threads (1 = sequential search)
+     * @param rootParallel True to give every worker its own tree (root parallelisation), false to share one tree
+     */
+    public PNSMCTS_L2(boolean finMove, int minVisits, double pnCons, double contemptFactor, int numThreads, boolean rootParallel) {
+        this(finMove, minVisits, pnCons, contemptFactor, numThreads, rootParallel, 1);
+    }
+
+    /**
+     * Constructor for parallel search with leaf parallelisation
+     *
+     * @param numThreads   Number of worker threads (1 = sequential search)
+     * @param rootParallel True to give every worker its own tree (root parallelisation), false to share one tree
+     * @param leafPlayouts Number of playouts run concurrently from every new leaf (1 = no leaf parallelisation)
+     */
+    public PNSMCTS_L2(boolean finMove, int minVisits, double pnCons, double contemptFactor, int numThreads, boolean rootParallel, int leafPlayouts) {
+        this(finMove, minVisits, pnCons, contemptFactor, numThreads, rootParallel ? numThreads : 1, leafPlayouts);
+    }
+
+    /**
+     * Constructor for root parallelisation over trees that are each searched by several workers
+     *
+     * @param numThreads   Number of worker threads (1 = sequential search)
+     * @param numRoots     Number of independent trees, at most numThreads (1 = one tree shared by all workers)
+     * @param leafPlayouts Number of playouts run concurrently from every new leaf (1 = no leaf parallelisation)
+     */
+    public PNSMCTS_L2(boolean finMove, int minVisits, double pnCons, double contemptFactor, int numThreads, int numRoots, int leafPlayouts) {
+        this(new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, contemptFactor), numThreads, numRoots, leafPlayouts); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+    }
+
+    /**
+     * Constructor with a complete search configuration
+     *
+     * @param config       Search parameters and implementation switches of this agent
+     * @param numThreads   Number of worker threads (1 = sequential search)
+     * @param numRoots     Number of independent trees, at most numThreads (1 = one tree shared by all workers)
+     * @param leafPlayouts Number of playouts run concurrently from every new leaf (1 = no leaf parallelisation)
+     */
+    public PNSMCTS_L2(SearchConfig config, int numThreads, int numRoots, int leafPlayouts) {
+        this.numThreads = Math.max(1, numThreads);
+        this.numRoots = Math.max(1, Math.min(this.numThreads, numRoots));
+        this.friendlyName = (this.numThreads > 1 ? "PNS_L2 UCT (" + this.numThreads + " threads"
+                + (this.numRoots > 1 ? ", " + this.numRoots + " roots" : "") + ")" : "PNS_L2 UCT")
+                + (leafPlayouts > 1 ? " (" + leafPlayouts + " leaf playouts)" : "");
+        this.config = config;
+        this.leafPlayouts = Math.max(1, leafPlayouts);
+        this.simsPerThread = new long[this.numThreads];
     }
 
     public void resetCounter() {
-        counter = 0;
+        counter.set(0);
+    }
+
+    public int getCounter() {
+        return counter.get();
     }
 
 
     //-------------------------------------------------------------------------
 
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
+    }
+
     @Override
     public Move selectAction(
             final Game game,
@@ -88,101 +235,426 @@ public class PNSMCTS_L2 extends AI {
     ) {
 //        this.simsThisTurn = this.sims;
 //        this.turns++;
-        simsThisTurn = 0;
-        turns++;
-        // Start out by creating a new root node (no tree reuse in this example)
-        final Node root = new Node(null, null, context, player);
+        simsThisTurn.reset();
+        turns.increment();
+        Arrays.fill(simsPerThread, 0L);
+        // Start out by promoting the matching subtree of the previous search, or else by creating a new root node.
+        // With root parallelisation every tree gets its own root on a private copy of the context.
+        final Node[] roots = new Node[numRoots];
+        if (config.transpositionBits() > 0) {
+            if (transpositions == null) {
+                transpositions = new TranspositionTable(config.transpositionBits(), game.players().count() + 1);
+            }
+            transpositions.newSearch();
+        }
+        final boolean reuse = config.treeReuse() && lastRoots != null && lastRoots.length == roots.length;
+        for (int t = 0; t < roots.length; ++t) {
+            final Context rootContext = roots.length > 1 ? new Context(context) : context;
+            final Node reused = reuse ? promoteSubtree(lastRoots[t], lastNumMoves, rootContext) : null;
+            roots[t] = (reused != null) ? reused : new Node(null, null, rootContext, player, transpositions, config);
+        }
 
-        // We'll respect any limitations on max seconds and max iterations (don't care about max depth)
-        final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+        // We'll respect any limitations on max seconds and max iterations (don't care about max depth).
+        // With the time bank a move gets timePerTurn seconds, plus a share of the time banked by earlier
+        // searches that were settled early, but never more than the maxSeconds we were given.
+        final double budgetSeconds;
+        if (maxSeconds > 0.0 && config.timeBankShare() > 0.0) {
+            final double baseSeconds = Math.min(config.timePerTurn(), maxSeconds);
+            final double bonusSeconds = Math.min(config.timeBankShare() * bankedSeconds, maxSeconds - baseSeconds);
+            bankedSeconds -= bonusSeconds;
+            budgetSeconds = baseSeconds + bonusSeconds;
+        } else {
+            budgetSeconds = maxSeconds;
+        }
+        final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (budgetSeconds * 1000L) : Long.MAX_VALUE;
         final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
 
-        int numIterations = 0;
+        if (numThreads > 1) {
+            runParallel(game, roots, stopTime, maxIts);
+        } else {
+            int numIterations = 0;
+
+            // Our main loop through MCTS iterations
+            while (
+                    numIterations < maxIts &&                    // Respect iteration limit
+                            System.currentTimeMillis() < stopTime &&    // Respect time limit
+                            !wantsInterrupt &&                            // Respect GUI user clicking the pause button
+                            !(config.proofStop() && isSettled(roots, config))    // Stop once the move to play is proven
+            ) {
+                simsPerThread[0] += runIteration(game, roots[0], false);
+
+                // Increment iteration count
+                ++numIterations;
+            }
+        }
 
-        // Our main loop through MCTS iterations
-        while (
-                numIterations < maxIts &&                    // Respect iteration limit
-                        System.currentTimeMillis() < stopTime &&    // Respect time limit
-                        !wantsInterrupt                                // Respect GUI user clicking the pause button
-        ) {
-            // Start in root node
-            Node current = root;
+        for (final long threadSims : simsPerThread) {
+            sims.add(threadSims);
+            simsThisTurn.add(threadSims);
+        }
 
-            // Traverse tree
-            while (true) {
-                if (current.context.trial().over()) {
-                    // We've reached a terminal state
-                    break;
-                }
+        if (maxSeconds > 0.0 && config.timeBankShare() > 0.0) {
+            bankedSeconds += Math.max(0L, stopTime - System.currentTimeMillis()) / 1000.0;
+        }
 
-                current = select(current);
+        lastRoots = config.treeReuse() ? roots : null;
+        lastNumMoves = context.trial().numMoves();
 
-                if (current.visitCount == 0) {
-                    // We've expanded a new node, time for playout!
-                    break;
+        // Return the move we wish to play
+        return roots.length > 1 ? finalMoveSelection(roots, config, counter) : finalMoveSelection(roots[0], config, counter);
+    }
+
+    /**
+     * Runs MCTS iterations on numThreads workers until the time or iteration limit is hit. Worker t searches
+     * roots[t % roots.length]: the workers of one root share its tree (tree parallelisation) and add a
+     * virtual loss to every node they pass, so concurrent descents spread over the tree. With one root per
+     * worker the trees are independent and no locking is needed (root parallelisation). Both can be combined
+     * by giving fewer roots than workers.
+     */
+    private void runParallel(final Game game, final Node[] roots, final long stopTime, final int maxIts) {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+                final Thread thread = new Thread(runnable, friendlyName + " worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        final boolean concurrent = roots.length < numThreads;
+        final AtomicInteger numIterations = new AtomicInteger(0);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int threadIndex = t;
+            final Node root = roots[t % roots.length];
+            futures.add(workers.submit(() -> {
+                while (
+                        numIterations.getAndIncrement() < maxIts &&  // Respect iteration limit (shared by all workers)
+                                System.currentTimeMillis() < stopTime &&    // Respect time limit
+                                !wantsInterrupt &&                            // Respect GUI user clicking the pause button
+                                !(config.proofStop() && isSettled(roots, config))    // Stop once the move to play is proven
+                ) {
+                    simsPerThread[threadIndex] += runIteration(game, root, concurrent);
                 }
+            }));
+        }
+
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Parallel search worker failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Performs one MCTS iteration (selection, expansion, playout and backpropagation) starting in the root.
+     * With concurrent set, a virtual loss is kept on the nodes of the current path until the playout result
+     * is backpropagated. Visit counts and score sums are only changed atomically, so most of an iteration takes
+     * no lock: a node is only locked while selection may still change its children (development and the first
+     * visit of every child), and while backpropagation recomputes its (dis)proof numbers from its children.
+     * A thread never holds more than one node lock at a time, so this cannot deadlock.
+     *
+     * @return Number of playouts run, 0 if the selection ended in a terminal node
+     */
+    private int runIteration(final Game game, final Node root, final boolean concurrent) {
+        // Start in root node
+        Node current = root;
+
+        // Private copy of the game state of the parent of the selected node. Nodes don't keep a Context
+        // of their own, so it is only rebuilt (by replaying moves) when a node has to be developed.
+        Context state = null;
+
+        // Traverse tree
+        while (true) {
+            if (current.isTerminal()) {
+                // We've reached a terminal state
+                break;
             }
 
-            Context contextEnd = current.context;
-
-            if (!contextEnd.trial().over()) {
-                // Run a playout if we don't already have a terminal game state in node
-                contextEnd = new Context(contextEnd);
-                game.playout
-                        (
-                                contextEnd,
-                                null,
-                                -1.0,
-                                null,
-                                0,
-                                -1,
-                                ThreadLocalRandom.current()
-                        );
-                sims++;
-                simsThisTurn++;
-            }
-
-            // This computes utilities for all players at the of the playout,
-            // which will all be values in [-1.0, 1.0]
-            final double[] utilities = RankUtils.utilities(contextEnd);
-
-            // Backpropagate utilities through the tree
-            boolean changed = true;
-            boolean firstNode = true;
-            while (current != null) {
-                current.visitCount += 1;
-                for (int p = 1; p <= game.players().count(); ++p) {
-                    current.scoreSums[p] += utilities[p];
-                }
-                if (!firstNode) {
-                    if (changed) {
-                        changed = current.setProofAndDisproofNumbers();
-                        if (current.getChildren().size() > 0) {
-                            current.setChildRanks();
-                        }
+            state = current.needsState() ? current.replayState() : null;
+
+            final boolean newNode;
+            if (concurrent) {
+                final Node parent = current;
+                if (parent.fullyExpanded) {
+                    // The children of parent don't change anymore, so UCT-PN can pick one without the lock
+                    current = selectUct(parent, config);
+                    if (current == null) {
+                        // Compacted by another worker after the check above, so it is a leaf now
+                        current = parent;
+                        break;
                     }
+                    newNode = current.claimVisit(parent.mover);
                 } else {
-                    firstNode = false;
+                    synchronized (parent) {
+                        if (parent.isTerminal()) {
+                            // Compacted by another worker after the check above, so it is a leaf now
+                            break;
+                        }
+                        current = select(parent, state, transpositions, config);
+                        newNode = current.claimVisit(parent.mover);
+                        // Published only now, so lock-free selection never finds a child without a visit
+                        parent.fullyExpanded = parent.unexpandedChildren.isEmpty() && parent.numUnexpandedMoves() == 0;
+                    }
                 }
+            } else {
+                current = select(current, state, transpositions, config);
+                newNode = current.visitCount == 0;
+            }
 
-                current = current.parent;
+            if (newNode) {
+                // We've expanded a new node, time for playout!
+                break;
             }
-            // if proofNum of root changed -> check is proven or disproven
-            // if (changed) {
-                // for (Node child : root.children) {
-                    // if root is proven -> stop searching
-                    // if (child.proofNum == 0) { // causes problems with robust child final move selection
-                    //     return finalMoveSelection(root);
-                    // }
-                // }
-            // }
+        }
 
-            // Increment iteration count
-            ++numIterations;
+        final double[] utilities;
+        int playouts = 0;
+
+        if (current.isTerminal()) {
+            utilities = current.terminalUtilities;
+        } else {
+            // Run a playout if we don't already have a terminal game state in node
+            final Context contextEnd;
+            if (state != null) {
+                // The parent was just developed from this state, so one more move gives the state of the new node
+                contextEnd = state;
+                game.apply(contextEnd, current.moveFromParent);
+            } else {
+                contextEnd = current.replayState();
+            }
+            if (leafPlayouts > 1) {
+                utilities = runLeafPlayouts(game, contextEnd);
+            } else {
+                utilities = playout(game, contextEnd);
+            }
+            playouts = leafPlayouts;
         }
+        final int visits = Math.max(1, playouts);
+
+        // Backpropagate utilities through the tree
+        boolean changed = true;
+        Node child = null;
+        while (current != null) {
+            if (concurrent && current.parent != null) {
+                // Replace the virtual loss by the real result
+                current.addVisits(-VIRTUAL_LOSS);
+                current.addScore(current.parent.mover, VIRTUAL_LOSS);
+            }
+            changed = backpropagate(current, child, utilities, visits, changed, concurrent, config);
 
-        // Return the move we wish to play
-        return finalMoveSelection(root);
+            child = current;
+            current = current.parent;
+        }
+
+        return playouts;
+    }
+
+    /**
+     * Plays the game to the end with random moves.
+     *
+     * @return Utilities of all players at the end of the playout, all values in [-1.0, 1.0]
+     */
+    private static double[] playout(final Game game, final Context context) {
+        game.playout
+                (
+                        context,
+                        null,
+                        -1.0,
+                        null,
+                        0,
+                        -1,
+                        ThreadLocalRandom.current()
+                );
+        return RankUtils.utilities(context);
+    }
+
+    /**
+     * Runs leafPlayouts playouts from the state of a new leaf (leaf parallelisation): one on the calling
+     * thread and the others on copies of the state in the leaf pool. The calling thread waits for the whole
+     * batch, so a result is never lost to an interrupt; the interrupt is restored afterwards.
+     *
+     * @param context Game state of the leaf, played out in place
+     * @return Utilities summed over all leafPlayouts playouts
+     */
+    private double[] runLeafPlayouts(final Game game, final Context context) {
+        synchronized (this) {
+            if (leafWorkers == null) {
+                leafWorkers = Executors.newFixedThreadPool(numThreads * (leafPlayouts - 1), runnable -> {
+                    final Thread thread = new Thread(runnable, friendlyName + " leaf worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+
+        final List<Future<double[]>> futures = new ArrayList<Future<double[]>>(leafPlayouts - 1);
+        for (int i = 1; i < leafPlayouts; ++i) {
+            // Copy before the calling thread starts changing the state
+            final Context copy = new Context(context);
+            futures.add(leafWorkers.submit(() -> playout(game, copy)));
+        }
+
+        final double[] sums = playout(game, context);
+        boolean interrupted = false;
+        for (final Future<double[]> future : futures) {
+            while (true) {
+                try {
+                    final double[] utilities = future.get();
+                    for (int p = 1; p < sums.length; ++p) {
+                        sums[p] += utilities[p];
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Leaf playout failed", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return sums;
+    }
+
+    /**
+     * Checks if further search can't change the move to play (proof stop). The decision is taken on the same
+     * values as finalMoveSelection(Node[]): the lowest (dis)proof numbers of all roots and the root score summed
+     * over all roots. That is the case once a root is proven on level 1 and finMoveSel will play a proven
+     * child, once a root is proven a draw and finMoveSel will play a drawing child (merged root score at most
+     * the contempt factor), or once a root is disproven on level 2 as every move loses. A root only counts
+     * once it is expanded and has a child of the matching value to play: a root that took over a proof from
+     * the transposition table may not have any children yet.
+     * Proof numbers and scores of shared roots are read without locking; a stale value only delays the stop.
+     * The children are only looked at under the lock of each root, once the proof numbers say the search may
+     * be settled.
+     *
+     * @param config Search parameters of the agent
+     * @return True if the search may stop
+     */
+    private static boolean isSettled(final Node[] roots, final SearchConfig config) {
+        double rootProofNum = Double.POSITIVE_INFINITY;
+        double rootProofNumL2 = Double.POSITIVE_INFINITY;
+        double rootDisproofNumL2 = Double.POSITIVE_INFINITY;
+        for (final Node root : roots) {
+            rootProofNum = Math.min(rootProofNum, root.proofNum);
+            rootProofNumL2 = Math.min(rootProofNumL2, root.proofNumL2);
+            rootDisproofNumL2 = Math.min(rootDisproofNumL2, root.disproofNumL2);
+        }
+        final boolean lost = rootDisproofNumL2 == 0;
+        final boolean proven = config.finMoveSel() && rootProofNum == 0;
+        final boolean drawn = config.finMoveSel() && !proven && rootProofNumL2 == 0;
+        if (!lost && !proven && !drawn) {
+            return false;
+        }
+
+        final int mover = roots[0].mover;
+        double rootScore = 0.0;
+        int rootVisits = 0;
+        boolean hasChild = false;
+        boolean hasProvenChild = false;
+        boolean hasDrawingChild = false;
+        for (final Node root : roots) {
+            synchronized (root) {
+                rootScore += root.scoreSum(mover);
+                rootVisits += root.visitCount;
+                if (!root.expanded) {
+                    continue;
+                }
+                hasChild |= !root.children.isEmpty();
+                hasProvenChild |= proven && provenChild(root, false) != null;
+                hasDrawingChild |= drawn && provenChild(root, true) != null;
+            }
+        }
+
+        if (lost && hasChild) {
+            return true;
+        }
+        if (proven) {
+            return hasProvenChild;
+        }
+        return drawn && hasDrawingChild && rootScore / rootVisits <= config.contemptFactor();
+    }
+
+    /**
+     * @param level2 True for a child proven on level 2 (a win or a draw), false for a child proven on level 1
+     * @return The first child of root that is proven on the given level, null if there is none
+     */
+    private static Node provenChild(final Node root, final boolean level2) {
+        for (final Node child : root.children) {
+            if ((level2 ? child.proofNumL2 : child.proofNum) == 0) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A random legal move in the state of the root, for a search that ended before the root had children
+     */
+    private static Move randomMove(final Node root) {
+        final Context context = root.replayState();
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        return legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+    }
+
+    /**
+     * Backpropagates the utilities of a batch of playouts into a single node, updating its proof numbers and
+     * the rank of the child on the playout path if anything below it changed. A node whose value is
+     * settled by this is compacted (if the config says so), nodes compacted before only update their statistics.
+     * The statistics are added atomically; with concurrent set, the node is only locked for the recomputation of
+     * its (dis)proof numbers, which reads its child list.
+     *
+     * @param child      The child of current on the playout path, null for the node the playout started in
+     * @param utilities  Utilities summed over the playouts of the batch
+     * @param visits     Number of playouts in the batch (1 without leaf parallelisation)
+     * @param concurrent True if other workers may search the same tree
+     * @param config     Search parameters of the agent
+     * @return True if the proof numbers of this node changed (or may have changed)
+     */
+    private static boolean backpropagate(final Node current, final Node child, final double[] utilities, final int visits,
+                                         final boolean changed, final boolean concurrent, final SearchConfig config) {
+        current.addVisits(visits);
+        for (int p = 1; p < current.scoreSums.length; ++p) {
+            current.addScore(p, utilities[p]);
+        }
+        if (current.transposition != null) {
+            current.transposition.update(utilities, visits);
+        }
+        if (child != null && changed && !current.isTerminal()) {
+            if (concurrent) {
+                synchronized (current) {
+                    // Compacted by another worker after the check above
+                    return current.isTerminal() || updateProofNumbers(current, child, config);
+                }
+            }
+            return updateProofNumbers(current, child, config);
+        }
+        return changed;
+    }
+
+    /**
+     * Recomputes the (dis)proof numbers of a node after those of the given child may have changed, and
+     * compacts the node if it is solved by this (if the config says so)
+     *
+     * @return True if the proof numbers of this node changed
+     */
+    private static boolean updateProofNumbers(final Node current, final Node child, final SearchConfig config) {
+        // Values solved elsewhere for this position come first, the children can't change a solved level
+        final boolean nodeChanged = current.syncTransposition() | current.setProofAndDisproofNumbers();
+        if (nodeChanged) {
+            // Publish what the children solved
+            current.syncTransposition();
+        }
+        current.updateChildRank(child);
+        if (nodeChanged && config.compactSolved() && current.parent != null && current.isSolved()) {
+            current.compactSolved();
+        }
+        return nodeChanged;
     }
 
     /**
@@ -191,34 +663,54 @@ public class PNSMCTS_L2 extends AI {
      * new nodes if the given current node has unexpanded moves.
      *
      * @param current
+     * @param state          Private copy of the game state of current, required if current.needsState()
+     * @param transpositions Transposition table for new nodes, may be null
+     * @param config Search parameters of the agent
      * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
      */
-    public static Node select(final Node current) {
+    public static Node select(final Node current, final Context state, final TranspositionTable transpositions, final SearchConfig config) {
         // All child nodes are created and added to the child list of the current node
         if (!current.expanded) {
-            return current.developNode();
+            return current.developNode(state, transpositions, config);
         }
 
         // Don't use UCT-PN until all nodes have been visited once
         if (current.getUnexpandedChildren().size() > 0) {
             return current.getUnexpandedChildren().remove(ThreadLocalRandom.current().nextInt(current.unexpandedChildren.size()));
         }
+        if (current.numUnexpandedMoves() > 0) {
+            return current.materialiseChild(state, transpositions, config);
+        }
+        return selectUct(current, config);
+    }
 
+    /**
+     * Selects a child of a node whose children were all visited before, according to the UCT-PN equation.
+     * Safe without the lock of the node once it is fully expanded: the child list is then only ever swapped
+     * out as a whole (compactSolved), and the ranks are copied under the ChildRanks monitor in one go.
+     *
+     * @param config Search parameters of the agent
+     * @return Selected node, null if the node was compacted and has no children anymore
+     */
+    private static Node selectUct(final Node current, final SearchConfig config) {
         // use UCT-PN equation to select from all children, with random tie-breaking
         Node bestChild = null;
         double bestValue = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
 
-        double explorationConstant = settings[1];
+        double explorationConstant = config.explorationConstant();
 
-        double pnConstant = settings[0];
-        double total = current.getChildren().size();
+        double pnConstant = config.pnConstant();
 
-        final int numChildren = current.children.size();
-        final int mover = current.context.state().mover();
+        final List<Node> children = current.children;
+        final int numChildren = children.size();
+        final double total = numChildren;
+        final int mover = current.mover;
+        final double logVisits = Math.log(current.visitCount);
+        final int[] ranks = current.snapshotRanks();
 
         for (int i = 0; i < numChildren; ++i) {
-            final Node child = current.children.get(i);
+            final Node child = children.get(i);
 
             // sanity check
 //            if (child.proofNum == 0 && child.proofNumL2 != 0) System.err.println("L1 proof 0 but L2 not!!!");
@@ -227,19 +719,19 @@ public class PNSMCTS_L2 extends AI {
 
             // original solver
 //            if (current.proofNum != 0 && current.disproofNum != 0) {
-//                if (child.proofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
-//                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
+//                if (child.proofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
+//                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
 //            }
 
             // slightly modified 2Level solver
             if (current.proofNumL2 != 0 && current.disproofNum != 0) {
-                if (child.proofNumL2 == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue; // win or draw
-                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue; // lose or draw
+                if (child.proofNumL2 == 0 && child.visitCount > config.solverlikeMinVisits()) continue; // win or draw
+                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue; // lose or draw
             }
 
-            final double exploit = child.scoreSums[mover] / child.visitCount;
-            final double explore = Math.sqrt((Math.log(current.visitCount)) / child.visitCount); //UCT with changeable exploration constant
-            final double pnEffect = 1 - (child.getRank() / total); // This formula assures that the node with lowest rank (best node) has the highest pnEffect
+            final double exploit = child.meanScore(mover);
+            final double explore = Math.sqrt(logVisits / child.visitCount); //UCT with changeable exploration constant
+            final double pnEffect = 1 - (ranks[child.rankIndex] / total); // This formula assures that the node with lowest rank (best node) has the highest pnEffect
 
             // UCT-PN Formula
             final double uctValue = exploit + (explorationConstant * explore) + (pnConstant * pnEffect);
@@ -256,15 +748,44 @@ public class PNSMCTS_L2 extends AI {
         return bestChild;
     }
 
+    /**
+     * Follows the moves played since the previous search (ours and the opponent's) down the previous tree
+     * and detaches the node that was reached, so it becomes the new root with all its statistics and
+     * (dis)proof numbers. The rest of the previous tree is left to the garbage collector.
+     *
+     * @param oldRoot      Root of the previous search
+     * @param oldNumMoves  Number of moves in the trial at the previous search
+     * @param context      Current game state, becomes the Context of the new root
+     * @return The new root, or null if the previous tree does not contain the current state
+     */
+    private static Node promoteSubtree(final Node oldRoot, final int oldNumMoves, final Context context) {
+        final Trial trial = context.trial();
+        if (trial.numMoves() < oldNumMoves) {
+            return null;
+        }
+
+        Node node = oldRoot;
+        for (int i = oldNumMoves; i < trial.numMoves() && node != null; ++i) {
+            node = node.findChild(trial.getMove(i));
+        }
+        if (node == null || node.isTerminal()) {
+            return null;
+        }
+        node.makeRoot(context);
+        return node;
+    }
+
     /**
      * Selects the move we wish to play using the "Robust Child" strategy
      * (meaning that we play the move leading to the child of the root node
      * with the highest visit count).
      *
      * @param rootNode
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
      * @return Final move as selected by PN-MCTS
      */
-    public static Move finalMoveSelection(final Node rootNode) {
+    public static Move finalMoveSelection(final Node rootNode, final SearchConfig config, final AtomicInteger counter) {
         Node bestChild = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
@@ -286,7 +807,7 @@ public class PNSMCTS_L2 extends AI {
         }
 
         // To ensure a proven node will select the proven child too
-        if (FIN_MOVE_SEL) {
+        if (config.finMoveSel()) {
             //System.out.println("XXXXXXX");
             if (rootNode.proofNum == 0) {
                 for (Node child : rootNode.children) {
@@ -296,10 +817,10 @@ public class PNSMCTS_L2 extends AI {
                     }
                 }
             } else if (rootNode.proofNumL2 == 0) { // Level 2 check
-                double rootscore = rootNode.scoreSums[rootNode.context.state().mover()] / rootNode.visitCount;
+                double rootscore = rootNode.scoreSums[rootNode.mover] / rootNode.visitCount;
                 //System.out.println("Can prove draw (not win), root score " + rootscore);
-                if (rootscore <= CONTEMPT_FACTOR) {
-                    ++counter;
+                if (rootscore <= config.contemptFactor()) {
+                    counter.incrementAndGet();
                     // uncomment line below for verbose!
                     //System.out.println("FinMoveSel proven DRAW, rootscore: " + rootscore);
                     for (Node child : rootNode.children) {
@@ -313,12 +834,217 @@ public class PNSMCTS_L2 extends AI {
             //System.out.println("rootscore: " + rootNode.scoreSums[rootNode.context.state().mover()] / rootNode.visitCount);
         }
 
+        if (bestChild == null) {
+            return randomMove(rootNode);
+        }
         return bestChild.moveFromParent;
     }
 
+    /**
+     * Selects the final move from several independently searched trees (root parallelisation). The root
+     * children are merged by move: visit counts and score sums are added up and the lowest (dis)proof numbers
+     * of any tree are kept. Children with the same visit count are told apart by their merged mean score.
+     * The root score sums are added up for the Level 2 contempt check. A (dis)proof in one tree is exact, so
+     * a child proven by any tree takes priority just like in the single-tree selection.
+     *
+     * @param roots
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
+     * @return Final move as selected by the ensemble of PN-MCTS trees
+     */
+    public static Move finalMoveSelection(final Node[] roots, final SearchConfig config, final AtomicInteger counter) {
+        final Map<Move, RootChildStats> merged = new LinkedHashMap<Move, RootChildStats>();
+        double rootProofNum = Double.POSITIVE_INFINITY;
+        double rootProofNumL2 = Double.POSITIVE_INFINITY;
+        double rootScore = 0.0;
+        int rootVisits = 0;
+        final int mover = roots[0].mover;
+
+        for (final Node root : roots) {
+            rootProofNum = Math.min(rootProofNum, root.proofNum);
+            rootProofNumL2 = Math.min(rootProofNumL2, root.proofNumL2);
+            rootScore += root.scoreSums[mover];
+            rootVisits += root.visitCount;
+
+            for (final Node child : root.children) {
+                RootChildStats stats = merged.get(child.moveFromParent);
+                if (stats == null) {
+                    stats = new RootChildStats(child.moveFromParent, child.scoreSums.length);
+                    merged.put(child.moveFromParent, stats);
+                }
+                stats.visitCount += child.visitCount;
+                for (int p = 1; p < child.scoreSums.length; ++p) {
+                    stats.scoreSums[p] += child.scoreSums[p];
+                }
+                stats.proofNum = Math.min(stats.proofNum, child.proofNum);
+                stats.disproofNum = Math.min(stats.disproofNum, child.disproofNum);
+                stats.proofNumL2 = Math.min(stats.proofNumL2, child.proofNumL2);
+                stats.disproofNumL2 = Math.min(stats.disproofNumL2, child.disproofNumL2);
+            }
+        }
+
+        RootChildStats bestChild = null;
+        int bestVisitCount = Integer.MIN_VALUE;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int numBestFound = 0;
+
+        for (final RootChildStats child : merged.values()) {
+            final double score = child.scoreSums[mover] / child.visitCount;
+            if (child.visitCount > bestVisitCount || (child.visitCount == bestVisitCount && score > bestScore)) {
+                bestVisitCount = child.visitCount;
+                bestScore = score;
+                bestChild = child;
+                numBestFound = 1;
+            } else if (child.visitCount == bestVisitCount && score == bestScore && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                // this case implements random tie-breaking
+                bestChild = child;
+            }
+        }
+
+        // To ensure a proven node will select the proven child too
+        if (config.finMoveSel()) {
+            if (rootProofNum == 0) {
+                for (final RootChildStats child : merged.values()) {
+                    if (child.proofNum == 0) {
+                        bestChild = child;
+                        break;
+                    }
+                }
+            } else if (rootProofNumL2 == 0) { // Level 2 check
+                if (rootScore / rootVisits <= config.contemptFactor()) {
+                    counter.incrementAndGet();
+                    for (final RootChildStats child : merged.values()) {
+                        if (child.proofNumL2 == 0) {
+                            bestChild = child;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (bestChild == null) {
+            return randomMove(roots[0]);
+        }
+        return bestChild.move;
+    }
+
+    /**
+     * Checks the trees of the last search after a tree-parallel run (see experiments.TreeParallelStressTest):
+     * <ul>
+     *     <li>the root visit count equals the number of iterations and the root score sums equal the totals of
+     *     its children, which every iteration passes through (no lost update, no virtual loss left),</li>
+     *     <li>no node has fewer visits than its children together,</li>
+     *     <li>every expanded node's (dis)proof numbers equal the min/sum of its children (a recomputation
+     *     changes nothing), on both levels,</li>
+     *     <li>every child is ranked under its current proof or disproof number, with a cached rank of one plus the
+     *     number of siblings ranked under a lower number.</li>
+     * </ul>
+     * The trees are only kept with tree reuse, and the roots have to be new (initAI before the search).
+     *
+     * @param iterations Number of iterations run from every root
+     * @return Number of violated invariants, each one printed
+     */
+    public int checkLastSearch(final long iterations) {
+        if (lastRoots == null) {
+            throw new IllegalStateException("The trees of the last search are only kept with tree reuse");
+        }
+        int failures = 0;
+        for (final Node root : lastRoots) {
+            failures += checkTree(root, iterations);
+        }
+        return failures;
+    }
+
+    /**
+     * @return Number of violated invariants in the tree below the given root, each one printed
+     */
+    private static int checkTree(final Node root, final long iterations) {
+        int failures = 0;
+        if (root.visitCount != iterations) {
+            System.out.println("FAILED: root visit count " + root.visitCount + ", expected " + iterations);
+            ++failures;
+        }
+        for (int p = 1; p < root.scoreSums.length; ++p) {
+            double childScores = 0.0;
+            for (final Node child : root.children) {
+                childScores += child.scoreSum(p);
+            }
+            if (root.scoreSum(p) != childScores) {
+                System.out.println("FAILED: root score sum of player " + p + " is " + root.scoreSum(p)
+                        + ", its children " + childScores);
+                ++failures;
+            }
+        }
+
+        // A consistent tree is a fixed point of the recomputation, so the order of the checks doesn't matter
+        int numNodes = 0;
+        final Deque<Node> open = new ArrayDeque<Node>();
+        open.push(root);
+        while (!open.isEmpty()) {
+            final Node node = open.pop();
+            ++numNodes;
+            if (!node.expanded) {
+                continue;
+            }
+
+            long childVisits = 0;
+            for (final Node child : node.children) {
+                childVisits += child.visitCount;
+                final double key = (node.type == Node.PNSNodeTypes.OR_NODE) ? child.proofNum : child.disproofNum;
+                if (node.childRanks.key(child.rankIndex) != key) {
+                    System.out.println("FAILED: child ranked under " + node.childRanks.key(child.rankIndex)
+                            + " instead of " + key + " at depth " + child.depth);
+                    ++failures;
+                }
+                int rank = 1;
+                for (final Node sibling : node.children) {
+                    if (node.childRanks.key(sibling.rankIndex) < node.childRanks.key(child.rankIndex)) {
+                        ++rank;
+                    }
+                }
+                if (node.childRanks.rank(child.rankIndex) != rank) {
+                    System.out.println("FAILED: child has rank " + node.childRanks.rank(child.rankIndex)
+                            + " instead of " + rank + " at depth " + child.depth);
+                    ++failures;
+                }
+                open.push(child);
+            }
+            if (node.visitCount < childVisits) {
+                System.out.println("FAILED: node at depth " + node.depth + " has " + node.visitCount
+                        + " visits, its children " + childVisits);
+                ++failures;
+            }
+            if (node.setProofAndDisproofNumbers()) {
+                System.out.println("FAILED: stale (dis)proof numbers at depth " + node.depth);
+                ++failures;
+            }
+        }
+        System.out.println(numNodes + " nodes checked, root proof " + root.proofNum + " disproof " + root.disproofNum
+                + " proof L2 " + root.proofNumL2 + " disproof L2 " + root.disproofNumL2);
+        return failures;
+    }
+
     @Override
     public void initAI(final Game game, final int playerID) {
         this.player = playerID;
+        this.lastRoots = null; // never reuse a tree from a previous game
+        this.transpositions = null;
+        this.bankedSeconds = 0.0;
+    }
+
+    @Override
+    public void closeAI() {
+        lastRoots = null;
+        transpositions = null;
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+        if (leafWorkers != null) {
+            leafWorkers.shutdownNow();
+            leafWorkers = null;
+        }
     }
 
     @Override
@@ -335,17 +1061,65 @@ public class PNSMCTS_L2 extends AI {
 
     //-------------------------------------------------------------------------
 
+    /**
+     * Statistics of one root child merged over the trees of all root-parallel workers
+     */
+    private static class RootChildStats {
+
+        private final Move move;
+
+        private int visitCount = 0;
+
+        /**
+         * For every player, sum of the score sums of this child over all trees
+         */
+        private final double[] scoreSums;
+
+        private double proofNum = Double.POSITIVE_INFINITY;
+        private double disproofNum = Double.POSITIVE_INFINITY;
+        private double proofNumL2 = Double.POSITIVE_INFINITY;
+        private double disproofNumL2 = Double.POSITIVE_INFINITY;
+
+        RootChildStats(final Move move, final int numScores) {
+            this.move = move;
+            this.scoreSums = new double[numScores];
+        }
+    }
+
     /**
      * Inner class for nodes used by example UCT
+     * <p>
+     * Tree-parallel workers share nodes. Visit count and score sums are only changed atomically through the
+     * VarHandles below, the (dis)proof numbers are recomputed under the lock of the node, and the child list
+     * and unexpanded moves only change under that lock as well. The UCT-PN ranking has its own ChildRanks monitor.
      *
      * @author Dennis Soemers
      */
-    private static class Node implements Comparable<Node> {
+    private static class Node {
+
+        /**
+         * Atomic access to the statistics of a node
+         */
+        private static final VarHandle VISIT_COUNT;
+        private static final VarHandle SCORE_SUMS = MethodHandles.arrayElementVarHandle(double[].class);
+
+        static {
+            try {
+                VISIT_COUNT = MethodHandles.lookup().findVarHandle(Node.class, "visitCount", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
 
         /**
-         * Our parent node
+         * Rank snapshot buffer of every search thread, grown by snapshotRanks() when a node has more children
          */
-        private final Node parent;
+        private static final ThreadLocal<int[]> RANK_BUFFER = ThreadLocal.withInitial(() -> new int[16]);
+
+        /**
+         * Our parent node (null for the root)
+         */
+        private Node parent;
 
         /**
          * The move that led from parent to this node
@@ -353,56 +1127,91 @@ public class PNSMCTS_L2 extends AI {
         private final Move moveFromParent;
 
         /**
-         * This objects contains the game state for this node (this is why we don't support stochastic games)
+         * Game state for this node (this is why we don't support stochastic games). Only kept for nodes up to the
+         * cached context depth of the config, deeper nodes are null and rebuilt by replaying moves from the closest cached ancestor.
+         */
+        private Context context;
+
+        /**
+         * Depth of this node below the current root, re-based by makeRoot
          */
-        private final Context context;
+        private int depth;
+
+        /**
+         * Player to move in this node
+         */
+        private final int mover;
+
+        /**
+         * Utilities of all players if this node is a terminal game state (or a compacted solved subtree), null otherwise
+         */
+        private volatile double[] terminalUtilities;
 
         /**
          * Visit count for this node
          */
-        private int visitCount = 0;
+        private volatile int visitCount = 0;
 
         /**
-         * For every player, sum of utilities / scores backpropagated through this node
+         * For every player, sum of utilities / scores backpropagated through this node (see addScore)
          */
         private final double[] scoreSums;
 
         /**
-         * Child nodes
+         * Statistics shared with all nodes of the same position, null if there is no transposition table
          */
-        private final List<Node> children = new ArrayList<Node>();
+        private final TranspositionTable.Entry transposition;
 
         /**
-         * List of moves for which we did not yet create a child node
+         * Child nodes. Replaced as a whole when the node is compacted, so a worker that read it without the lock
+         * of this node keeps an unchanged list.
          */
-        private final FastArrayList<Move> unexpandedMoves;
+        private volatile List<Node> children = new ArrayList<Node>();
+
+        /**
+         * List of moves for which we did not yet create a child node (lazy expansion only, null otherwise)
+         */
+        private FastArrayList<Move> unexpandedMoves = null;
 
         private final List<Node> unexpandedChildren = new ArrayList<Node>();
 
         /**
-         * Flag to keep track of if a node has expanded its children yet
+         * Flag to keep track of if a node has expanded its children yet. Volatile because tree-parallel workers
+         * check needsState() before taking the lock of this node.
+         */
+        private volatile boolean expanded = false;
+
+        /**
+         * Set by tree-parallel workers once every child was visited, after which the child list no longer
+         * changes and UCT-PN selects from it without the lock of this node
          */
-        private boolean expanded = false;
+        private volatile boolean fullyExpanded = false;
 
         /**
          * Proof and Disproof number of current node
          */
-        private double proofNum;
-        private double disproofNum;
+        private volatile double proofNum;
+        private volatile double disproofNum;
 
         /**
          * Proof and Disproof number Level 2
          */
-        private double proofNumL2;
-        private double disproofNumL2;
+        private volatile double proofNumL2;
+        private volatile double disproofNumL2;
 
         // tutaj dodać i w 393: public void evaluate() dodać obsługę nowych z różnicą zachowania w przypadku remisu >= 0.5 zamiast == 1.0
         // zmienić compareTo(Node), zmienić to w: PNSMCTS_Extension2
 
         /**
-         * Rank of a node compared to "siblings". Needed for UCT-PN. Ranks ordered best to worst
+         * Index of this node in the childRanks of its parent, where it is ranked under its proof number
+         * (OR parent) or disproof number (AND parent) compared to "siblings"
          */
-        private int rank;
+        private int rankIndex;
+
+        /**
+         * Ranks of the child nodes, ordered best to worst
+         */
+        private final ChildRanks childRanks = new ChildRanks();
 
         /**
          * Various necessary information variables.
@@ -456,40 +1265,200 @@ public class PNSMCTS_L2 extends AI {
          *
          * @param parent
          * @param moveFromParent
-         * @param context
+         * @param context        Game state of the new node, only kept if the node lies within the cached context depth
+         * @param transpositions Transposition table to share statistics with other nodes of this position, may be null
+         * @param config         Search parameters of the agent
          */
-        public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer) {
+        public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer, final TranspositionTable transpositions,
+                    final SearchConfig config) {
             this.parent = parent;
             this.moveFromParent = moveFromParent;
-            this.context = context;
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+            this.context = (depth <= config.cachedContextDepth()) ? context : null;
+            this.mover = context.state().mover();
+            this.terminalUtilities = context.trial().over() ? RankUtils.utilities(context) : null;
             final Game game = context.game();
             this.proofPlayer = proofPlayer;
             scoreSums = new double[game.players().count() + 1];
             // Set node type
-            if (context.state().mover() == proofPlayer) {
+            if (mover == proofPlayer) {
                 this.type = PNSNodeTypes.OR_NODE;
             } else {
                 this.type = PNSNodeTypes.AND_NODE;
             }
             evaluate();
             setProofAndDisproofNumbers();
+            transposition = (transpositions == null) ? null : transpositions.lookup(context.state().fullHash());
+            syncTransposition();
 
-            // For simplicity, we just take ALL legal moves.
-            // This means we do not support simultaneous-move games.
-            unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
-
-            if (parent != null)
+            if (parent != null) {
                 parent.children.add(this);
+                synchronized (parent.childRanks) {
+                    rankIndex = parent.childRanks.add((parent.type == PNSNodeTypes.OR_NODE) ? proofNum : disproofNum);
+                }
+            }
+        }
+
+        /**
+         * @return Mean score of the given player, over all nodes of this position if there is a transposition entry
+         */
+        public double meanScore(final int player) {
+            if (transposition != null && transposition.visitCount > 0) {
+                return transposition.meanScore(player);
+            }
+            return scoreSum(player) / visitCount;
+        }
+
+        /**
+         * Atomically adds to the visit count
+         */
+        public void addVisits(final int visits) {
+            VISIT_COUNT.getAndAdd(this, visits);
+        }
+
+        /**
+         * Atomically adds to the score sum of the given player
+         */
+        public void addScore(final int player, final double score) {
+            double sum = (double) SCORE_SUMS.getVolatile(scoreSums, player);
+            while (!SCORE_SUMS.compareAndSet(scoreSums, player, sum, sum + score)) {
+                sum = (double) SCORE_SUMS.getVolatile(scoreSums, player);
+            }
+        }
+
+        /**
+         * @return Sum of the scores of the given player backpropagated through this node
+         */
+        public double scoreSum(final int player) {
+            return (double) SCORE_SUMS.getVolatile(scoreSums, player);
+        }
+
+        /**
+         * Counts the visit of a tree-parallel worker before its playout result is known, and scores it as a
+         * loss for the player choosing this node (virtual loss)
+         *
+         * @param parentMover Player to move in the parent of this node
+         * @return True if this was the first visit, which only one worker gets
+         */
+        public boolean claimVisit(final int parentMover) {
+            final boolean first = (int) VISIT_COUNT.getAndAdd(this, VIRTUAL_LOSS) == 0;
+            addScore(parentMover, -VIRTUAL_LOSS);
+            return first;
+        }
+
+        /**
+         * Publishes the solved values of this node to its transposition entry and takes over the values that
+         * were solved for the same position elsewhere in the tree.
+         *
+         * @return True if this changed the (dis)proof numbers of this node
+         */
+        public boolean syncTransposition() {
+            if (transposition == null) {
+                return false;
+            }
+            final boolean proven;
+            final boolean disproven;
+            final boolean provenL2;
+            final boolean disprovenL2;
+            synchronized (transposition) {
+                proven = transposition.proven |= proofNum == 0;
+                disproven = transposition.disproven |= disproofNum == 0;
+                provenL2 = transposition.provenL2 |= proofNumL2 == 0;
+                disprovenL2 = transposition.disprovenL2 |= disproofNumL2 == 0;
+            }
+
+            boolean changed = false;
+            if (proven && proofNum != 0) {
+                proofNum = 0;
+                disproofNum = Double.POSITIVE_INFINITY;
+                changed = true;
+            }
+            if (disproven && disproofNum != 0) {
+                proofNum = Double.POSITIVE_INFINITY;
+                disproofNum = 0;
+                changed = true;
+            }
+            if (provenL2 && proofNumL2 != 0) {
+                proofNumL2 = 0;
+                disproofNumL2 = Double.POSITIVE_INFINITY;
+                changed = true;
+            }
+            if (disprovenL2 && disproofNumL2 != 0) {
+                proofNumL2 = Double.POSITIVE_INFINITY;
+                disproofNumL2 = 0;
+                changed = true;
+            }
+            return changed;
+        }
+
+        /**
+         * @return True if the game-theoretic value of this node is known on both levels (win, draw or loss)
+         */
+        public boolean isSolved() {
+            return (proofNum == 0 || disproofNum == 0) && (proofNumL2 == 0 || disproofNumL2 == 0);
+        }
+
+        /**
+         * Replaces the subtree below a solved node by a terminal-like leaf. The node keeps its statistics and
+         * (dis)proof numbers, and from now on backpropagates its exact result instead of running playouts.
+         * The children are left to the garbage collector. Workers still inside the dropped subtree finish their
+         * iteration on the detached nodes and only update the statistics of this node on their way up.
+         */
+        public void compactSolved() {
+            final double utility;
+            if (proofNum == 0) {
+                this.value = PNSNodeValues.TRUE;
+                utility = 1.0;
+            } else if (proofNumL2 == 0) {
+                this.value = PNSNodeValues.DRAW;
+                utility = 0.0;
+            } else {
+                this.value = PNSNodeValues.FALSE;
+                utility = -1.0;
+            }
+            final double[] utilities = new double[scoreSums.length];
+            for (int p = 1; p < utilities.length; ++p) {
+                utilities[p] = (p == proofPlayer) ? utility : -utility;
+            }
+            this.terminalUtilities = utilities;
+
+            // Swapped rather than cleared for workers still selecting from the old list. The ranks are left
+            // as they are: a leaf never selects from or backpropagates into its children again.
+            children = new ArrayList<Node>();
+            unexpandedChildren.clear();
+            unexpandedMoves = null;
+            this.expanded = false;
+        }
+
+        /**
+         * @return True if this node is a terminal game state
+         */
+        public boolean isTerminal() {
+            return terminalUtilities != null;
+        }
+
+        /**
+         * Rebuilds the game state of this node by replaying the moves from the closest ancestor that kept its Context.
+         *
+         * @return A new Context that may be modified by the caller
+         */
+        public Context replayState() {
+            if (context != null) {
+                return new Context(context);
+            }
+            final Context state = parent.replayState();
+            state.game().apply(state, moveFromParent);
+            return state;
         }
 
         /**
          * Evaluates a node as in PNS according to L. V. Allis' "Searching for Solutions in Games and Artificial Intelligence"
          */
         public void evaluate() {
-            if (this.context.trial().over()) {
-                if (RankUtils.utilities(this.context)[proofPlayer] == 1.0) {
+            if (isTerminal()) {
+                if (terminalUtilities[proofPlayer] == 1.0) {
                     this.value = PNSNodeValues.TRUE;
-                } else if (RankUtils.utilities(this.context)[proofPlayer] >= 0.0) {
+                } else if (terminalUtilities[proofPlayer] >= 0.0) {
                     this.value = PNSNodeValues.DRAW;
                 } else {
                     this.value = PNSNodeValues.FALSE;
@@ -526,16 +1495,15 @@ public class PNSMCTS_L2 extends AI {
                             disproofL2 = this.children.get(i).getDisproofNumL2();
                         }
                     }
-                    //If nothing changed return false
-                    if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
-                        return false;
-                    } else {
-                        this.proofNum = proof;
-                        this.disproofNum = disproof;
-                        this.proofNumL2 = proofL2;
-                        this.disproofNumL2 = disproofL2;
-                        return true;
+                    // Moves without a child node yet count as unknown children (proof and disproof number 1)
+                    final int numUnexpanded = numUnexpandedMoves();
+                    if (numUnexpanded > 0) {
+                        proof += numUnexpanded;
+                        proofL2 += numUnexpanded;
+                        disproof = Math.min(disproof, 1);
+                        disproofL2 = Math.min(disproofL2, 1);
                     }
+                    return storeProofNumbers(proof, disproof, proofL2, disproofL2);
                 } else if (this.type == PNSNodeTypes.OR_NODE) {
                     double disproof = 0;
                     double disproofL2 = 0;
@@ -553,16 +1521,15 @@ public class PNSMCTS_L2 extends AI {
                             proofL2 = this.children.get(i).getProofNumL2();
                         }
                     }
-                    //If nothing changed return false
-                    if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
-                        return false;
-                    } else {
-                        this.proofNum = proof;
-                        this.disproofNum = disproof;
-                        this.proofNumL2 = proofL2;
-                        this.disproofNumL2 = disproofL2;
-                        return true;
+                    // Moves without a child node yet count as unknown children (proof and disproof number 1)
+                    final int numUnexpanded = numUnexpandedMoves();
+                    if (numUnexpanded > 0) {
+                        disproof += numUnexpanded;
+                        disproofL2 += numUnexpanded;
+                        proof = Math.min(proof, 1);
+                        proofL2 = Math.min(proofL2, 1);
                     }
+                    return storeProofNumbers(proof, disproof, proofL2, disproofL2);
                 }
             } else if (!this.expanded) {
                 // (Dis)proof numbers are set according to evaluation until properly checked
@@ -592,49 +1559,158 @@ public class PNSMCTS_L2 extends AI {
             return true;
         }
 
+        /**
+         * Stores the (dis)proof numbers recomputed from the children. A level that is solved already keeps its
+         * value: it is exact, and may have been taken over from the transposition table before the children of
+         * this node know it.
+         *
+         * @return Returns true if something was changed and false if not
+         */
+        private boolean storeProofNumbers(double proof, double disproof, double proofL2, double disproofL2) {
+            if (this.proofNum == 0 || this.disproofNum == 0) {
+                proof = this.proofNum;
+                disproof = this.disproofNum;
+            }
+            if (this.proofNumL2 == 0 || this.disproofNumL2 == 0) {
+                proofL2 = this.proofNumL2;
+                disproofL2 = this.disproofNumL2;
+            }
+            //If nothing changed return false
+            if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
+                return false;
+            }
+            this.proofNum = proof;
+            this.disproofNum = disproof;
+            this.proofNumL2 = proofL2;
+            this.disproofNumL2 = disproofL2;
+            return true;
+        }
+
         /**
          * Develops a node by adding all the children nodes. Then returns one child at random for the selection phase.
+         * The value of the node has to be unknown: it never hands back the node itself.
          *
+         * @param state          Game state of this node, left unchanged
+         * @param transpositions Transposition table for the new nodes, may be null
+         * @param config         Search parameters of the agent
          * @return One of the new child nodes
          */
-        public Node developNode() {
+        public Node developNode(final Context state, final TranspositionTable transpositions, final SearchConfig config) {
             if (this.value == PNSNodeValues.UNKNOWN) {
-                for (int i = 0; i < this.unexpandedMoves.size(); i++) {
-                    final Move move = this.unexpandedMoves.get(i);
-                    final Context context = new Context(this.context);
+                // For simplicity, we just take ALL legal moves.
+                // This means we do not support simultaneous-move games.
+                final FastArrayList<Move> legalMoves = state.game().moves(state).moves();
+                if (config.lazyExpansion()) {
+                    // Children are only created once selection picks their move
+                    this.unexpandedMoves = legalMoves;
+                    this.expanded = true;
+                    return materialiseChild(state, transpositions, config);
+                }
+                for (int i = 0; i < legalMoves.size(); i++) {
+                    final Move move = legalMoves.get(i);
+                    final Context context = new Context(state);
                     context.game().apply(context, move);
-                    Node node = new Node(this, move, context, this.proofPlayer);
+                    Node node = new Node(this, move, context, this.proofPlayer, transpositions, config);
                     unexpandedChildren.add(node);
                 }
                 this.expanded = true;
                 //this.setProofAndDisproofNumbers();
                 return this.unexpandedChildren.remove(ThreadLocalRandom.current().nextInt(this.unexpandedChildren.size()));
             } else {
-                this.expanded = true;
-                return this;
+                // Terminal and compacted nodes are never selected from, see runIteration
+                throw new IllegalStateException("Cannot develop a node with a known value");
             }
         }
 
         /**
-         * Set an ordered ranking for the UCT-PN formula in the selection step of MCTS
+         * Creates the child node for a random move that has no node yet (lazy expansion).
+         *
+         * @param state          Game state of this node, left unchanged
+         * @param transpositions Transposition table for the new node, may be null
+         * @param config         Search parameters of the agent
+         * @return The new child node
          */
+        public Node materialiseChild(final Context state, final TranspositionTable transpositions, final SearchConfig config) {
+            final int index = ThreadLocalRandom.current().nextInt(unexpandedMoves.size());
+            final Move move = unexpandedMoves.get(index);
+            unexpandedMoves.removeSwap(index);
+            final Context context = new Context(state);
+            context.game().apply(context, move);
+            return new Node(this, move, context, this.proofPlayer, transpositions, config);
+        }
 
-        public void setChildRanks() {
-            List<Node> sorted = new ArrayList<Node>(this.children);
-            Collections.sort(sorted);
-            Node lastNode = null;
-            for (int i = 0; i < sorted.size(); i++) {
-                Node child = sorted.get(i);
-                // If there's a tie
-                if (lastNode != null && this.type == PNSNodeTypes.OR_NODE && lastNode.getProofNum() == child.getProofNum()) {
-                    child.setRank(lastNode.getRank());
-                    // If there's a tie
-                } else if (lastNode != null && this.type == PNSNodeTypes.AND_NODE && lastNode.getDisproofNum() == child.getDisproofNum()) {
-                    child.setRank(lastNode.getRank());
-                } else {
-                    child.setRank(i + 1);
+        /**
+         * @return Number of legal moves for which no child node was created yet (lazy expansion)
+         */
+        public int numUnexpandedMoves() {
+            // Read once, compaction may drop the list while a worker checks needsState() without the lock
+            final FastArrayList<Move> moves = unexpandedMoves;
+            return (moves == null) ? 0 : moves.size();
+        }
+
+        /**
+         * @return True if selecting from this node may create a child, which requires the game state of this node
+         */
+        public boolean needsState() {
+            return !expanded || numUnexpandedMoves() > 0;
+        }
+
+        /**
+         * Re-positions a child in the UCT-PN ranking after its proof or disproof number may have changed
+         */
+        public void updateChildRank(final Node child) {
+            final double key = (this.type == PNSNodeTypes.OR_NODE) ? child.getProofNum() : child.getDisproofNum();
+            synchronized (childRanks) {
+                childRanks.update(child.rankIndex, key);
+            }
+        }
+
+        /**
+         * Copies the ranks of all children into the buffer of the calling thread
+         *
+         * @return The buffer, holding the rank of every child at its rankIndex
+         */
+        public int[] snapshotRanks() {
+            final int[] ranks;
+            synchronized (childRanks) {
+                ranks = childRanks.copyRanks(RANK_BUFFER.get());
+            }
+            RANK_BUFFER.set(ranks);
+            return ranks;
+        }
+
+        /**
+         * @return The child reached by the given move, or null if there is no node for it
+         */
+        public Node findChild(final Move move) {
+            for (int i = 0; i < children.size(); i++) {
+                final Node child = children.get(i);
+                if (child.moveFromParent.equals(move)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Detaches this node from its parent so it can serve as the root of a new search. The depths of the
+         * subtree are re-based on this node, so the cached context depth keeps counting from the current root.
+         *
+         * @param context Game state of this node
+         */
+        public void makeRoot(final Context context) {
+            this.parent = null;
+            this.context = context;
+
+            final int shift = this.depth;
+            final Deque<Node> open = new ArrayDeque<Node>();
+            open.push(this);
+            while (!open.isEmpty()) {
+                final Node node = open.pop();
+                node.depth -= shift;
+                for (int i = 0; i < node.children.size(); ++i) {
+                    open.push(node.children.get(i));
                 }
-                lastNode = child;
             }
         }
 
@@ -663,47 +1739,14 @@ public class PNSMCTS_L2 extends AI {
         }
 
         public int getRank() {
-            return rank;
+            synchronized (parent.childRanks) {
+                return parent.childRanks.rank(rankIndex);
+            }
         }
 
         public List<Node> getUnexpandedChildren() {
             return unexpandedChildren;
         }
-
-        public void setRank(int rank) {
-            this.rank = rank;
-        }
-
-        // Used to rank children
-        @Override
-        public int compareTo(Node o) {
-            if (this.parent.getType() == PNSNodeTypes.OR_NODE) {
-                if (this.getProofNum() < o.getProofNum()) {
-                    return -1;
-                } else if (this.getProofNum() > o.getProofNum()) {
-                    return 1;
-                } else if (this.getProofNumL2() < o.getProofNumL2()) {
-                    return -1;
-                } else if (this.getProofNumL2() > o.getProofNumL2()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else if (this.parent.getType() == PNSNodeTypes.AND_NODE) {
-                if (this.getDisproofNum() < o.getDisproofNum()) {
-                    return -1;
-                } else if (this.getDisproofNum() > o.getDisproofNum()) {
-                    return 1;
-                } else if (this.getDisproofNumL2() < o.getDisproofNumL2()) {
-                    return -1;
-                } else if (this.getDisproofNumL2() > o.getDisproofNumL2()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            return 0;
-        }
     }
 
     //-------------------------------------------------------------------------
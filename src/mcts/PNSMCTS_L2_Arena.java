@@ -0,0 +1,767 @@
+package mcts;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.AI;
+import other.RankUtils;
+import other.context.Context;
+import other.move.Move;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PN-MCTS with Level 2 proof numbers, like PNSMCTS_L2, but with the tree stored as a structure of arrays.
+ * A node is an int index into primitive columns, the children of a node occupy one contiguous index range,
+ * and the whole tree is discarded between moves by resetting the node count.
+ */
+public class PNSMCTS_L2_Arena extends AI {
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * Our player index
+     */
+    protected int player = -1;
+
+    /**
+     * Search parameters of this agent
+     */
+    private final SearchConfig config;
+
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
+
+    /**
+     * Number of moves for which the final move selection played a level 2 proof because the root score
+     * was at most the contempt factor
+     */
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /**
+     * Search tree, kept between moves so its columns are only allocated once
+     */
+    private final NodeArena tree = new NodeArena();
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The number of simulations performed in the current turn
+     */
+    public double getSimsThisTurn() {
+        return simsThisTurn.sum();
+    }
+
+    /**
+     * @return The number of nodes in the tree of the last search
+     */
+    public int getTreeSize() {
+        return tree.size;
+    }
+
+    /**
+     * Constructor
+     */
+    public PNSMCTS_L2_Arena() {
+        this.friendlyName = "PNS_L2_Arena UCT";
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, true, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+    }
+
+    public PNSMCTS_L2_Arena(double[] settings) {
+        this.friendlyName = "PNS_L2_Arena UCT";
+        this.config = SearchConfig.fromSettings(settings, true, Integer.MAX_VALUE, -100);
+    }
+
+    public PNSMCTS_L2_Arena(boolean finMove, int minVisits, double pnCons, double contemptFactor) {
+        this(new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, contemptFactor)); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+    }
+
+    /**
+     * Constructor with a complete search configuration
+     *
+     * @param config Search parameters of this agent, including the initial capacity of the arena
+     */
+    public PNSMCTS_L2_Arena(SearchConfig config) {
+        this.friendlyName = "PNS_L2_Arena UCT";
+        this.config = config;
+    }
+
+    public void resetCounter() {
+        counter.set(0);
+    }
+
+    public int getCounter() {
+        return counter.get();
+    }
+
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public Move selectAction(
+            final Game game,
+            final Context context,
+            final double maxSeconds,
+            final int maxIterations,
+            final int maxDepth
+    ) {
+        simsThisTurn.reset();
+        turns.increment();
+        // Start out by resetting the arena to a single root node (no tree reuse in this example)
+        tree.reset(context, player, config.initialCapacity());
+
+        // We'll respect any limitations on max seconds and max iterations (don't care about max depth)
+        final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
+        final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
+
+        int numIterations = 0;
+
+        // Our main loop through MCTS iterations
+        while (
+                numIterations < maxIts &&                    // Respect iteration limit
+                        System.currentTimeMillis() < stopTime &&    // Respect time limit
+                        !wantsInterrupt                                // Respect GUI user clicking the pause button
+        ) {
+            if (runIteration(game)) {
+                sims.increment();
+                simsThisTurn.increment();
+            }
+
+            // Increment iteration count
+            ++numIterations;
+        }
+
+        // Return the move we wish to play
+        return finalMoveSelection(tree, config, counter);
+    }
+
+    /**
+     * Performs one MCTS iteration (selection, expansion, playout and backpropagation) starting in the root.
+     *
+     * @return True if a playout was run, false if the selection ended in a terminal node
+     */
+    private boolean runIteration(final Game game) {
+        final NodeArena tree = this.tree;
+
+        // Start in root node
+        int current = NodeArena.ROOT;
+
+        // Private copy of the game state of the parent of the selected node, only rebuilt when a node is developed
+        Context state = null;
+
+        // Traverse tree
+        while (true) {
+            if (tree.isTerminal(current)) {
+                // We've reached a terminal state
+                break;
+            }
+
+            state = tree.isExpanded(current) ? null : tree.replayState(current);
+            current = select(tree, current, state, config);
+
+            if (tree.visitCount[current] == 0) {
+                // We've expanded a new node, time for playout!
+                break;
+            }
+        }
+
+        // Utilities of the players are found at utilities[utilitiesOffset + p]
+        final double[] utilities;
+        final int utilitiesOffset;
+        boolean playedOut = false;
+
+        if (tree.isTerminal(current)) {
+            utilities = tree.terminalUtilities;
+            utilitiesOffset = tree.utilitiesOffset[current];
+        } else {
+            // Run a playout if we don't already have a terminal game state in node
+            final Context contextEnd;
+            if (state != null) {
+                // The parent was just developed from this state, so one more move gives the state of the new node
+                contextEnd = state;
+                game.apply(contextEnd, tree.moveFromParent[current]);
+            } else {
+                contextEnd = tree.replayState(current);
+            }
+            game.playout
+                    (
+                            contextEnd,
+                            null,
+                            -1.0,
+                            null,
+                            0,
+                            -1,
+                            ThreadLocalRandom.current()
+                    );
+            playedOut = true;
+
+            // This computes utilities for all players at the of the playout,
+            // which will all be values in [-1.0, 1.0]
+            utilities = RankUtils.utilities(contextEnd);
+            utilitiesOffset = 0;
+        }
+
+        // Backpropagate utilities through the tree
+        final int stride = tree.stride;
+        boolean changed = true;
+        boolean firstNode = true;
+        while (current != NodeArena.NONE) {
+            tree.visitCount[current] += 1;
+            final int offset = current * stride;
+            for (int p = 1; p < stride; ++p) {
+                tree.scoreSums[offset + p] += utilities[utilitiesOffset + p];
+            }
+            if (!firstNode && changed) {
+                changed = tree.setProofAndDisproofNumbers(current);
+            }
+            firstNode = false;
+
+            current = tree.parent[current];
+        }
+
+        return playedOut;
+    }
+
+    /**
+     * Selects child of the given "current" node according to UCT-PN equation.
+     * This method also implements the "Expansion" phase of MCTS, and creates
+     * new nodes if the given current node has unexpanded moves.
+     *
+     * @param tree
+     * @param current
+     * @param state   Private copy of the game state of current, required if current is not expanded yet
+     * @param config Search parameters of the agent
+     * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
+     */
+    public static int select(final NodeArena tree, final int current, final Context state, final SearchConfig config) {
+        // All child nodes are created and added to the child range of the current node
+        if (!tree.isExpanded(current)) {
+            return tree.developNode(current, state);
+        }
+
+        final int firstChild = tree.firstChild[current];
+        final int numChildren = tree.numChildren[current];
+
+        // Don't use UCT-PN until all nodes have been visited once (children were created in random order)
+        if (tree.numUnvisited[current] > 0) {
+            return firstChild + numChildren - tree.numUnvisited[current]--;
+        }
+
+        // use UCT-PN equation to select from all children, with random tie-breaking
+        int bestChild = NodeArena.NONE;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        int numBestFound = 0;
+
+        double explorationConstant = config.explorationConstant();
+
+        double pnConstant = config.pnConstant();
+        double total = numChildren;
+
+        final int stride = tree.stride;
+        final int mover = tree.mover[current];
+        final double logVisits = Math.log(tree.visitCount[current]);
+        final boolean skipSolved = tree.proofNumL2[current] != 0 && tree.disproofNum[current] != 0;
+
+        for (int child = firstChild; child < firstChild + numChildren; ++child) {
+            final int childVisits = tree.visitCount[child];
+
+            // slightly modified 2Level solver
+            if (skipSolved) {
+                if (tree.proofNumL2[child] == 0 && childVisits > config.solverlikeMinVisits()) continue; // win or draw
+                if (tree.disproofNum[child] == 0 && childVisits > config.solverlikeMinVisits()) continue; // lose or draw
+            }
+
+            final double exploit = tree.scoreSums[child * stride + mover] / childVisits;
+            final double explore = Math.sqrt(logVisits / childVisits); //UCT with changeable exploration constant
+            final double pnEffect = 1 - (tree.rank[child] / total); // This formula assures that the node with lowest rank (best node) has the highest pnEffect
+
+            // UCT-PN Formula
+            final double uctValue = exploit + (explorationConstant * explore) + (pnConstant * pnEffect);
+
+            if (uctValue > bestValue) {
+                bestValue = uctValue;
+                bestChild = child;
+                numBestFound = 1;
+            } else if (uctValue == bestValue && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                // this case implements random tie-breaking
+                bestChild = child;
+            }
+        }
+        return bestChild;
+    }
+
+    /**
+     * Selects the move we wish to play using the "Robust Child" strategy
+     * (meaning that we play the move leading to the child of the root node
+     * with the highest visit count).
+     *
+     * @param tree
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
+     * @return Final move as selected by PN-MCTS
+     */
+    public static Move finalMoveSelection(final NodeArena tree, final SearchConfig config, final AtomicInteger counter) {
+        final int root = NodeArena.ROOT;
+        final int firstChild = tree.firstChild[root];
+        final int endChild = firstChild + tree.numChildren[root];
+
+        int bestChild = NodeArena.NONE;
+        int bestVisitCount = Integer.MIN_VALUE;
+        int numBestFound = 0;
+
+        for (int child = firstChild; child < endChild; ++child) {
+            final int visitCount = tree.visitCount[child];
+
+            if (visitCount > bestVisitCount) {
+                bestVisitCount = visitCount;
+                bestChild = child;
+                numBestFound = 1;
+            } else if (visitCount == bestVisitCount && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                // this case implements random tie-breaking
+                bestChild = child;
+            }
+        }
+
+        // To ensure a proven node will select the proven child too
+        if (config.finMoveSel()) {
+            if (tree.proofNum[root] == 0) {
+                for (int child = firstChild; child < endChild; ++child) {
+                    if (tree.proofNum[child] == 0) {
+                        bestChild = child;
+                        break;
+                    }
+                }
+            } else if (tree.proofNumL2[root] == 0) { // Level 2 check
+                double rootscore = tree.scoreSums[root * tree.stride + tree.mover[root]] / tree.visitCount[root];
+                if (rootscore <= config.contemptFactor()) {
+                    counter.incrementAndGet();
+                    for (int child = firstChild; child < endChild; ++child) {
+                        if (tree.proofNumL2[child] == 0) {
+                            bestChild = child;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (bestChild == NodeArena.NONE) {
+            // The search ended before the root had children
+            final Context context = tree.replayState(root);
+            final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+            return legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+        }
+        return tree.moveFromParent[bestChild];
+    }
+
+    @Override
+    public void initAI(final Game game, final int playerID) {
+        this.player = playerID;
+    }
+
+    @Override
+    // Notifies Ludii if the game is playable by PN-MCTS
+    public boolean supportsGame(final Game game) {
+        if (game.isStochasticGame())
+            return false;
+
+        if (!game.isAlternatingMoveGame())
+            return false;
+
+        return true;
+    }
+
+    //-------------------------------------------------------------------------
+
+    /**
+     * Search tree stored as a structure of arrays. Node i is described by entry i of every column (entries
+     * i * stride .. i * stride + stride - 1 for the score sums). Nodes are never freed individually, the
+     * arena is reset as a whole and its columns are reused for the next search.
+     */
+    public static final class NodeArena {
+
+        public static final int NONE = -1;
+        public static final int ROOT = 0;
+
+        /**
+         * Bits of the flags column: OR/AND type, expanded flag and the PNS value of the node
+         */
+        private static final int OR_NODE = 0x01;
+        private static final int EXPANDED = 0x02;
+        private static final int VALUE_SHIFT = 2;
+        private static final int VALUE_MASK = 0x03 << VALUE_SHIFT;
+
+        /**
+         * Values of nodes in search trees in PNS
+         */
+        private static final int UNKNOWN = 0;
+        private static final int TRUE = 1;
+        private static final int FALSE = 2;
+        private static final int DRAW = 3;
+
+        /**
+         * Number of nodes in use and number of nodes the columns can hold
+         */
+        private int size = 0;
+        private int capacity = 0;
+
+        /**
+         * Number of score columns per node (number of players + 1, index 0 is unused)
+         */
+        private int stride = 0;
+
+        private int[] parent;
+
+        /**
+         * Index of the first child (NONE before the node is developed)
+         */
+        private int[] firstChild;
+        private int[] numChildren;
+
+        /**
+         * Offset of the utilities of a terminal node in terminalUtilities (NONE for other nodes)
+         */
+        private int[] utilitiesOffset;
+
+        /**
+         * Number of children at the end of the child range that were never selected
+         */
+        private int[] numUnvisited;
+        private int[] visitCount;
+
+        /**
+         * Rank of a node compared to "siblings". Needed for UCT-PN. Ranks ordered best to worst
+         */
+        private int[] rank;
+
+        private double[] scoreSums;
+        private double[] proofNum;
+        private double[] disproofNum;
+        private double[] proofNumL2;
+        private double[] disproofNumL2;
+
+        private byte[] flags;
+        private byte[] mover;
+
+        /**
+         * The move that led from parent to this node (the state of a node is rebuilt by replaying these)
+         */
+        private Move[] moveFromParent;
+
+        /**
+         * Utilities of all players for the terminal nodes, stride entries per terminal node
+         */
+        private double[] terminalUtilities = new double[0];
+        private int terminalSize = 0;
+
+        /**
+         * Game state of the root and the player we're trying to prove a win for
+         */
+        private Context rootContext;
+        private int proofPlayer;
+
+        /**
+         * Reused buffer for the path from a node up to the root in replayState()
+         */
+        private int[] path = new int[64];
+
+        /**
+         * Discards the whole tree and creates a new root node for the given state.
+         *
+         * @param initialCapacity Nodes the columns are first created for, the arena doubles them whenever it runs full
+         */
+        public void reset(final Context context, final int proofPlayer, final int initialCapacity) {
+            final int numScores = context.game().players().count() + 1;
+            if (capacity == 0 || numScores != stride) {
+                stride = numScores;
+                capacity = 0;
+                grow(Math.max(initialCapacity, 1));
+            }
+            // Every column, moveFromParent included, is overwritten as nodes are added again. Moves of the previous
+            // search beyond the new tree stay referenced until then, which keeps the reset O(1).
+            this.rootContext = context;
+            this.proofPlayer = proofPlayer;
+            this.size = 0;
+            this.terminalSize = 0;
+            addNode(NONE, null, context);
+        }
+
+        /**
+         * @return The number of nodes in the tree
+         */
+        public int size() {
+            return size;
+        }
+
+        public boolean isExpanded(final int node) {
+            return (flags[node] & EXPANDED) != 0;
+        }
+
+        public boolean isTerminal(final int node) {
+            return value(node) != UNKNOWN;
+        }
+
+        private boolean isOrNode(final int node) {
+            return (flags[node] & OR_NODE) != 0;
+        }
+
+        private int value(final int node) {
+            return (flags[node] & VALUE_MASK) >> VALUE_SHIFT;
+        }
+
+        /**
+         * Rebuilds the game state of a node by replaying the moves on the path from the root.
+         *
+         * @return A new Context that may be modified by the caller
+         */
+        public Context replayState(final int node) {
+            int length = 0;
+            for (int n = node; n != ROOT; n = parent[n]) {
+                if (length == path.length) {
+                    path = Arrays.copyOf(path, length * 2);
+                }
+                path[length++] = n;
+            }
+            final Context state = new Context(rootContext);
+            final Game game = state.game();
+            for (int i = length - 1; i >= 0; --i) {
+                game.apply(state, moveFromParent[path[i]]);
+            }
+            return state;
+        }
+
+        /**
+         * Appends a node for the given state and sets its proof numbers according to its evaluation.
+         *
+         * @return Index of the new node
+         */
+        private int addNode(final int parentNode, final Move move, final Context context) {
+            if (size == capacity) {
+                grow(capacity * 2);
+            }
+            final int node = size++;
+            parent[node] = parentNode;
+            moveFromParent[node] = move;
+            firstChild[node] = NONE;
+            numChildren[node] = 0;
+            utilitiesOffset[node] = NONE;
+            numUnvisited[node] = 0;
+            visitCount[node] = 0;
+            rank[node] = 0;
+            Arrays.fill(scoreSums, node * stride, node * stride + stride, 0.0);
+
+            final int nodeMover = context.state().mover();
+            mover[node] = (byte) nodeMover;
+
+            // Evaluates a node as in PNS according to L. V. Allis' "Searching for Solutions in Games and Artificial Intelligence"
+            int value = UNKNOWN;
+            if (context.trial().over()) {
+                final double[] utilities = RankUtils.utilities(context);
+                utilitiesOffset[node] = addTerminalUtilities(utilities);
+                if (utilities[proofPlayer] == 1.0) {
+                    value = TRUE;
+                } else if (utilities[proofPlayer] >= 0.0) {
+                    value = DRAW;
+                } else {
+                    value = FALSE;
+                }
+            }
+            flags[node] = (byte) (((nodeMover == proofPlayer) ? OR_NODE : 0) | (value << VALUE_SHIFT));
+
+            // (Dis)proof numbers are set according to evaluation until properly checked
+            if (value == FALSE) {
+                setNumbers(node, Double.POSITIVE_INFINITY, 0, Double.POSITIVE_INFINITY, 0);
+            } else if (value == DRAW) {
+                setNumbers(node, Double.POSITIVE_INFINITY, 0, 0, Double.POSITIVE_INFINITY);
+            } else if (value == TRUE) {
+                setNumbers(node, 0, Double.POSITIVE_INFINITY, 0, Double.POSITIVE_INFINITY);
+            } else {
+                setNumbers(node, 1, 1, 1, 1);
+            }
+            return node;
+        }
+
+        private int addTerminalUtilities(final double[] utilities) {
+            if (terminalSize + stride > terminalUtilities.length) {
+                terminalUtilities = Arrays.copyOf(terminalUtilities, Math.max(64 * stride, terminalUtilities.length * 2));
+            }
+            final int offset = terminalSize;
+            System.arraycopy(utilities, 0, terminalUtilities, offset, stride);
+            terminalSize += stride;
+            return offset;
+        }
+
+        private void setNumbers(final int node, final double proof, final double disproof, final double proofL2, final double disproofL2) {
+            proofNum[node] = proof;
+            disproofNum[node] = disproof;
+            proofNumL2[node] = proofL2;
+            disproofNumL2[node] = disproofL2;
+        }
+
+        /**
+         * Develops a node by adding all the children nodes, in random order, as one contiguous range.
+         * Then returns the first of them for the selection phase.
+         *
+         * @param state Game state of the node, left unchanged
+         * @return One of the new child nodes
+         */
+        public int developNode(final int node, final Context state) {
+            flags[node] |= EXPANDED;
+            if (value(node) != UNKNOWN) {
+                return node;
+            }
+
+            // For simplicity, we just take ALL legal moves.
+            // This means we do not support simultaneous-move games.
+            final FastArrayList<Move> legalMoves = state.game().moves(state).moves();
+            final int numMoves = legalMoves.size();
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = numMoves - 1; i > 0; --i) {
+                final int j = random.nextInt(i + 1);
+                final Move swap = legalMoves.get(i);
+                legalMoves.set(i, legalMoves.get(j));
+                legalMoves.set(j, swap);
+            }
+
+            final int first = size;
+            for (int i = 0; i < numMoves; i++) {
+                final Move move = legalMoves.get(i);
+                final Context context = new Context(state);
+                context.game().apply(context, move);
+                addNode(node, move, context);
+            }
+            firstChild[node] = first;
+            numChildren[node] = numMoves;
+            numUnvisited[node] = numMoves - 1;
+
+            // New nodes only have (dis)proof numbers 0, 1 or infinity, so ranks follow from counting those
+            final boolean orNode = isOrNode(node);
+            int numZero = 0;
+            int numOne = 0;
+            for (int child = first; child < first + numMoves; ++child) {
+                final double key = orNode ? proofNum[child] : disproofNum[child];
+                if (key == 0) {
+                    ++numZero;
+                } else if (key == 1) {
+                    ++numOne;
+                }
+            }
+            for (int child = first; child < first + numMoves; ++child) {
+                final double key = orNode ? proofNum[child] : disproofNum[child];
+                rank[child] = (key == 0) ? 1 : (key == 1) ? 1 + numZero : 1 + numZero + numOne;
+            }
+            return first;
+        }
+
+        /**
+         * Sets the proof and disproof values of an expanded node as it is done for PNS in L. V. Allis' "Searching
+         * for Solutions in Games and Artificial Intelligence", and moves the node in the ranking of its siblings.
+         *
+         * @return Returns true if something was changed and false if not. Used to improve PN-MCTS speed
+         */
+        public boolean setProofAndDisproofNumbers(final int node) {
+            final int first = firstChild[node];
+            final int end = first + numChildren[node];
+            double sum = 0;
+            double sumL2 = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double minL2 = Double.POSITIVE_INFINITY;
+            final boolean orNode = isOrNode(node);
+            // AND node: proof is the sum and disproof the minimum over the children, OR node the other way around
+            final double[] sumColumn = orNode ? disproofNum : proofNum;
+            final double[] sumColumnL2 = orNode ? disproofNumL2 : proofNumL2;
+            final double[] minColumn = orNode ? proofNum : disproofNum;
+            final double[] minColumnL2 = orNode ? proofNumL2 : disproofNumL2;
+            for (int child = first; child < end; ++child) {
+                sum += sumColumn[child];
+                sumL2 += sumColumnL2[child];
+                if (minColumn[child] < min) {
+                    min = minColumn[child];
+                }
+                if (minColumnL2[child] < minL2) {
+                    minL2 = minColumnL2[child];
+                }
+            }
+
+            final double proof = orNode ? min : sum;
+            final double disproof = orNode ? sum : min;
+            final double proofL2 = orNode ? minL2 : sumL2;
+            final double disproofL2 = orNode ? sumL2 : minL2;
+
+            //If nothing changed return false
+            if (proofNum[node] == proof && proofNumL2[node] == proofL2 && disproofNum[node] == disproof && disproofNumL2[node] == disproofL2) {
+                return false;
+            }
+
+            final int parentNode = parent[node];
+            if (parentNode != NONE) {
+                // Siblings are ranked under their proof number below an OR node, their disproof number below an
+                // AND node. Those columns hold the keys of the child range, so ChildRanks works on them directly.
+                final int firstSibling = firstChild[parentNode];
+                final int endSibling = firstSibling + numChildren[parentNode];
+                if (isOrNode(parentNode)) {
+                    ChildRanks.update(proofNum, rank, firstSibling, endSibling, node, proof);
+                } else {
+                    ChildRanks.update(disproofNum, rank, firstSibling, endSibling, node, disproof);
+                }
+            }
+            setNumbers(node, proof, disproof, proofL2, disproofL2);
+            return true;
+        }
+
+        /**
+         * Resizes all columns to the given number of nodes, keeping the nodes in use.
+         */
+        private void grow(final int newCapacity) {
+            if (capacity == 0) {
+                parent = new int[newCapacity];
+                firstChild = new int[newCapacity];
+                numChildren = new int[newCapacity];
+                utilitiesOffset = new int[newCapacity];
+                numUnvisited = new int[newCapacity];
+                visitCount = new int[newCapacity];
+                rank = new int[newCapacity];
+                scoreSums = new double[newCapacity * stride];
+                proofNum = new double[newCapacity];
+                disproofNum = new double[newCapacity];
+                proofNumL2 = new double[newCapacity];
+                disproofNumL2 = new double[newCapacity];
+                flags = new byte[newCapacity];
+                mover = new byte[newCapacity];
+                moveFromParent = new Move[newCapacity];
+            } else {
+                parent = Arrays.copyOf(parent, newCapacity);
+                firstChild = Arrays.copyOf(firstChild, newCapacity);
+                numChildren = Arrays.copyOf(numChildren, newCapacity);
+                utilitiesOffset = Arrays.copyOf(utilitiesOffset, newCapacity);
+                numUnvisited = Arrays.copyOf(numUnvisited, newCapacity);
+                visitCount = Arrays.copyOf(visitCount, newCapacity);
+                rank = Arrays.copyOf(rank, newCapacity);
+                scoreSums = Arrays.copyOf(scoreSums, newCapacity * stride);
+                proofNum = Arrays.copyOf(proofNum, newCapacity);
+                disproofNum = Arrays.copyOf(disproofNum, newCapacity);
+                proofNumL2 = Arrays.copyOf(proofNumL2, newCapacity);
+                disproofNumL2 = Arrays.copyOf(disproofNumL2, newCapacity);
+                flags = Arrays.copyOf(flags, newCapacity);
+                mover = Arrays.copyOf(mover, newCapacity);
+                moveFromParent = Arrays.copyOf(moveFromParent, newCapacity);
+            }
+            capacity = newCapacity;
+        }
+    }
+
+    //-------------------------------------------------------------------------
+
+
+}
@@ -6,24 +6,23 @@ import other.AI;
 import other.RankUtils;
 import other.context.Context;
 import other.move.Move;
+import other.trial.Trial;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class PNSMCTS_L2_MAST extends AI {
 
 
-    public static boolean FIN_MOVE_SEL = true;
-    public static int SOLVERLIKE_MINVISITS = Integer.MAX_VALUE; // 5; // Integer.MAX_VALUE;
-    public static int counter = 0;
-
-    // N-gram monitoring
-    private final Map<NGramKey, Integer> nGramLastSeen = new HashMap<>();
-    private final Map<NGramKey, Integer> opponentNGramLastSeen = new HashMap<>();
+    // Playouts added to the n-gram statistics so far, the clock of their lastSeen times
     private int totalSimulations = 0;
-    private int nGramAdditions = 0;
-    private static final int LOG_FREQUENCY = 1000; // Log every 1000 simulations
-    public static double CONTEMPT_FACTOR = -100; // -0.1; 0.0; 0.1; 0.2; ... ?
 
     //-------------------------------------------------------------------------
 
@@ -33,60 +32,66 @@ public class PNSMCTS_L2_MAST extends AI {
     protected int player = -1;
 
     /**
-     * Settings contain (in order): pnConstant, explorationConstant, time per turn
+     * Search parameters of this agent
      */
-    private static double[] settings;
+    private final SearchConfig config;
 
-    // Used to count simulations per second (instance-specific)
-    private static double sims = 0;
-    private static double simsThisTurn = 0;
-    private static double turns = 0;
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
 
-    //-----------MAST---------------------------
     /**
-     * @return The number of simulations performed in the current turn
+     * Number of moves for which the final move selection played a level 2 proof because the root score
+     * was at most the contempt factor
      */
-    public double getSimsThisTurn() {
-        return simsThisTurn;
-    }
-    //-----------MAST---------------------------
+    private final AtomicInteger counter = new AtomicInteger(0);
 
-    // N-gram NST related fields
-    private static class NGramKey {
-        final List<Move> sequence;
+    /**
+     * Number of root-parallel workers, each building its own tree (1 = sequential search)
+     */
+    private final int numThreads;
 
-        NGramKey(List<Move> sequence) {
-            this.sequence = new ArrayList<>(sequence);
-        }
+    /**
+     * Simulations performed by every worker thread in the current turn
+     */
+    private final long[] simsPerThread;
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof NGramKey)) return false;
-            NGramKey nGramKey = (NGramKey) o;
-            return sequence.equals(nGramKey.sequence);
-        }
+    /**
+     * Roots of the previous search and the number of moves in the trial at that time, used for tree reuse
+     */
+    private Node[] lastRoots = null;
+    private int lastNumMoves = 0;
 
-        @Override
-        public int hashCode() {
-            return sequence.hashCode();
-        }
+    /**
+     * Worker pool for root parallelisation, created on the first parallel search
+     */
+    private ExecutorService workers = null;
+
+    //-----------MAST---------------------------
+    /**
+     * @return The number of simulations performed in the current turn (summed over all worker threads)
+     */
+    public double getSimsThisTurn() {
+        return simsThisTurn.sum();
     }
 
+    /**
+     * @return The number of simulations every worker thread performed in the current turn
+     */
+    public long[] getSimsThisTurnPerThread() {
+        return simsPerThread.clone();
+    }
+    //-----------MAST---------------------------
 
-    private final Map<Move, Map<NGramKey, Double>> nGramScores = new HashMap<>();
-    private final Map<Move, Map<NGramKey, Integer>> nGramVisits = new HashMap<>();
+    // N-gram NST statistics, keyed by a hash of the move sequence
+    private final NGramTable nGramStats = new NGramTable();
 
     // N-gram statistics for the opponent
-    private final Map<Move, Map<NGramKey, Double>> opponentNGramScores = new HashMap<>();
-    private final Map<Move, Map<NGramKey, Integer>> opponentNGramVisits = new HashMap<>();
-
-    // Move scores for both players (1-gram scores)
-    private final Map<Move, Double> aiMoveScores = new HashMap<>();
-    private final Map<Move, Integer> aiMoveVisits = new HashMap<>();
-    private final Map<Move, Double> opponentMoveScores = new HashMap<>();
-    private final Map<Move, Integer> opponentMoveVisits = new HashMap<>();
+    private final NGramTable opponentNGramStats = new NGramTable();
 
+    // One writer at a time for both n-gram tables. A worker takes it once per mastFlushInterval playouts,
+    // and the suffix and same-move links of an n-gram point into other hash slots, so the tables aren't striped.
     private final Object statsLock = new Object();
 
     // Class to store a move along with the player who made it
@@ -105,18 +110,47 @@ public class PNSMCTS_L2_MAST extends AI {
         }
     }
 
-    // Move history for the current simulation
-    private final List<MoveWithPlayer> simulationMoveHistory = new ArrayList<>();
-    private static final Random random = new Random();
+    // Playout state of one worker: the move history of the current simulation, the NST context move codes and,
+    // with root parallelisation, the finished playouts that were not yet added to the shared statistics
+    private static final class PlayoutWorker {
+        List<MoveWithPlayer> moveHistory = new ArrayList<>();
+
+        // Codes of the last playout moves, newest first, filled per NST move selection
+        final long[] contextCodes = new long[MAX_NGRAM_SIZE];
+
+        final List<List<MoveWithPlayer>> pendingHistories = new ArrayList<>();
+        final List<double[]> pendingUtilities = new ArrayList<>();
+        final List<List<MoveWithPlayer>> spareHistories = new ArrayList<>();
+
+        // Random numbers of the playout policies and the buffer of cumulative move weights of the Gibbs policy
+        final SplittableRandom random = new SplittableRandom();
+        double[] gibbsWeights = new double[64];
+    }
+
+    // Worker of the sequential search (and the first root-parallel worker)
+    private final PlayoutWorker mainWorker = new PlayoutWorker();
     private static final boolean printDebug = false;  // Set to true to see UCB debug output
     private static final boolean doDecay = false;
     private final int nGramSize;
+    private static final int MAX_NGRAM_SIZE = 8; // longest n-gram the constructors accept
     private double simulationDecayFactor = 1.0; //1.0 = no decay, 0.0 = only most recent matters // N in N-gram (1 = MAST, 2 = bigram, 3 = trigram, etc.)
     private double moveDecayFactor = 1.0; //1.0 = no decay, 0.0 = only most recent matters // N in N-gram (1 = MAST, 2 = bigram, 3 = trigram, etc.)
 
     // Epsilon-greedy exploration parameter (20% exploration rate as per the paper)
     private static final double EPSILON = 0.2; // Reduced exploration rate for more exploitation
     private static final double newMoveExploration = 100.0;
+
+    // exp(-k / GIBBS_EXP_RESOLUTION) for k = 0 .. GIBBS_EXP_RANGE * GIBBS_EXP_RESOLUTION. Gibbs weights are
+    // relative to the best candidate, so only exponents in [-GIBBS_EXP_RANGE, 0] are needed; below that
+    // the weight counts as 0.
+    private static final int GIBBS_EXP_RANGE = 16;
+    private static final int GIBBS_EXP_RESOLUTION = 1024;
+    private static final double[] GIBBS_EXP_TABLE = new double[GIBBS_EXP_RANGE * GIBBS_EXP_RESOLUTION + 1];
+    static {
+        for (int k = 0; k < GIBBS_EXP_TABLE.length; k++) {
+            GIBBS_EXP_TABLE[k] = Math.exp(-(double) k / GIBBS_EXP_RESOLUTION);
+        }
+    }
     private static final int MIN_VISITS = 7; //k = 7
     // Decay interval for n-gram statistics (1 = decay every update)
     private static final int DECAY_INTERVAL = 1;
@@ -146,10 +180,10 @@ public class PNSMCTS_L2_MAST extends AI {
     public PNSMCTS_L2_MAST() {
         this.nGramSize = 1; // Default to 1-gram (MAST)
         this.friendlyName = "PNS_L2_MAST UCT";
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0};
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, true, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+        this.numThreads = 1;
+        this.simsPerThread = new long[1];
         cleanup(); // Ensure clean initial state
-        System.out.println("Initialized " + this.friendlyName);
     }
 
     /**
@@ -158,40 +192,72 @@ public class PNSMCTS_L2_MAST extends AI {
      * @param nGramSize Size of N-gram (1 = MAST, 2 = bigram, 3 = trigram, etc.)
      */
     public PNSMCTS_L2_MAST(int nGramSize) {
-        this.nGramSize = Math.max(1, Math.min(3, nGramSize)); // Clamp between 1 and 3
+        this.nGramSize = Math.max(1, Math.min(MAX_NGRAM_SIZE, nGramSize)); // Clamp between 1 and MAX_NGRAM_SIZE
         this.friendlyName = String.format("PNS_L2_%d-gram NST", this.nGramSize);
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, true, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+        this.numThreads = 1;
+        this.simsPerThread = new long[1];
         //System.out.println("Initialized " + this.friendlyName);
     }
 
     public PNSMCTS_L2_MAST(double[] settings) {
         this.nGramSize = 1; // Default to 1-gram (MAST) for this constructor
         this.friendlyName = "PNS_L2_MAST UCT";
-        this.settings = settings;
-        System.out.println("Initialized " + this.friendlyName);
+        this.config = SearchConfig.fromSettings(settings, true, Integer.MAX_VALUE, -100);
+        this.numThreads = 1;
+        this.simsPerThread = new long[1];
     }
 
 
     public PNSMCTS_L2_MAST(boolean finMove, int minVisits, double pnCons, double contemptFactor, int nGramSize) {
-        this.nGramSize = Math.max(1, Math.min(3, nGramSize)); // Default to 1-gram (MAST) for this constructor
-        this.FIN_MOVE_SEL = finMove;
-        this.SOLVERLIKE_MINVISITS = minVisits;
-        this.CONTEMPT_FACTOR = contemptFactor; // applies only if FIN_MOVE_SEL is true
-        this.friendlyName = "PNS_L2_MAST UCT";
-        double[] defaultSettings = {pnCons, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
-        this.counter = 0;
+        this(finMove, minVisits, pnCons, contemptFactor, nGramSize, 1);
+    }
+
+    /**
+     * Constructor for root-parallel search. The workers build independent trees but share the
+     * MAST/NST statistics. Workers read them without locking and add their playouts in batches of
+     * the MAST flush interval of the config under statsLock.
+     *
+     * @param numThreads Number of workers, each building an independent tree (1 = sequential search)
+     */
+    public PNSMCTS_L2_MAST(boolean finMove, int minVisits, double pnCons, double contemptFactor, int nGramSize, int numThreads) {
+        this(new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, contemptFactor), nGramSize, numThreads); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+    }
+
+    /**
+     * Constructor with a complete search configuration
+     *
+     * @param config     Search parameters and implementation switches of this agent
+     * @param nGramSize  Size of N-gram (1 = MAST, 2 = bigram, 3 = trigram, etc.)
+     * @param numThreads Number of workers, each building an independent tree (1 = sequential search)
+     */
+    public PNSMCTS_L2_MAST(SearchConfig config, int nGramSize, int numThreads) {
+        this.nGramSize = Math.max(1, Math.min(MAX_NGRAM_SIZE, nGramSize)); // Default to 1-gram (MAST) for this constructor
+        this.friendlyName = numThreads > 1 ? "PNS_L2_MAST UCT (" + numThreads + " root threads)" : "PNS_L2_MAST UCT";
+        this.config = config;
+        this.numThreads = Math.max(1, numThreads);
+        this.simsPerThread = new long[this.numThreads];
         //System.out.println("Initialized " + this.friendlyName);
     }
 
     public void resetCounter() {
-        counter = 0;
+        counter.set(0);
+    }
+
+    public int getCounter() {
+        return counter.get();
     }
 
 
     //-------------------------------------------------------------------------
 
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
+    }
+
     @Override
     public Move selectAction(
             final Game game,
@@ -202,8 +268,8 @@ public class PNSMCTS_L2_MAST extends AI {
     ) {
         // this.simsThisTurn = this.sims;
 //        this.turns++;
-        this.simsThisTurn = 0;
-        this.turns++;
+        simsThisTurn.reset();
+        turns.increment();
 
         if (printDebug) {
             System.out.println("\n=== SELECT ACTION CALLED ===");
@@ -213,128 +279,250 @@ public class PNSMCTS_L2_MAST extends AI {
             System.out.println("===========================\n");
         }
 
-        // Start out by creating a new root node (no tree reuse in this example)
-        final Node root = new Node(null, null, context, player);
+        // Start out by promoting the matching subtree of the previous search, or else by creating a new root node.
+        // With root parallelisation every worker gets its own root on a private copy of the context.
+        Arrays.fill(simsPerThread, 0L);
+        final Node[] roots = new Node[numThreads];
+        final boolean reuse = config.treeReuse() && lastRoots != null && lastRoots.length == roots.length;
+        for (int t = 0; t < roots.length; ++t) {
+            final Context rootContext = roots.length > 1 ? new Context(context) : context;
+            final Node reused = reuse ? promoteSubtree(lastRoots[t], lastNumMoves, rootContext) : null;
+            roots[t] = (reused != null) ? reused : new Node(null, null, rootContext, player, config);
+        }
 
         // We'll respect any limitations on max seconds and max iterations (don't care about max depth)
         final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
         final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
 
-        int numIterations = 0;
-
-        // Our main loop through MCTS iterations
-        while (
-                numIterations < maxIts &&                    // Respect iteration limit
-                        System.currentTimeMillis() < stopTime &&    // Respect time limit
-                        !wantsInterrupt                                // Respect GUI user clicking the pause button
-        ) {
-            // Start in root node
-            Node current = root;
-
-            // Traverse tree
-            while (true) {
-                if (current.context.trial().over()) {
-                    // We've reached a terminal state
-                    break;
+        if (numThreads > 1) {
+            runRootParallel(game, roots, stopTime, maxIts);
+        } else {
+            int numIterations = 0;
+
+            // Our main loop through MCTS iterations
+            while (
+                    numIterations < maxIts &&                    // Respect iteration limit
+                            System.currentTimeMillis() < stopTime &&    // Respect time limit
+                            !wantsInterrupt                                // Respect GUI user clicking the pause button
+            ) {
+                if (runIteration(game, roots[0], mainWorker, false)) {
+                    ++simsPerThread[0];
                 }
 
-                current = select(current);
+                // Increment iteration count
+                ++numIterations;
+            }
+        }
+
+        for (final long threadSims : simsPerThread) {
+            sims.add(threadSims);
+            simsThisTurn.add(threadSims);
+        }
 
-                if (current.visitCount == 0) {
-                    // We've expanded a new node, time for playout!
-                    break;
+        // Apply decay if needed
+        if (doDecay ) {
+            nGramStats.decayAll(moveDecayFactor);
+            opponentNGramStats.decayAll(moveDecayFactor);
+        }
+
+        lastRoots = config.treeReuse() ? roots : null;
+        lastNumMoves = context.trial().numMoves();
+
+        // Return the move we wish to play
+        return roots.length > 1 ? finalMoveSelection(roots, config, counter) : finalMoveSelection(roots[0], config, counter);
+    }
+
+    /**
+     * Runs MCTS iterations on numThreads workers until the time or iteration limit is hit. Worker t only
+     * touches the tree below roots[t] and keeps its own playout move history; only the shared MAST/NST
+     * statistics are locked.
+     */
+    private void runRootParallel(final Game game, final Node[] roots, final long stopTime, final int maxIts) {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+                final Thread thread = new Thread(runnable, friendlyName + " worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        final AtomicInteger numIterations = new AtomicInteger(0);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int threadIndex = t;
+            final PlayoutWorker worker = (t == 0) ? mainWorker : new PlayoutWorker();
+            futures.add(workers.submit(() -> {
+                while (
+                        numIterations.getAndIncrement() < maxIts &&  // Respect iteration limit (shared by all workers)
+                                System.currentTimeMillis() < stopTime &&    // Respect time limit
+                                !wantsInterrupt                                // Respect GUI user clicking the pause button
+                ) {
+                    if (runIteration(game, roots[threadIndex], worker, true)) {
+                        ++simsPerThread[threadIndex];
+                    }
                 }
-            }
+                flushPlayouts(worker);
+            }));
+        }
 
-            Context contextEnd = current.context;
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Root-parallel worker failed", e.getCause());
+            }
+        }
+    }
 
-            int numMoves = 0;
-            if (!contextEnd.trial().over()) {
+    /**
+     * Performs one MCTS iteration (selection, expansion, MAST playout and backpropagation) starting in the root.
+     *
+     * @param worker     Playout state of the calling worker
+     * @param concurrent True if other workers share the MAST/NST statistics, the playout is then buffered
+     *                   and added in a batch (see flushPlayouts)
+     * @return True if a playout was run, false if the selection ended in a terminal node
+     */
+    private boolean runIteration(final Game game, final Node root, final PlayoutWorker worker, final boolean concurrent) {
+        // Start in root node
+        Node current = root;
+
+        // Private copy of the game state of the parent of the selected node. Nodes don't keep a Context
+        // of their own, so it is only rebuilt (by replaying moves) when a node has to be developed.
+        Context state = null;
+
+        // Traverse tree
+        while (true) {
+            if (current.isTerminal()) {
+                // We've reached a terminal state
+                break;
+            }
 
+            state = current.needsState() ? current.replayState() : null;
+            current = select(current, state, config);
 
-                // MAST-guided playout implementation
-                contextEnd = new Context(contextEnd);
+            if (current.visitCount == 0) {
+                // We've expanded a new node, time for playout!
+                break;
+            }
+        }
 
+        final double[] utilities;
+        boolean playedOut = false;
 
-                // Perform MAST-guided playout with (random) moves for opponent
-                while (!contextEnd.trial().over()) {  // Continue until game ends
-                    int currentPlayer = contextEnd.state().mover();
+        int numMoves = 0;
+        if (current.isTerminal()) {
+            utilities = current.terminalUtilities;
+        } else {
+            // MAST-guided playout implementation
+            final Context contextEnd;
+            if (state != null) {
+                // The parent was just developed from this state, so one more move gives the state of the new node
+                contextEnd = state;
+                game.apply(contextEnd, current.moveFromParent);
+            } else {
+                contextEnd = current.replayState();
+            }
 
 
-                    // Get legal moves for current player
-                    FastArrayList<Move> legalMoves = game.moves(contextEnd).moves();
-                    if (legalMoves.isEmpty()) {
-                        break;  // Or handle no legal moves
-                    }
-                    // Select move based on player type
-                    Move move;
-                    if (currentPlayer != this.player && opponentPlaysRandomly) {
-                        // Select random move for opponent if enabled
-                        move = legalMoves.get(contextEnd.rng().nextInt(legalMoves.size()));
-                    } else {
-                        // Use N-gram statistics for move selection
-                        move = selectMoveByMAST(legalMoves, currentPlayer);
-                    }
+            // Perform MAST-guided playout with (random) moves for opponent
+            while (!contextEnd.trial().over()) {  // Continue until game ends
+                int currentPlayer = contextEnd.state().mover();
 
-                    // Apply the selected move
-                    game.apply(contextEnd, move);
-                    // Add the move to the simulation history for N-gram statistics
-                    simulationMoveHistory.add(new MoveWithPlayer(move, currentPlayer));
 
-                    numMoves++;
+                // Get legal moves for current player
+                FastArrayList<Move> legalMoves = game.moves(contextEnd).moves();
+                if (legalMoves.isEmpty()) {
+                    break;  // Or handle no legal moves
                 }
-                // Update N-gram statistics based on the final game outcome
-                if (!simulationMoveHistory.isEmpty()) {
-                    // Get utilities for all players using Ludii's standard method
-                    double[] utilities = RankUtils.utilities(contextEnd);
-                    updateNGramStats(utilities);
-                    simulationMoveHistory.clear();
+                // Select move based on player type
+                Move move;
+                if (currentPlayer != this.player && opponentPlaysRandomly) {
+                    // Select random move for opponent if enabled
+                    move = legalMoves.get(contextEnd.rng().nextInt(legalMoves.size()));
+                } else {
+                    // Use N-gram statistics for move selection (read without locking)
+                    move = selectMoveByMAST(legalMoves, currentPlayer, worker);
                 }
-                sims++;
-                simsThisTurn++;
-            }
 
+                // Apply the selected move
+                game.apply(contextEnd, move);
+                // Add the move to the simulation history for N-gram statistics
+                worker.moveHistory.add(new MoveWithPlayer(move, currentPlayer));
 
+                numMoves++;
+            }
             // This computes utilities for all players at the end of the playout,
             // which will all be values in [-1.0, 1.0]
-            final double[] utilities = RankUtils.utilities(contextEnd);
-            //System.out.println("utilities for Backpropagate: " + Arrays.toString(utilities));
-            // Use all moves from this playout for n-gram updates
-            //updateNGramStats(contextEnd, simulationMoveHistory.size(), utilities);
-            // Backpropagate utilities through the tree
-            boolean changed = true;
-            boolean firstNode = true;
-            while (current != null) {
-                current.visitCount += 1;
-                for (int p = 1; p <= game.players().count(); ++p) {
-                    current.scoreSums[p] += utilities[p];
-                }
-                if (!firstNode) {
-                    if (changed) {
-                        changed = current.setProofAndDisproofNumbers();
-                        if (current.getChildren().size() > 0) {
-                            current.setChildRanks();
-                        }
+            utilities = RankUtils.utilities(contextEnd);
+
+            // Update N-gram statistics based on the final game outcome
+            if (!worker.moveHistory.isEmpty()) {
+                if (concurrent) {
+                    worker.pendingHistories.add(worker.moveHistory);
+                    worker.pendingUtilities.add(utilities);
+                    worker.moveHistory = worker.spareHistories.isEmpty()
+                            ? new ArrayList<MoveWithPlayer>()
+                            : worker.spareHistories.remove(worker.spareHistories.size() - 1);
+                    if (worker.pendingHistories.size() >= config.mastFlushInterval()) {
+                        flushPlayouts(worker);
                     }
                 } else {
-                    firstNode = false;
+                    updateNGramStats(worker.moveHistory, utilities);
+                    worker.moveHistory.clear();
                 }
+            }
+            playedOut = true;
+        }
 
-                current = current.parent;
+        //System.out.println("utilities for Backpropagate: " + Arrays.toString(utilities));
+        // Use all moves from this playout for n-gram updates
+        //updateNGramStats(contextEnd, simulationMoveHistory.size(), utilities);
+        // Backpropagate utilities through the tree
+        boolean changed = true;
+        boolean firstNode = true;
+        Node child = null;
+        while (current != null) {
+            current.visitCount += 1;
+            for (int p = 1; p <= game.players().count(); ++p) {
+                current.scoreSums[p] += utilities[p];
+            }
+            if (!firstNode) {
+                if (changed) {
+                    changed = current.setProofAndDisproofNumbers();
+                    current.updateChildRank(child);
+                }
+            } else {
+                firstNode = false;
             }
 
-            // Increment iteration count
-            ++numIterations;
+            child = current;
+            current = current.parent;
         }
 
-        // Apply decay if needed
-        if (doDecay ) {
-            applyMoveDecay(nGramScores, nGramVisits);
-            applyMoveDecay(opponentNGramScores, opponentNGramVisits);
-        }
+        return playedOut;
+    }
 
-        // Return the move we wish to play
-        return finalMoveSelection(root);
+    /**
+     * Adds the buffered playouts of a root-parallel worker to the shared MAST/NST statistics, holding
+     * statsLock once for the whole batch. Other workers keep reading the statistics in the meantime.
+     */
+    private void flushPlayouts(final PlayoutWorker worker) {
+        if (worker.pendingHistories.isEmpty()) {
+            return;
+        }
+        synchronized (statsLock) {
+            for (int i = 0; i < worker.pendingHistories.size(); i++) {
+                updateNGramStats(worker.pendingHistories.get(i), worker.pendingUtilities.get(i));
+            }
+        }
+        for (final List<MoveWithPlayer> history : worker.pendingHistories) {
+            history.clear();
+            worker.spareHistories.add(history);
+        }
+        worker.pendingHistories.clear();
+        worker.pendingUtilities.clear();
     }
 
     /**
@@ -343,17 +531,22 @@ public class PNSMCTS_L2_MAST extends AI {
      * new nodes if the given current node has unexpanded moves.
      *
      * @param current
+     * @param state   Private copy of the game state of current, required if current.needsState()
+     * @param config Search parameters of the agent
      * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
      */
-    public static Node select(final Node current) {
+    public static Node select(final Node current, final Context state, final SearchConfig config) {
         // All child nodes are created and added to the child list of the current node
         if (!current.expanded) {
-            return current.developNode();
+            return current.developNode(state, config);
         }
 
         // Don't use UCT-PN until all nodes have been visited once
         if (current.getUnexpandedChildren().size() > 0) {
-            return current.getUnexpandedChildren().remove(random.nextInt(current.unexpandedChildren.size()));
+            return current.getUnexpandedChildren().remove(ThreadLocalRandom.current().nextInt(current.unexpandedChildren.size()));
+        }
+        if (current.numUnexpandedMoves() > 0) {
+            return current.materialiseChild(state, config);
         }
 
         // use UCT-PN equation to select from all children, with random tie-breaking
@@ -361,27 +554,27 @@ public class PNSMCTS_L2_MAST extends AI {
         double bestValue = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
 
-        double explorationConstant = settings[1];
+        double explorationConstant = config.explorationConstant();
 
-        double pnConstant = settings[0];
+        double pnConstant = config.pnConstant();
         double total = current.getChildren().size();
 
         final int numChildren = current.children.size();
-        final int mover = current.context.state().mover();
+        final int mover = current.mover;
 
         for (int i = 0; i < numChildren; ++i) {
             final Node child = current.children.get(i);
 
             // original solver
 //            if (current.proofNum != 0 && current.disproofNum != 0) {
-//                if (child.proofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
-//                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
+//                if (child.proofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
+//                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
 //            }
 
             // slightly modified 2Level solver
             if (current.proofNumL2 != 0 && current.disproofNum != 0) {
-                if (child.proofNumL2 == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue; // win or draw
-                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue; // lose or draw
+                if (child.proofNumL2 == 0 && child.visitCount > config.solverlikeMinVisits()) continue; // win or draw
+                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue; // lose or draw
             }
 
             final double exploit = child.scoreSums[mover] / child.visitCount;
@@ -395,7 +588,7 @@ public class PNSMCTS_L2_MAST extends AI {
                 bestValue = uctValue;
                 bestChild = child;
                 numBestFound = 1;
-            } else if (uctValue == bestValue && random.nextInt() % ++numBestFound == 0) {
+            } else if (uctValue == bestValue && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
                 // this case implements random tie-breaking
                 bestChild = child;
             }
@@ -403,15 +596,44 @@ public class PNSMCTS_L2_MAST extends AI {
         return bestChild;
     }
 
+    /**
+     * Follows the moves played since the previous search (ours and the opponent's) down the previous tree
+     * and detaches the node that was reached, so it becomes the new root with all its statistics and
+     * (dis)proof numbers. The rest of the previous tree is left to the garbage collector.
+     *
+     * @param oldRoot      Root of the previous search
+     * @param oldNumMoves  Number of moves in the trial at the previous search
+     * @param context      Current game state, becomes the Context of the new root
+     * @return The new root, or null if the previous tree does not contain the current state
+     */
+    private static Node promoteSubtree(final Node oldRoot, final int oldNumMoves, final Context context) {
+        final Trial trial = context.trial();
+        if (trial.numMoves() < oldNumMoves) {
+            return null;
+        }
+
+        Node node = oldRoot;
+        for (int i = oldNumMoves; i < trial.numMoves() && node != null; ++i) {
+            node = node.findChild(trial.getMove(i));
+        }
+        if (node == null || node.isTerminal()) {
+            return null;
+        }
+        node.makeRoot(context);
+        return node;
+    }
+
     /**
      * Selects the move we wish to play using the "Robust Child" strategy
      * (meaning that we play the move leading to the child of the root node
      * with the highest visit count).
      *
      * @param rootNode
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
      * @return Final move as selected by PN-MCTS
      */
-    public static Move finalMoveSelection(final Node rootNode) {
+    public static Move finalMoveSelection(final Node rootNode, final SearchConfig config, final AtomicInteger counter) {
         Node bestChild = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
@@ -426,14 +648,14 @@ public class PNSMCTS_L2_MAST extends AI {
                 bestVisitCount = visitCount;
                 bestChild = child;
                 numBestFound = 1;
-            } else if (visitCount == bestVisitCount && random.nextInt() % ++numBestFound == 0) {
+            } else if (visitCount == bestVisitCount && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
                 // this case implements random tie-breaking
                 bestChild = child;
             }
         }
 
         // To ensure a proven node will select the proven child too
-        if (FIN_MOVE_SEL) {
+        if (config.finMoveSel()) {
             if (rootNode.proofNum == 0) {
                 for (Node child : rootNode.children) {
                     if (child.proofNum == 0) {
@@ -442,9 +664,9 @@ public class PNSMCTS_L2_MAST extends AI {
                     }
                 }
             } else if (rootNode.proofNumL2 == 0) { // Level 2 check
-                double rootscore = rootNode.scoreSums[rootNode.context.state().mover()] / rootNode.visitCount;
-                if (rootscore <= CONTEMPT_FACTOR) {
-                    ++counter;
+                double rootscore = rootNode.scoreSums[rootNode.mover] / rootNode.visitCount;
+                if (rootscore <= config.contemptFactor()) {
+                    counter.incrementAndGet();
                     for (Node child : rootNode.children) {
                         if (child.proofNumL2 == 0) {
                             bestChild = child;
@@ -455,20 +677,130 @@ public class PNSMCTS_L2_MAST extends AI {
             }
         }
 
+        if (bestChild == null) {
+            return randomMove(rootNode);
+        }
         Move finalMove = bestChild.moveFromParent;
 //    double score = (double)bestChild.scoreSums[bestChild.context.state().mover()] / bestChild.visitCount;
 //    System.out.println("finalmove selection: " + finalMove + " with score: " + score);
         return finalMove;
     }
 
+    /**
+     * @return A random legal move in the state of the root, for a search that ended before the root had children
+     */
+    private static Move randomMove(final Node root) {
+        final Context context = root.replayState();
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        return legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+    }
+
+    /**
+     * Selects the final move from several independently searched trees (root parallelisation). The root
+     * children are merged by move: visit counts and score sums are added up and the lowest (dis)proof numbers
+     * of any tree are kept. Children with the same visit count are told apart by their merged mean score.
+     * The root score sums are added up for the Level 2 contempt check. A (dis)proof in one tree is exact, so
+     * a child proven by any worker takes priority just like in the single-tree selection.
+     *
+     * @param roots
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
+     * @return Final move as selected by the ensemble of PN-MCTS trees
+     */
+    public static Move finalMoveSelection(final Node[] roots, final SearchConfig config, final AtomicInteger counter) {
+        final Map<Move, RootChildStats> merged = new LinkedHashMap<Move, RootChildStats>();
+        double rootProofNum = Double.POSITIVE_INFINITY;
+        double rootProofNumL2 = Double.POSITIVE_INFINITY;
+        double rootScore = 0.0;
+        int rootVisits = 0;
+        final int mover = roots[0].mover;
+
+        for (final Node root : roots) {
+            rootProofNum = Math.min(rootProofNum, root.proofNum);
+            rootProofNumL2 = Math.min(rootProofNumL2, root.proofNumL2);
+            rootScore += root.scoreSums[mover];
+            rootVisits += root.visitCount;
+
+            for (final Node child : root.children) {
+                RootChildStats stats = merged.get(child.moveFromParent);
+                if (stats == null) {
+                    stats = new RootChildStats(child.moveFromParent, child.scoreSums.length);
+                    merged.put(child.moveFromParent, stats);
+                }
+                stats.visitCount += child.visitCount;
+                for (int p = 1; p < child.scoreSums.length; ++p) {
+                    stats.scoreSums[p] += child.scoreSums[p];
+                }
+                stats.proofNum = Math.min(stats.proofNum, child.proofNum);
+                stats.disproofNum = Math.min(stats.disproofNum, child.disproofNum);
+                stats.proofNumL2 = Math.min(stats.proofNumL2, child.proofNumL2);
+                stats.disproofNumL2 = Math.min(stats.disproofNumL2, child.disproofNumL2);
+            }
+        }
+
+        RootChildStats bestChild = null;
+        int bestVisitCount = Integer.MIN_VALUE;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int numBestFound = 0;
+
+        for (final RootChildStats child : merged.values()) {
+            final double score = child.scoreSums[mover] / child.visitCount;
+            if (child.visitCount > bestVisitCount || (child.visitCount == bestVisitCount && score > bestScore)) {
+                bestVisitCount = child.visitCount;
+                bestScore = score;
+                bestChild = child;
+                numBestFound = 1;
+            } else if (child.visitCount == bestVisitCount && score == bestScore && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                // this case implements random tie-breaking
+                bestChild = child;
+            }
+        }
+
+        // To ensure a proven node will select the proven child too
+        if (config.finMoveSel()) {
+            if (rootProofNum == 0) {
+                for (final RootChildStats child : merged.values()) {
+                    if (child.proofNum == 0) {
+                        bestChild = child;
+                        break;
+                    }
+                }
+            } else if (rootProofNumL2 == 0) { // Level 2 check
+                if (rootScore / rootVisits <= config.contemptFactor()) {
+                    counter.incrementAndGet();
+                    for (final RootChildStats child : merged.values()) {
+                        if (child.proofNumL2 == 0) {
+                            bestChild = child;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (bestChild == null) {
+            return randomMove(roots[0]);
+        }
+        return bestChild.move;
+    }
+
     @Override
     public void initAI(final Game game, final int playerID) {
         cleanup(); // Reset all state before starting a new game
         this.player = playerID;
-        this.settings = new double[]{1.0, Math.sqrt(2.0), 1.0};
+        this.lastRoots = null; // never reuse a tree from a previous game
         resetNGramStats();
     }
 
+    @Override
+    public void closeAI() {
+        lastRoots = null;
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
     @Override
     // Notifies Ludii if the game is playable by PN-MCTS
     public boolean supportsGame(final Game game) {
@@ -483,17 +815,42 @@ public class PNSMCTS_L2_MAST extends AI {
 
     //-------------------------------------------------------------------------
 
+    /**
+     * Statistics of one root child merged over the trees of all root-parallel workers
+     */
+    private static class RootChildStats {
+
+        private final Move move;
+
+        private int visitCount = 0;
+
+        /**
+         * For every player, sum of the score sums of this child over all trees
+         */
+        private final double[] scoreSums;
+
+        private double proofNum = Double.POSITIVE_INFINITY;
+        private double disproofNum = Double.POSITIVE_INFINITY;
+        private double proofNumL2 = Double.POSITIVE_INFINITY;
+        private double disproofNumL2 = Double.POSITIVE_INFINITY;
+
+        RootChildStats(final Move move, final int numScores) {
+            this.move = move;
+            this.scoreSums = new double[numScores];
+        }
+    }
+
     /**
      * Inner class for nodes used by example UCT
      *
      * @author Dennis Soemers
      */
-    private static class Node implements Comparable<Node> {
+    private static class Node {
 
         /**
-         * Our parent node
+         * Our parent node (null for the root)
          */
-        private final Node parent;
+        private Node parent;
 
         /**
          * The move that led from parent to this node
@@ -501,9 +858,25 @@ public class PNSMCTS_L2_MAST extends AI {
         private final Move moveFromParent;
 
         /**
-         * This objects contains the game state for this node (this is why we don't support stochastic games)
+         * Game state for this node (this is why we don't support stochastic games). Only kept for nodes up to the
+         * cached context depth of the config, deeper nodes are null and rebuilt by replaying moves from the closest cached ancestor.
+         */
+        private Context context;
+
+        /**
+         * Depth of this node below the current root, re-based by makeRoot
+         */
+        private int depth;
+
+        /**
+         * Player to move in this node
+         */
+        private final int mover;
+
+        /**
+         * Utilities of all players if this node is a terminal game state, null otherwise
          */
-        private final Context context;
+        private final double[] terminalUtilities;
 
         /**
          * Visit count for this node
@@ -520,10 +893,11 @@ public class PNSMCTS_L2_MAST extends AI {
          */
         private final List<Node> children = new ArrayList<Node>();
 
+
         /**
-         * List of moves for which we did not yet create a child node
+         * List of moves for which we did not yet create a child node (lazy expansion only, null otherwise)
          */
-        private final FastArrayList<Move> unexpandedMoves;
+        private FastArrayList<Move> unexpandedMoves = null;
 
         private final List<Node> unexpandedChildren = new ArrayList<Node>();
 
@@ -545,9 +919,15 @@ public class PNSMCTS_L2_MAST extends AI {
         private double disproofNumL2;
 
         /**
-         * Rank of a node compared to "siblings". Needed for UCT-PN. Ranks ordered best to worst
+         * Index of this node in the childRanks of its parent, where it is ranked under its proof number
+         * (OR parent) or disproof number (AND parent) compared to "siblings"
          */
-        private int rank;
+        private int rankIndex;
+
+        /**
+         * Ranks of the child nodes, ordered best to worst
+         */
+        private final ChildRanks childRanks = new ChildRanks();
 
         /**
          * Various necessary information variables.
@@ -601,41 +981,64 @@ public class PNSMCTS_L2_MAST extends AI {
          *
          * @param parent
          * @param moveFromParent
-         * @param context
+         * @param context        Game state of the new node, only kept if the node lies within the cached context depth
+         * @param config         Search parameters of the agent
          */
-        public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer) {
+        public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer, final SearchConfig config) {
             this.parent = parent;
             this.moveFromParent = moveFromParent;
-            this.context = context;
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+            this.context = (depth <= config.cachedContextDepth()) ? context : null;
+            this.mover = context.state().mover();
+            this.terminalUtilities = context.trial().over() ? RankUtils.utilities(context) : null;
             final Game game = context.game();
             // Ensure proofPlayer is within valid range
             int numPlayers = game.players().count();
-            this.proofPlayer = (proofPlayer < 1 || proofPlayer > numPlayers) ? context.state().mover() : proofPlayer;
+            this.proofPlayer = (proofPlayer < 1 || proofPlayer > numPlayers) ? mover : proofPlayer;
             scoreSums = new double[numPlayers + 1];
 
             // Set node type
-            this.type = (context.state().mover() == this.proofPlayer) ?
+            this.type = (mover == this.proofPlayer) ?
                     PNSNodeTypes.OR_NODE : PNSNodeTypes.AND_NODE;
 
             evaluate();
             setProofAndDisproofNumbers();
 
-            // For simplicity, we just take ALL legal moves.
-            // This means we do not support simultaneous-move games.
-            unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
-
-            if (parent != null)
+            if (parent != null) {
                 parent.children.add(this);
+                rankIndex = parent.childRanks.add((parent.type == PNSNodeTypes.OR_NODE) ? proofNum : disproofNum);
+            }
+        }
+
+        /**
+         * @return True if this node is a terminal game state
+         */
+        public boolean isTerminal() {
+            return terminalUtilities != null;
+        }
+
+        /**
+         * Rebuilds the game state of this node by replaying the moves from the closest ancestor that kept its Context.
+         *
+         * @return A new Context that may be modified by the caller
+         */
+        public Context replayState() {
+            if (context != null) {
+                return new Context(context);
+            }
+            final Context state = parent.replayState();
+            state.game().apply(state, moveFromParent);
+            return state;
         }
 
         /**
          * Evaluates a node as in PNS according to L. V. Allis' "Searching for Solutions in Games and Artificial Intelligence"
          */
         public void evaluate() {
-            if (this.context.trial().over()) {
-                if (RankUtils.utilities(this.context)[proofPlayer] == 1.0) {
+            if (isTerminal()) {
+                if (terminalUtilities[proofPlayer] == 1.0) {
                     this.value = PNSNodeValues.TRUE;
-                } else if (RankUtils.utilities(this.context)[proofPlayer] >= 0.0) {
+                } else if (terminalUtilities[proofPlayer] >= 0.0) {
                     this.value = PNSNodeValues.DRAW;
                 } else {
                     this.value = PNSNodeValues.FALSE;
@@ -672,6 +1075,14 @@ public class PNSMCTS_L2_MAST extends AI {
                             disproofL2 = this.children.get(i).getDisproofNumL2();
                         }
                     }
+                    // Moves without a child node yet count as unknown children (proof and disproof number 1)
+                    final int numUnexpanded = numUnexpandedMoves();
+                    if (numUnexpanded > 0) {
+                        proof += numUnexpanded;
+                        proofL2 += numUnexpanded;
+                        disproof = Math.min(disproof, 1);
+                        disproofL2 = Math.min(disproofL2, 1);
+                    }
                     //If nothing changed return false
                     if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
                         return false;
@@ -699,6 +1110,14 @@ public class PNSMCTS_L2_MAST extends AI {
                             proofL2 = this.children.get(i).getProofNumL2();
                         }
                     }
+                    // Moves without a child node yet count as unknown children (proof and disproof number 1)
+                    final int numUnexpanded = numUnexpandedMoves();
+                    if (numUnexpanded > 0) {
+                        disproof += numUnexpanded;
+                        disproofL2 += numUnexpanded;
+                        proof = Math.min(proof, 1);
+                        proofL2 = Math.min(proofL2, 1);
+                    }
                     //If nothing changed return false
                     if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
                         return false;
@@ -741,19 +1160,30 @@ public class PNSMCTS_L2_MAST extends AI {
         /**
          * Develops a node by adding all the children nodes. Then returns one child at random for the selection phase.
          *
+         * @param state  Game state of this node, left unchanged
+         * @param config Search parameters of the agent
          * @return One of the new child nodes
          */
-        public Node developNode() {
+        public Node developNode(final Context state, final SearchConfig config) {
             if (this.value == PNSNodeValues.UNKNOWN) {
-                for (int i = 0; i < this.unexpandedMoves.size(); i++) {
-                    final Move move = this.unexpandedMoves.get(i);
-                    final Context context = new Context(this.context);
+                // For simplicity, we just take ALL legal moves.
+                // This means we do not support simultaneous-move games.
+                final FastArrayList<Move> legalMoves = state.game().moves(state).moves();
+                if (config.lazyExpansion()) {
+                    // Children are only created once selection picks their move
+                    this.unexpandedMoves = legalMoves;
+                    this.expanded = true;
+                    return materialiseChild(state, config);
+                }
+                for (int i = 0; i < legalMoves.size(); i++) {
+                    final Move move = legalMoves.get(i);
+                    final Context context = new Context(state);
                     context.game().apply(context, move);
-                    Node node = new Node(this, move, context, this.proofPlayer);
+                    Node node = new Node(this, move, context, this.proofPlayer, config);
                     unexpandedChildren.add(node);
                 }
                 this.expanded = true;
-                return this.unexpandedChildren.remove(random.nextInt(this.unexpandedChildren.size()));
+                return this.unexpandedChildren.remove(ThreadLocalRandom.current().nextInt(this.unexpandedChildren.size()));
             } else {
                 this.expanded = true;
                 return this;
@@ -761,25 +1191,75 @@ public class PNSMCTS_L2_MAST extends AI {
         }
 
         /**
-         * Set an ordered ranking for the UCT-PN formula in the selection step of MCTS
+         * Creates the child node for a random move that has no node yet (lazy expansion).
+         *
+         * @param state  Game state of this node, left unchanged
+         * @param config Search parameters of the agent
+         * @return The new child node
          */
+        public Node materialiseChild(final Context state, final SearchConfig config) {
+            final int index = ThreadLocalRandom.current().nextInt(unexpandedMoves.size());
+            final Move move = unexpandedMoves.get(index);
+            unexpandedMoves.removeSwap(index);
+            final Context context = new Context(state);
+            context.game().apply(context, move);
+            return new Node(this, move, context, this.proofPlayer, config);
+        }
 
-        public void setChildRanks() {
-            List<Node> sorted = new ArrayList<Node>(this.children);
-            Collections.sort(sorted);
-            Node lastNode = null;
-            for (int i = 0; i < sorted.size(); i++) {
-                Node child = sorted.get(i);
-                // If there's a tie
-                if (lastNode != null && this.type == PNSNodeTypes.OR_NODE && lastNode.getProofNum() == child.getProofNum()) {
-                    child.setRank(lastNode.getRank());
-                    // If there's a tie
-                } else if (lastNode != null && this.type == PNSNodeTypes.AND_NODE && lastNode.getDisproofNum() == child.getDisproofNum()) {
-                    child.setRank(lastNode.getRank());
-                } else {
-                    child.setRank(i + 1);
+        /**
+         * @return Number of legal moves for which no child node was created yet (lazy expansion)
+         */
+        public int numUnexpandedMoves() {
+            return (unexpandedMoves == null) ? 0 : unexpandedMoves.size();
+        }
+
+        /**
+         * @return True if selecting from this node may create a child, which requires the game state of this node
+         */
+        public boolean needsState() {
+            return !expanded || numUnexpandedMoves() > 0;
+        }
+
+        /**
+         * Re-positions a child in the UCT-PN ranking after its proof or disproof number may have changed
+         */
+        public void updateChildRank(final Node child) {
+            final double key = (this.type == PNSNodeTypes.OR_NODE) ? child.getProofNum() : child.getDisproofNum();
+            childRanks.update(child.rankIndex, key);
+        }
+
+        /**
+         * @return The child reached by the given move, or null if there is no node for it
+         */
+        public Node findChild(final Move move) {
+            for (int i = 0; i < children.size(); i++) {
+                final Node child = children.get(i);
+                if (child.moveFromParent.equals(move)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Detaches this node from its parent so it can serve as the root of a new search. The depths of the
+         * subtree are re-based on this node, so the cached context depth keeps counting from the current root.
+         *
+         * @param context Game state of this node
+         */
+        public void makeRoot(final Context context) {
+            this.parent = null;
+            this.context = context;
+
+            final int shift = this.depth;
+            final Deque<Node> open = new ArrayDeque<Node>();
+            open.push(this);
+            while (!open.isEmpty()) {
+                final Node node = open.pop();
+                node.depth -= shift;
+                for (int i = 0; i < node.children.size(); ++i) {
+                    open.push(node.children.get(i));
                 }
-                lastNode = child;
             }
         }
 
@@ -808,47 +1288,12 @@ public class PNSMCTS_L2_MAST extends AI {
         }
 
         public int getRank() {
-            return rank;
+            return parent.childRanks.rank(rankIndex);
         }
 
         public List<Node> getUnexpandedChildren() {
             return unexpandedChildren;
         }
-
-        public void setRank(int rank) {
-            this.rank = rank;
-        }
-
-        // Used to rank children
-        @Override
-        public int compareTo(Node o) {
-            if (this.parent.getType() == PNSNodeTypes.OR_NODE) {
-                if (this.getProofNum() < o.getProofNum()) {
-                    return -1;
-                } else if (this.getProofNum() > o.getProofNum()) {
-                    return 1;
-                } else if (this.getProofNumL2() < o.getProofNumL2()) {
-                    return -1;
-                } else if (this.getProofNumL2() > o.getProofNumL2()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else if (this.parent.getType() == PNSNodeTypes.AND_NODE) {
-                if (this.getDisproofNum() < o.getDisproofNum()) {
-                    return -1;
-                } else if (this.getDisproofNum() > o.getDisproofNum()) {
-                    return 1;
-                } else if (this.getDisproofNumL2() < o.getDisproofNumL2()) {
-                    return -1;
-                } else if (this.getDisproofNumL2() > o.getDisproofNumL2()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            return 0;
-        }
     }
 
     //-------------------------------------------------------------------------
@@ -872,50 +1317,40 @@ public class PNSMCTS_L2_MAST extends AI {
         System.out.println("\n=== N-gram Statistics (N = " + nGramSize + ") ===");
 
         // Group N-grams by their size
-        Map<Integer, List<Map.Entry<NGramKey, Integer>>> ngramsBySize = new HashMap<>();
-
-        // First, collect all n-grams from nGramVisits
-        for (Map<NGramKey, Integer> ngramMap : nGramVisits.values()) {
-            for (Map.Entry<NGramKey, Integer> entry : ngramMap.entrySet()) {
-                NGramKey ngram = entry.getKey();
-                int size = ngram.sequence.size();
-                ngramsBySize.computeIfAbsent(size, k -> new ArrayList<>()).add(entry);
+        Map<Integer, List<Integer>> ngramsBySize = new HashMap<>();
+
+        // First, collect all n-grams ending in our moves
+        for (int entry = 0; entry < nGramStats.size(); entry++) {
+            if (nGramStats.visits(entry) > 0) {
+                ngramsBySize.computeIfAbsent(nGramStats.length(entry), k -> new ArrayList<>()).add(entry);
             }
         }
 
         // Print N-grams by size
         for (int size = 1; size <= nGramSize; size++) {
-            List<Map.Entry<NGramKey, Integer>> ngrams = ngramsBySize.getOrDefault(size, Collections.emptyList());
+            List<Integer> ngrams = ngramsBySize.getOrDefault(size, Collections.emptyList());
             System.out.printf("\n=== %d-grams (showing %d/%d) ===\n",
                     size, Math.min(ngrams.size(), maxPerSize), ngrams.size());
 
             // Print N-grams in their natural order (no sorting)
             int count = 0;
-            for (Map.Entry<NGramKey, Integer> entry : ngrams) {
+            for (int entry : ngrams) {
                 if (count++ >= maxPerSize) break;
-                NGramKey ngram = entry.getKey();
-                int visits = entry.getValue();
-                
-                // Find the score for this n-gram (need to search through all moves)
-                Double score = null;
-                for (Map<NGramKey, Double> scoreMap : nGramScores.values()) {
-                    if (scoreMap.containsKey(ngram)) {
-                        score = scoreMap.get(ngram);
-                        break;
-                    }
-                }
+                int visits = nGramStats.visits(entry);
+                double score = nGramStats.score(entry);
 
-                // Skip if we don't have a score for this N-gram
-                if (score == null) {
-                    continue;
+                // Rebuild the move sequence through the suffix links, oldest move first
+                List<Move> sequence = new ArrayList<>(size);
+                for (int e = entry; e >= 0; e = nGramStats.suffix(e)) {
+                    sequence.add(nGramStats.firstMove(e));
                 }
 
                 double avgScore = score / visits;
 
                 // Handle null context
                 String moveInfo = (context != null) ?
-                        moveSequenceWithPlayerInfo(ngram.sequence, context) :
-                        moveSequenceToString(ngram.sequence.stream()
+                        moveSequenceWithPlayerInfo(sequence, context) :
+                        moveSequenceToString(sequence.stream()
                             .map(move -> new MoveWithPlayer(move, -1)) // Default player ID since we don't have context
                             .collect(Collectors.toList()));
 
@@ -973,23 +1408,30 @@ public class PNSMCTS_L2_MAST extends AI {
 
     /**
      * Selects a move using N-gram statistics with epsilon-greedy exploration.
-     * Uses the getNGramScore method to evaluate moves, which considers:
+     * The score of a move is its NST score (see getNSTScore); with 1-grams that is the score of the 1-gram of the
+     * move alone, which is MAST. The NST score considers:
+     * - The n-grams formed by the preceding playout moves and the candidate
      * - Minimum visits threshold for n-grams
-     * - Weighted averages of n-gram scores
-     * - Fallback to 1-gram scores when needed
+     * - Averages of n-gram scores
+     * - Fallback to shorter n-grams when needed
      * - High exploration value for completely new moves
      *
-     * @param legalMoves List of legal moves to choose from
+     * @param legalMoves  List of legal moves to choose from
+     * @param worker     Playout state of the calling worker, holding the moves of the playout so far
      * @return The best move according to n-gram statistics, or a random move if no data available
      */
-    private Move selectMoveByMAST(FastArrayList<Move> legalMoves, int currentPlayer) {
+    private Move selectMoveByMAST(FastArrayList<Move> legalMoves, int currentPlayer, PlayoutWorker worker) {
         if (legalMoves == null || legalMoves.isEmpty()) {
             return null;
         }
 
+        if (config.gibbsPlayout()) {
+            return selectMoveByGibbs(legalMoves, currentPlayer, worker);
+        }
+
         // With probability EPSILON, select a random move (exploration)
-        if (random.nextDouble() < EPSILON) {
-            Move randomMove = legalMoves.get(random.nextInt(legalMoves.size()));
+        if (worker.random.nextDouble() < EPSILON) {
+            Move randomMove = legalMoves.get(worker.random.nextInt(legalMoves.size()));
             if (printDebug) {
                 System.out.println("\n--- Random Move Selection (Exploration) ---");
                 System.out.println("Selected random move: " + randomMove);
@@ -1007,9 +1449,14 @@ public class PNSMCTS_L2_MAST extends AI {
             System.out.println("----------------------");
         }
         
-        // Find the move with the highest score
-        for (Move move : legalMoves) {
-            double score = getMoveScore(move, currentPlayer);
+        // Find the move with the highest score, one table probe per move and n-gram size
+        final boolean isAI = (currentPlayer == this.player);
+        final NGramTable nGramTable = isAI ? nGramStats : opponentNGramStats;
+        final int maxN = (nGramSize > 1) ? computeContext(worker, currentPlayer) : 1;
+        for (int i = 0; i < legalMoves.size(); i++) {
+            final Move move = legalMoves.get(i);
+            final long moveCode = MastTable.moveKey(move);
+            double score = getNSTScore(nGramTable, moveCode, maxN, worker.contextCodes);
             
             if (printDebug) {
                 System.out.printf("%s\t%.4f%n",
@@ -1026,34 +1473,121 @@ public class PNSMCTS_L2_MAST extends AI {
         
         // If no move was selected (shouldn't happen, but just in case)
         if (bestMove == null) {
-            return legalMoves.get(random.nextInt(legalMoves.size()));
+            return legalMoves.get(worker.random.nextInt(legalMoves.size()));
         }
         
         return bestMove;
     }
 
     /**
-     * Gets the N-gram score for a move, considering both AI and opponent statistics
+     * Samples a move from the Gibbs (softmax) distribution over the same MAST/NST scores that the
+     * epsilon-greedy selection maximises: P(move) ~ exp(score / temperature). The exponentials come
+     * from GIBBS_EXP_TABLE, relative to the best score, and the move is drawn by binary search over the
+     * cumulative weights with the worker's own random number generator.
      *
-     * @param move          The move to evaluate
-     * @param currentPlayer The player making the move
-     * @return The weighted average score for the move based on N-gram statistics
+     * @param legalMoves List of legal moves to choose from (not empty)
+     * @param worker     Playout state of the calling worker
+     * @return The sampled move
      */
+    private Move selectMoveByGibbs(FastArrayList<Move> legalMoves, int currentPlayer, PlayoutWorker worker) {
+        final int numMoves = legalMoves.size();
+        if (worker.gibbsWeights.length < numMoves) {
+            worker.gibbsWeights = new double[Math.max(numMoves, 2 * worker.gibbsWeights.length)];
+        }
+        final double[] weights = worker.gibbsWeights;
 
-    private double getMoveScore(Move move, int currentPlayer) {
-        // For 1-grams, use the precomputed move scores
-        if (currentPlayer == this.player) {
-            return aiMoveScores.getOrDefault(move, newMoveExploration);
-        } else {
-            return opponentMoveScores.getOrDefault(move, newMoveExploration);
+        // Scores of all moves, stored in the weight buffer for now
+        final boolean isAI = (currentPlayer == this.player);
+        final NGramTable nGramTable = isAI ? nGramStats : opponentNGramStats;
+        final int maxN = (nGramSize > 1) ? computeContext(worker, currentPlayer) : 1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numMoves; i++) {
+            final long moveCode = MastTable.moveKey(legalMoves.get(i));
+            final double score = getNSTScore(nGramTable, moveCode, maxN, worker.contextCodes);
+            weights[i] = score;
+            bestScore = Math.max(bestScore, score);
+        }
+
+        // Cumulative weights exp((score - bestScore) / temperature)
+        final double scale = GIBBS_EXP_RESOLUTION / config.gibbsTemperature();
+        double totalWeight = 0.0;
+        for (int i = 0; i < numMoves; i++) {
+            final double k = (bestScore - weights[i]) * scale + 0.5;
+            if (k < GIBBS_EXP_TABLE.length) {
+                totalWeight += GIBBS_EXP_TABLE[(int) k];
+            }
+            weights[i] = totalWeight;
         }
+
+        // The best move has weight 1, so totalWeight > 0
+        final double target = worker.random.nextDouble() * totalWeight;
+        int low = 0;
+        int high = numMoves - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (weights[mid] > target) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return legalMoves.get(low);
+    }
+
+    /**
+     * Fills the contextCodes of the worker with the codes of the moves of the playout before the candidate,
+     * newest first, for every n-gram size n up to nGramSize that the history can form. The players have to
+     * alternate, ending with an opponent move right before the candidate, just like the n-grams stored by
+     * updateNGramStats.
+     *
+     * @return The longest n-gram size with a valid context (1 if there is none)
+     */
+    private int computeContext(PlayoutWorker worker, int currentPlayer) {
+        List<MoveWithPlayer> moveHistory = worker.moveHistory;
+        long[] contextCodes = worker.contextCodes;
+        int historySize = moveHistory.size();
+        int maxN = 1;
+        // The move d steps back has to be the current player's if d is even, an opponent's if d is odd
+        while (maxN < nGramSize && maxN <= historySize
+                && (moveHistory.get(historySize - maxN).player == currentPlayer) == (maxN % 2 == 0)) {
+            contextCodes[maxN - 1] = MastTable.moveKey(moveHistory.get(historySize - maxN).move);
+            maxN++;
+        }
+        return maxN;
+    }
+
+    /**
+     * Gets the NST score of a candidate move: the average score of the n-grams formed by the candidate and
+     * the context in contextCodes, from the 1-gram up to the longest n-gram with at least MIN_VISITS visits.
+     * Every n-gram hash extends the one before by one older move. An n-gram is never visited more often than
+     * its suffix, so the first one that is missing or below the threshold ends the search.
+     *
+     * @param maxN Longest n-gram size with a context, as returned by computeContext
+     * @return The averaged score, or newMoveExploration for a move without statistics
+     */
+    private double getNSTScore(NGramTable table, long moveCode, int maxN, long[] contextCodes) {
+        double totalScore = 0.0;
+        int numScores = 0;
+        long hash = NGramTable.extend(NGramTable.EMPTY_SEQUENCE, moveCode);
+        for (int n = 1; n <= maxN; n++) {
+            if (n > 1) {
+                hash = NGramTable.extend(hash, contextCodes[n - 2]);
+            }
+            int entry = table.find(hash);
+            if (entry < 0 || (n > 1 && table.visits(entry) < MIN_VISITS)) {
+                break;
+            }
+            totalScore += table.score(entry);
+            numScores++;
+        }
+        return (numScores == 0) ? newMoveExploration : totalScore / numScores;
     }
 
 
 
 
-    private void updateNGramStats(double[] utilities) {
-        if (simulationMoveHistory.isEmpty()) return;
+    private void updateNGramStats(List<MoveWithPlayer> moveHistory, double[] utilities) {
+        if (moveHistory.isEmpty()) return;
 
 //        System.out.println("\n=== N-gram Update ===");
 //        System.out.println("Move history size: " + simulationMoveHistory.size());
@@ -1071,210 +1605,45 @@ public class PNSMCTS_L2_MAST extends AI {
 
         // Optimize: Use local variable to avoid repeated volatile reads
         int currentTotalSimulations = ++totalSimulations;
-        
-        // Pre-size collections based on typical usage
-        Map<Integer, Map<NGramKey, Integer>> aggregatedPathNGramCounts = new HashMap<>(2);
-        
-        // Reusable list for n-gram sequences to avoid object creation in inner loops
-        List<Move> sequenceBuilder = new ArrayList<>(nGramSize);
-        
-        // 1. Single pass n-gram collection with optimized validation
-        int historySize = simulationMoveHistory.size();
+
+        // Every occurrence is added on its own. The n-grams ending in one move are visited from short to
+        // long, so the hash of each one extends the hash of its suffix by one older move and its suffix entry
+        // is known.
+        int historySize = moveHistory.size();
         for (int endIdx = 0; endIdx < historySize; endIdx++) {
-            MoveWithPlayer record = simulationMoveHistory.get(endIdx);
+            MoveWithPlayer record = moveHistory.get(endIdx);
             int currentPlayer = record.player;
-            
-            // Get or create player's n-gram map
-            Map<NGramKey, Integer> playerNGramCounts = aggregatedPathNGramCounts
-                .computeIfAbsent(currentPlayer, k -> new HashMap<>());
-            
-            // Process 1-grams (faster path for most common case)
-            if (nGramSize >= 1) {
-                NGramKey singleMoveKey = new NGramKey(Collections.singletonList(record.move));
-                playerNGramCounts.merge(singleMoveKey, 1, Integer::sum);
-            }
-            
-            // Process n-grams of length 2 to nGramSize
-            if (nGramSize >= 2) {
-                int maxN = Math.min(nGramSize, endIdx + 1);
-                sequenceBuilder.clear();
-                
-                // Build sequences in reverse order (from current move backwards)
-                for (int n = 2; n <= maxN; n++) {
-                    int startIdx = endIdx - n + 1;
-                    if (startIdx < 0) continue; // Not enough history for this n-gram size
-                    
-                    // Check if the sequence ends with the current player's move
-                    if (simulationMoveHistory.get(endIdx).player != currentPlayer) {
-                        continue; // Skip if the last move is not from the current player
-                    }
-                    
-                    // Build the sequence and validate player alternation
-                    sequenceBuilder.clear();
-                    boolean validSequence = true;
-                    
-                    // Check player alternation pattern
-                    for (int i = 0; i < n; i++) {
-                        int currentIdx = startIdx + i;
-                        MoveWithPlayer currentRecord = simulationMoveHistory.get(currentIdx);
-                        sequenceBuilder.add(currentRecord.move);
-                        
-                        // The last move must be from the current player
-                        // The player should alternate with each move in the sequence
-                        boolean shouldBeCurrentPlayer = (i % 2 == (n - 1) % 2);
-                        if ((currentRecord.player == currentPlayer) != shouldBeCurrentPlayer) {
-                            validSequence = false;
-                            break;
-                        }
-                    }
-                    
-                    if (validSequence) {
-                        NGramKey ngramKey = new NGramKey(new ArrayList<>(sequenceBuilder));
-                        playerNGramCounts.merge(ngramKey, 1, Integer::sum);
-                    }
+            boolean isAI = (currentPlayer == this.player);
+            double utility = utilities[currentPlayer];
+            NGramTable table = isAI ? nGramStats : opponentNGramStats;
+
+            int maxN = Math.min(nGramSize, endIdx + 1);
+            int suffix = -1;
+            long hash = NGramTable.EMPTY_SEQUENCE;
+            for (int n = 1; n <= maxN; n++) {
+                int startIdx = endIdx - n + 1;
+
+                // The players must alternate, ending with the current player's move; a longer n-gram
+                // contains this one, so it can't be valid either
+                if ((moveHistory.get(startIdx).player == currentPlayer) != ((n - 1) % 2 == 0)) {
+                    break;
                 }
-            }
-        }
-        
-        // 2. Update statistics with minimal lock time
-//        synchronized (statsLock) {
 
-            
-            // Process each player's n-grams
-            for (Map.Entry<Integer, Map<NGramKey, Integer>> playerEntry : aggregatedPathNGramCounts.entrySet()) {
-                int playerRole = playerEntry.getKey();
-                boolean isAI = (playerRole == this.player);
-                double utility = utilities[playerRole];
+                hash = NGramTable.extend(hash, MastTable.moveKey(moveHistory.get(startIdx).move));
 
-//                System.out.printf("\nProcessing player %d (AI: %b, utility: %.2f)%n", playerRole, isAI, utility);
-//
-//                // Print all n-grams found for this player
-//                System.out.println("N-grams found for player " + playerRole + ":");
-//                for (Map.Entry<NGramKey, Integer> ngramEntry : playerEntry.getValue().entrySet()) {
-//                    NGramKey ngram = ngramEntry.getKey();
-//                    System.out.printf("  %d-gram [%d occurrences]: ",
-//                            ngram.sequence.size(), ngramEntry.getValue());
-//                    for (Move m : ngram.sequence) {
-//                        System.out.print(m.getActionsWithConsequences(contextEnd) + " -> ");
-//                    }
-//                    System.out.println();
-//                }
-
-                // Select appropriate maps
-                Map<Move, Map<NGramKey, Double>> scoresMap = isAI ? nGramScores : opponentNGramScores;
-                Map<Move, Map<NGramKey, Integer>> visitsMap = isAI ? nGramVisits : opponentNGramVisits;
-                Map<NGramKey, Integer> lastSeenMap = isAI ? nGramLastSeen : opponentNGramLastSeen;
-                Map<Move, Integer> moveVisitsMap = isAI ? aiMoveVisits : opponentMoveVisits;
-                Map<Move, Double> moveScoresMap = isAI ? aiMoveScores : opponentMoveScores;
-                
-                // Process each n-gram for this player
-                for (Map.Entry<NGramKey, Integer> ngramEntry : playerEntry.getValue().entrySet()) {
-                    NGramKey ngram = ngramEntry.getKey();
-                    int occurrences = ngramEntry.getValue();
-                    Move move = ngram.sequence.get(ngram.sequence.size() - 1);
-                    
-                    // Get or create score and visit maps for this move
-                    Map<NGramKey, Double> moveScores = scoresMap.computeIfAbsent(move, k -> new HashMap<>());
-                    Map<NGramKey, Integer> moveVisits = visitsMap.computeIfAbsent(move, k -> new HashMap<>());
-                    
-                    // Update last seen and track additions
-                    lastSeenMap.put(ngram, currentTotalSimulations);
-                    boolean isNewNGram = !moveScores.containsKey(ngram);
-                    if (isNewNGram) nGramAdditions++;
-                    
-                    // Get current statistics
-                    double currentScore = moveScores.getOrDefault(ngram, 0.0);
-                    int currentVisits = moveVisits.getOrDefault(ngram, 0);
-                    int newVisits = currentVisits + occurrences;
-                    
-                    // Weighted average update: (currentScore * currentVisits + utility * occurrences) / (currentVisits + occurrences)
-                    double newScore = (currentScore * currentVisits + utility * occurrences) / newVisits;
-                    
-                    // Update maps
-                    moveScores.put(ngram, newScore);
-                    moveVisits.put(ngram, newVisits);
-                    
-                    // Update move-level statistics
-                    updateMoveStats(move, moveScores, moveVisits, moveScoresMap, moveVisitsMap);
-                    // Apply decay if needed
-                    if (doDecay && (currentTotalSimulations % DECAY_INTERVAL == 0) && isAI) {
-                        applySimulationDecay(nGramScores, nGramVisits, ngram, occurrences);
-                    }else if(doDecay && (currentTotalSimulations % DECAY_INTERVAL == 0) && !isAI){
-                        applySimulationDecay(opponentNGramScores, opponentNGramVisits, ngram, occurrences);
-                    }
+                int entry = table.findOrAdd(hash, moveHistory.get(startIdx).move, suffix);
+                table.update(entry, utility, currentTotalSimulations);
+
+                // Apply decay if needed
+                if (doDecay && (currentTotalSimulations % DECAY_INTERVAL == 0)) {
+                    table.decay(entry, simulationDecayFactor);
                 }
-            }
-//        }
-    }
-    
-    // Helper method to apply decay to score and visit maps for a specific NGramKey
-    // The decay is applied based on the number of occurrences of the NGramKey
-    private void applySimulationDecay(
-        Map<Move, Map<NGramKey, Double>> scoresMap,
-        Map<Move, Map<NGramKey, Integer>> visitsMap,
-        NGramKey nGramKey,
-        int occurrences
-    ) {
-//        System.out.println("simulationdecay in progress");
-        // Calculate the decay factor raised to the power of occurrences
-        double decayFactor = Math.pow(simulationDecayFactor, occurrences);
-        
-        // Apply decay to scores and visits for the specific NGramKey
-        for (Map<NGramKey, Double> scores : scoresMap.values()) {
-            scores.computeIfPresent(nGramKey, (k, v) -> v * decayFactor);
-        }
-        for (Map<NGramKey, Integer> visits : visitsMap.values()) {
-            visits.computeIfPresent(nGramKey, (k, v) -> (int)Math.ceil(v * decayFactor));
-        }
-    }
 
-    // Helper method to apply decay to score and visit maps
-    private void applyMoveDecay(
-            Map<Move, Map<NGramKey, Double>> scoresMap,
-            Map<Move, Map<NGramKey, Integer>> visitsMap
-    ) {
-//        System.out.println("movedecay in progress");
-        for (Map<NGramKey, Double> scores : scoresMap.values()) {
-            scores.replaceAll((k, v) -> v * moveDecayFactor);
-        }
-        for (Map<NGramKey, Integer> visits : visitsMap.values()) {
-            visits.replaceAll((k, v) -> (int)Math.ceil(v * moveDecayFactor));
-        }
-    }
-    
-    // Helper method to update move-level statistics
-    private void updateMoveStats(
-        Move move,
-        Map<NGramKey, Double> scoresMap,
-        Map<NGramKey, Integer> visitsMap,
-        Map<Move, Double> moveScoresMap,
-        Map<Move, Integer> moveVisitsMap
-    ) {
-        double totalScore = 0.0;
-        int validNGrams = 0;
-        
-        // Single pass through n-grams for this move
-        for (Map.Entry<NGramKey, Double> entry : scoresMap.entrySet()) {
-            NGramKey ngram = entry.getKey();
-            int visits = visitsMap.getOrDefault(ngram, 0);
-            
-            // Only consider n-grams with sufficient visits (for n > 1)
-            if (visits > 0 && (ngram.sequence.size() == 1 || visits >= MIN_VISITS)) {
-                totalScore += entry.getValue();
-                validNGrams++;
+                suffix = entry;
             }
         }
-        
-        // Update move statistics if we have valid n-grams
-        if (validNGrams > 0) {
-            moveScoresMap.put(move, totalScore);
-            moveVisitsMap.put(move, moveVisitsMap.getOrDefault(move, 0) + 1);
-        }
     }
 
-
-
-
     /**
      * Resets this instance's N-gram statistics and move history.
      * Call this when starting a new match or when you want to clear this instance's statistics.
@@ -1282,24 +1651,15 @@ public class PNSMCTS_L2_MAST extends AI {
     public void resetNGramStats() {
 //        synchronized (statsLock) {
 //            // Clear all n-gram statistics
-//            nGramScores.clear();
-//            nGramVisits.clear();
-//            nGramLastSeen.clear();
-//            opponentNGramScores.clear();
-//            opponentNGramLastSeen.clear();
-//            opponentNGramVisits.clear();
-//            aiMoveScores.clear();
-//            aiMoveVisits.clear();
-//            opponentMoveScores.clear();
-//            opponentMoveVisits.clear();
+//            nGramStats.clear();
+//            opponentNGramStats.clear();
 //
 //            // Reset instance counters
 //            totalSimulations = 0;
-//            nGramAdditions = 0;
 //        }
 //
 //        // Clear the simulation move history
-//        simulationMoveHistory.clear();
+//        mainWorker.moveHistory.clear();
 
         // Suggest garbage collection to free up memory
         //System.gc();
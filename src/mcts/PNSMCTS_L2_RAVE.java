@@ -6,17 +6,20 @@ import other.AI;
 import other.RankUtils;
 import other.context.Context;
 import other.move.Move;
+import other.trial.Trial;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PNSMCTS_L2_RAVE extends AI {
 
 
-    public static boolean FIN_MOVE_SEL = true;
-    public static int SOLVERLIKE_MINVISITS = Integer.MAX_VALUE; // 5; // Integer.MAX_VALUE;
-    public static int counter = 0;
-    public static double CONTEMPT_FACTOR = -100; // -0.1; 0.0; 0.1; 0.2; ... ?
 
     //-------------------------------------------------------------------------
 
@@ -26,19 +29,59 @@ public class PNSMCTS_L2_RAVE extends AI {
     protected int player = -1;
 
     /**
+     * Search parameters of this agent
      */
-    private static double[] settings;
+    private final SearchConfig config;
 
-    // Used to count simulations per second
-    private static double sims = 0;
-    private static double simsThisTurn = 0;
-    private static double turns = 0;
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
+
+    /**
+     * Number of moves for which the final move selection played a level 2 proof because the root score
+     * was at most the contempt factor
+     */
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /**
+     * Number of root-parallel workers, each building its own tree (1 = sequential search)
+     */
+    private final int numThreads;
+
+    /**
+     * Simulations performed by every worker thread in the current turn
+     */
+    private final long[] simsPerThread;
+
+    /**
+     * AMAF buffers of every worker thread, reused by all its iterations
+     */
+    private final AmafSweep[] amafSweeps;
+
+    /**
+     * Roots of the previous search and the number of moves in the trial at that time, used for tree reuse
+     */
+    private Node[] lastRoots = null;
+    private int lastNumMoves = 0;
+
+    /**
+     * Worker pool for root parallelisation, created on the first parallel search
+     */
+    private ExecutorService workers = null;
     
     /**
-     * @return The number of simulations performed in the current turn
+     * @return The number of simulations performed in the current turn (summed over all worker threads)
      */
     public double getSimsThisTurn() {
-        return simsThisTurn;
+        return simsThisTurn.sum();
+    }
+
+    /**
+     * @return The number of simulations every worker thread performed in the current turn
+     */
+    public long[] getSimsThisTurnPerThread() {
+        return simsPerThread.clone();
     }
 
     /**
@@ -46,27 +89,63 @@ public class PNSMCTS_L2_RAVE extends AI {
      */
     public PNSMCTS_L2_RAVE() {
         this.friendlyName = "PNS_L2_RAVE";
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, true, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+        this.numThreads = 1;
+        this.simsPerThread = new long[1];
+        this.amafSweeps = new AmafSweep[]{new AmafSweep()};
     }
 
     public PNSMCTS_L2_RAVE(double[] settings) {
         this.friendlyName = "PNS_L2_RAVE";
-        this.settings = settings;
+        this.config = SearchConfig.fromSettings(settings, true, Integer.MAX_VALUE, -100);
+        this.numThreads = 1;
+        this.simsPerThread = new long[1];
+        this.amafSweeps = new AmafSweep[]{new AmafSweep()};
     }
 
     public PNSMCTS_L2_RAVE(boolean finMove, int minVisits, double pnCons, double contemptFactor) {
-        this.FIN_MOVE_SEL = finMove;
-        this.SOLVERLIKE_MINVISITS = minVisits;
-        this.CONTEMPT_FACTOR = contemptFactor; // applies only if FIN_MOVE_SEL is true
-        this.friendlyName = "PNS_L2_RAVE";
-        double[] defaultSettings = {pnCons, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
-        this.counter = 0;
+        this(finMove, minVisits, pnCons, contemptFactor, 1);
+    }
+
+    /**
+     * Constructor for root-parallel search
+     *
+     * @param numThreads Number of workers, each building an independent tree (1 = sequential search)
+     */
+    public PNSMCTS_L2_RAVE(boolean finMove, int minVisits, double pnCons, double contemptFactor, int numThreads) {
+        this(new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, contemptFactor), numThreads); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+    }
+
+    /**
+     * Constructor with a complete search configuration
+     *
+     * @param config     Search parameters and implementation switches of this agent, including the RAVE parameters
+     * @param numThreads Number of workers, each building an independent tree (1 = sequential search)
+     */
+    public PNSMCTS_L2_RAVE(SearchConfig config, int numThreads) {
+        this.friendlyName = numThreads > 1 ? "PNS_L2_RAVE (" + numThreads + " root threads)" : "PNS_L2_RAVE";
+        this.config = config;
+        this.numThreads = Math.max(1, numThreads);
+        this.simsPerThread = new long[this.numThreads];
+        this.amafSweeps = new AmafSweep[this.numThreads];
+        for (int t = 0; t < this.numThreads; ++t) {
+            this.amafSweeps[t] = new AmafSweep();
+        }
     }
 
     public void resetCounter() {
-        counter = 0;
+        counter.set(0);
+    }
+
+    public int getCounter() {
+        return counter.get();
+    }
+
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
     }
 
     @Override
@@ -77,48 +156,150 @@ public class PNSMCTS_L2_RAVE extends AI {
             final int maxIterations,
             final int maxDepth
     ) {
-        simsThisTurn = 0;
-        turns++;
-        // Start out by creating a new root node (no tree reuse in this example)
-        final Node root = new Node(null, null, context, player);
+        simsThisTurn.reset();
+        turns.increment();
+        Arrays.fill(simsPerThread, 0L);
+        // Start out by promoting the matching subtree of the previous search, or else by creating a new root node.
+        // With root parallelisation every worker gets its own root on a private copy of the context.
+        final Node[] roots = new Node[numThreads];
+        final boolean reuse = config.treeReuse() && lastRoots != null && lastRoots.length == roots.length;
+        for (int t = 0; t < roots.length; ++t) {
+            final Context rootContext = roots.length > 1 ? new Context(context) : context;
+            final Node reused = reuse ? promoteSubtree(lastRoots[t], lastNumMoves, rootContext) : null;
+            roots[t] = (reused != null) ? reused : new Node(null, null, rootContext, player, config);
+        }
 
         // We'll respect any limitations on max seconds and max iterations (don't care about max depth)
         final long stopTime = (maxSeconds > 0.0) ? System.currentTimeMillis() + (long) (maxSeconds * 1000L) : Long.MAX_VALUE;
         final int maxIts = (maxIterations >= 0) ? maxIterations : Integer.MAX_VALUE;
 
-        int numIterations = 0;
-
-        // Our main loop through MCTS iterations
-        while (
-                numIterations < maxIts &&                    // Respect iteration limit
-                        System.currentTimeMillis() < stopTime &&    // Respect time limit
-                        !wantsInterrupt                                // Respect GUI user clicking the pause button
-        ) {
-            // Start in root node
-            Node current = root;
-
-            // Traverse tree
-            while (true) {
-                if (current.context.trial().over()) {
-                    // We've reached a terminal state
-                    break;
+        if (numThreads > 1) {
+            runRootParallel(game, roots, stopTime, maxIts);
+        } else {
+            int numIterations = 0;
+
+            // Our main loop through MCTS iterations
+            while (
+                    numIterations < maxIts &&                    // Respect iteration limit
+                            System.currentTimeMillis() < stopTime &&    // Respect time limit
+                            !wantsInterrupt                                // Respect GUI user clicking the pause button
+            ) {
+                if (runIteration(game, roots[0], amafSweeps[0])) {
+                    ++simsPerThread[0];
                 }
 
-                current = select(current);
+                // Increment iteration count
+                ++numIterations;
+            }
+        }
+
+        for (final long threadSims : simsPerThread) {
+            sims.add(threadSims);
+            simsThisTurn.add(threadSims);
+        }
+
+        lastRoots = config.treeReuse() ? roots : null;
+        lastNumMoves = context.trial().numMoves();
+
+        // Return the move we wish to play
+        return roots.length > 1 ? finalMoveSelection(roots, config, counter) : finalMoveSelection(roots[0], config, counter);
+    }
+
+    /**
+     * Runs MCTS iterations on numThreads workers until the time or iteration limit is hit. Worker t only
+     * touches the tree below roots[t], so the workers never contend for a lock (root parallelisation).
+     */
+    private void runRootParallel(final Game game, final Node[] roots, final long stopTime, final int maxIts) {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(numThreads, runnable -> {
+                final Thread thread = new Thread(runnable, friendlyName + " worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
 
-                if (current.visitCount == 0) {
-                    // We've expanded a new node, time for playout!
-                    break;
+        final AtomicInteger numIterations = new AtomicInteger(0);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int threadIndex = t;
+            futures.add(workers.submit(() -> {
+                while (
+                        numIterations.getAndIncrement() < maxIts &&  // Respect iteration limit (shared by all workers)
+                                System.currentTimeMillis() < stopTime &&    // Respect time limit
+                                !wantsInterrupt                                // Respect GUI user clicking the pause button
+                ) {
+                    if (runIteration(game, roots[threadIndex], amafSweeps[threadIndex])) {
+                        ++simsPerThread[threadIndex];
+                    }
                 }
+            }));
+        }
+
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Root-parallel worker failed", e.getCause());
             }
+        }
+    }
 
-            Context contextEnd = current.context;
-            // Store the simulation moves
-            FastArrayList<Move> movesInSimulation = new FastArrayList<>();
+    /**
+     * Performs one MCTS iteration (selection, expansion, playout and backpropagation) starting in the root.
+     *
+     * @param sweep AMAF buffers of the calling worker thread
+     * @return True if a playout was run, false if the selection ended in a terminal node
+     */
+    private boolean runIteration(final Game game, final Node root, final AmafSweep sweep) {
+        // Start in root node
+        Node current = root;
+
+        // Private copy of the game state of the parent of the selected node. Nodes don't keep a Context
+        // of their own, so it is only rebuilt (by replaying moves) when a node has to be developed.
+        Context state = null;
+
+        // GRAVE references: for every player, the deepest node on the path so far where that player moves and
+        // that has more than refVisits visits. The AMAF statistics of a node only hold moves of its own mover.
+        final Node[] graveReferences = new Node[game.players().count() + 1];
+
+        // Traverse tree
+        while (true) {
+            if (current.isTerminal()) {
+                // We've reached a terminal state
+                break;
+            }
 
-            if (!contextEnd.trial().over()) {
-                // Run a playout if we don't already have a terminal game state in node
-                contextEnd = new Context(contextEnd);
+            if (current.visitCount > config.refVisits()) {
+                graveReferences[current.mover] = current;
+            }
+            state = current.needsState() ? current.replayState() : null;
+            current = select(current, state, graveReferences[current.mover], config);
+
+            if (current.visitCount == 0) {
+                // We've expanded a new node, time for playout!
+                break;
+            }
+        }
+
+        final double[] utilities;
+        boolean playedOut = false;
+        // Start a new set of the (mover, move) pairs played after the current node
+        sweep.start();
+
+        if (current.isTerminal()) {
+            utilities = current.terminalUtilities;
+        } else {
+            // Run a playout if we don't already have a terminal game state in node
+            final Context contextEnd;
+            if (state != null) {
+                // The parent was just developed from this state, so one more move gives the state of the new node
+                contextEnd = state;
+                game.apply(contextEnd, current.moveFromParent);
+            } else {
+                contextEnd = current.replayState();
+            }
 //                game.playout
 //                        (
 //                                contextEnd,
@@ -130,80 +311,72 @@ public class PNSMCTS_L2_RAVE extends AI {
 //                                ThreadLocalRandom.current()
 //                        );
 
-                // Run the playout and track moves
-                while (!contextEnd.trial().over()) {
-                    FastArrayList<Move> legalMoves = contextEnd.game().moves(contextEnd).moves();
-                    if (legalMoves.isEmpty()) {
-                        // Handle case with no legal moves
-                        Move defaultMove = contextEnd.game().moves(contextEnd).moves().get(0);
-                        contextEnd.game().apply(contextEnd, defaultMove);
-                    } else {
-                        // Select a random move
-                        Move move = legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
-                        movesInSimulation.add(move);  // Track the move
-                        contextEnd.game().apply(contextEnd, move);
-                    }
+            // Run the playout and track moves
+            while (!contextEnd.trial().over()) {
+                FastArrayList<Move> legalMoves = contextEnd.game().moves(contextEnd).moves();
+                if (legalMoves.isEmpty()) {
+                    // Handle case with no legal moves
+                    Move defaultMove = contextEnd.game().moves(contextEnd).moves().get(0);
+                    contextEnd.game().apply(contextEnd, defaultMove);
+                } else {
+                    // Select a random move
+                    Move move = legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+                    sweep.markPlayed(MastTable.moveKey(move), contextEnd.state().mover());  // Track the move
+                    contextEnd.game().apply(contextEnd, move);
                 }
-                sims++;
-                simsThisTurn++;
             }
+            playedOut = true;
 
             // This computes utilities for all players at the of the playout,
             // which will all be values in [-1.0, 1.0]
-            final double[] utilities = RankUtils.utilities(contextEnd);
-
-            // Backpropagate utilities through the tree
-            boolean changed = true;
-            boolean firstNode = true;
-            while (current != null) {
-                //current.visitCount += 1;
-                current.incrementVisitCount();
-                for (int p = 1; p <= game.players().count(); ++p) {
-                    //--------------bound check start---------------------
-                    if (p < current.scoreSums.length) {
-                        current.scoreSums[p] += utilities[p];
-                    } else {
-                        System.err.println("Warning: Player index " + p + " out of bounds for scoreSums of length " + current.scoreSums.length);
-                    }
-                    //--------------bound check end--------------------- 
-                }
-                // RAVE updates
+            utilities = RankUtils.utilities(contextEnd);
+        }
+
+        // Backpropagate utilities through the tree
+        boolean changed = true;
+        boolean firstNode = true;
+        Node child = null;
+        while (current != null) {
+            //current.visitCount += 1;
+            current.incrementVisitCount();
+            for (int p = 1; p <= game.players().count(); ++p) {
                 //--------------bound check start---------------------
-                if (player >= 0 && player < utilities.length) {
-                    updateRaveStats(current, movesInSimulation, utilities[player]);
+                if (p < current.scoreSums.length) {
+                    current.scoreSums[p] += utilities[p];
                 } else {
-                    System.err.println("Warning: Player index " + player + " out of bounds for utilities of length " + utilities.length);
+                    System.err.println("Warning: Player index " + p + " out of bounds for scoreSums of length " + current.scoreSums.length);
                 }
                 //--------------bound check end--------------------- 
-                if (!firstNode) {
-                    if (changed) {
-                        changed = current.setProofAndDisproofNumbers();
-                        if (current.getChildren().size() > 0) {
-                            current.setChildRanks();
-                        }
-                    }
-                } else {
-                    firstNode = false;
+            }
+            // RAVE updates, the move into the child we came from was played by the mover of this node,
+            // whose AMAF statistics are kept from its own perspective
+            if (child != null) {
+                sweep.markPlayed(child.moveCode, current.mover);
+            }
+            updateRaveStats(current, sweep, utilities[current.mover]);
+            if (!firstNode) {
+                if (changed) {
+                    changed = current.setProofAndDisproofNumbers();
+                    current.updateChildRank(child);
                 }
-
-                current = current.parent;
+            } else {
+                firstNode = false;
             }
-            // if proofNum of root changed -> check is proven or disproven
-            // if (changed) {
-                // for (Node child : root.children) {
-                    // if root is proven -> stop searching
-                    // if (child.proofNum == 0) { // causes problems with robust child final move selection
-                    //     return finalMoveSelection(root);
-                    // }
-                // }
-            // }
 
-            // Increment iteration count
-            ++numIterations;
+            child = current;
+            current = current.parent;
         }
+        // if proofNum of root changed -> check is proven or disproven
+        // if (changed) {
+            // for (Node child : root.children) {
+                // if root is proven -> stop searching
+                // if (child.proofNum == 0) { // causes problems with robust child final move selection
+                //     return finalMoveSelection(root);
+                // }
+            // }
+        // }
 
-        // Return the move we wish to play
-        return finalMoveSelection(root);
+        return playedOut;
     }
 
     /**
@@ -212,31 +385,38 @@ public class PNSMCTS_L2_RAVE extends AI {
      * new nodes if the given current node has unexpanded moves.
      *
      * @param current
+     * @param state          Private copy of the game state of current, required if current.needsState()
+     * @param graveReference Deepest node from the root to current with the same mover and more than refVisits
+     *                       visits, or null
+     * @param config Search parameters of the agent
      * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
      */
-    public static Node select(final Node current) {
+    public static Node select(final Node current, final Context state, final Node graveReference, final SearchConfig config) {
         // All child nodes are created and added to the child list of the current node
         if (!current.expanded) {
-            return current.developNode();
+            return current.developNode(state, config);
         }
 
         // Don't use UCT-PN until all nodes have been visited once
         if (current.getUnexpandedChildren().size() > 0) {
             return current.getUnexpandedChildren().remove(ThreadLocalRandom.current().nextInt(current.unexpandedChildren.size()));
         }
+        if (current.numUnexpandedMoves() > 0) {
+            return current.materialiseChild(state, config);
+        }
 
         // use UCT-PN equation to select from all children, with random tie-breaking
         Node bestChild = null;
         double bestValue = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
 
-        double explorationConstant = settings[1];
+        double explorationConstant = config.explorationConstant();
 
-        double pnConstant = settings[0];
+        double pnConstant = config.pnConstant();
         double total = current.getChildren().size();
 
         final int numChildren = current.children.size();
-        final int mover = current.context.state().mover();
+        final int mover = current.mover;
 
         for (int i = 0; i < numChildren; ++i) {
             final Node child = current.children.get(i);
@@ -247,18 +427,18 @@ public class PNSMCTS_L2_RAVE extends AI {
 
             // original solver
 //            if (current.proofNum != 0 && current.disproofNum != 0) {
-//                if (child.proofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
-//                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
+//                if (child.proofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
+//                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
 //            }
 
             // slightly modified 2Level solver
             if (current.proofNumL2 != 0 && current.disproofNum != 0) {
-                if (child.proofNumL2 == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue; // win or draw
-                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue; // lose or draw
+                if (child.proofNumL2 == 0 && child.visitCount > config.solverlikeMinVisits()) continue; // win or draw
+                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue; // lose or draw
             }
 
             //final double exploit = child.scoreSums[mover] / child.visitCount;
-            final double exploit = calculateRaveValue(current,child,RAVE_K);
+            final double exploit = calculateRaveValue(current,child,config,graveReference);
             final double explore = Math.sqrt((Math.log(current.visitCount)) / child.visitCount);//UCT with changeable exploration constant
             final double pnEffect = 1 - (child.getRank() / total); // This formula assures that the node with lowest rank (best node) has the highest pnEffect
 
@@ -277,15 +457,44 @@ public class PNSMCTS_L2_RAVE extends AI {
         return bestChild;
     }
 
+    /**
+     * Follows the moves played since the previous search (ours and the opponent's) down the previous tree
+     * and detaches the node that was reached, so it becomes the new root with all its statistics and
+     * (dis)proof numbers. The rest of the previous tree is left to the garbage collector.
+     *
+     * @param oldRoot      Root of the previous search
+     * @param oldNumMoves  Number of moves in the trial at the previous search
+     * @param context      Current game state, becomes the Context of the new root
+     * @return The new root, or null if the previous tree does not contain the current state
+     */
+    private static Node promoteSubtree(final Node oldRoot, final int oldNumMoves, final Context context) {
+        final Trial trial = context.trial();
+        if (trial.numMoves() < oldNumMoves) {
+            return null;
+        }
+
+        Node node = oldRoot;
+        for (int i = oldNumMoves; i < trial.numMoves() && node != null; ++i) {
+            node = node.findChild(trial.getMove(i));
+        }
+        if (node == null || node.isTerminal()) {
+            return null;
+        }
+        node.makeRoot(context);
+        return node;
+    }
+
     /**
      * Selects the move we wish to play using the "Robust Child" strategy
      * (meaning that we play the move leading to the child of the root node
      * with the highest visit count).
      *
      * @param rootNode
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
      * @return Final move as selected by PN-MCTS
      */
-    public static Move finalMoveSelection(final Node rootNode) {
+    public static Move finalMoveSelection(final Node rootNode, final SearchConfig config, final AtomicInteger counter) {
         Node bestChild = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
@@ -307,7 +516,7 @@ public class PNSMCTS_L2_RAVE extends AI {
         }
 
         // To ensure a proven node will select the proven child too
-        if (FIN_MOVE_SEL) {
+        if (config.finMoveSel()) {
             if (rootNode.proofNum == 0) {
                 for (Node child : rootNode.children) {
                     if (child.proofNum == 0) {
@@ -316,7 +525,7 @@ public class PNSMCTS_L2_RAVE extends AI {
                     }
                 }
             } else if (rootNode.proofNumL2 == 0) { // Level 2 check
-                int mover = rootNode.context.state().mover();
+                int mover = rootNode.mover;
                 double rootscore = 0.0;
                 //--------------bound check start---------------------
                 if (mover >= 0 && mover < rootNode.scoreSums.length) {
@@ -325,8 +534,8 @@ public class PNSMCTS_L2_RAVE extends AI {
                     System.err.println("Warning: Mover index " + mover + " out of bounds for scoreSums of length " + rootNode.scoreSums.length);
                 }
                 //--------------bound check end--------------------- 
-                if (rootscore <= CONTEMPT_FACTOR) {
-                    ++counter;
+                if (rootscore <= config.contemptFactor()) {
+                    counter.incrementAndGet();
                     for (Node child : rootNode.children) {
                         if (child.proofNumL2 == 0) {
                             bestChild = child;
@@ -337,15 +546,126 @@ public class PNSMCTS_L2_RAVE extends AI {
             }
         }
 
+        if (bestChild == null) {
+            return randomMove(rootNode);
+        }
         return bestChild.moveFromParent;
     }
 
+    /**
+     * @return A random legal move in the state of the root, for a search that ended before the root had children
+     */
+    private static Move randomMove(final Node root) {
+        final Context context = root.replayState();
+        final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+        return legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+    }
+
+    /**
+     * Selects the final move from several independently searched trees (root parallelisation). The root
+     * children are merged by move: visit counts and score sums are added up and the lowest (dis)proof numbers
+     * of any tree are kept. Children with the same visit count are told apart by their merged mean score.
+     * The root score sums are added up for the Level 2 contempt check. A (dis)proof in one tree is exact, so
+     * a child proven by any worker takes priority just like in the single-tree selection.
+     *
+     * @param roots
+     * @param config Search parameters of the agent
+     * @param counter Counts the moves for which a level 2 proof was played (contempt factor)
+     * @return Final move as selected by the ensemble of PN-MCTS trees
+     */
+    public static Move finalMoveSelection(final Node[] roots, final SearchConfig config, final AtomicInteger counter) {
+        final Map<Move, RootChildStats> merged = new LinkedHashMap<Move, RootChildStats>();
+        double rootProofNum = Double.POSITIVE_INFINITY;
+        double rootProofNumL2 = Double.POSITIVE_INFINITY;
+        double rootScore = 0.0;
+        int rootVisits = 0;
+        final int mover = roots[0].mover;
+
+        for (final Node root : roots) {
+            rootProofNum = Math.min(rootProofNum, root.proofNum);
+            rootProofNumL2 = Math.min(rootProofNumL2, root.proofNumL2);
+            rootScore += root.scoreSums[mover];
+            rootVisits += root.visitCount;
+
+            for (final Node child : root.children) {
+                RootChildStats stats = merged.get(child.moveFromParent);
+                if (stats == null) {
+                    stats = new RootChildStats(child.moveFromParent, child.scoreSums.length);
+                    merged.put(child.moveFromParent, stats);
+                }
+                stats.visitCount += child.visitCount;
+                for (int p = 1; p < child.scoreSums.length; ++p) {
+                    stats.scoreSums[p] += child.scoreSums[p];
+                }
+                stats.proofNum = Math.min(stats.proofNum, child.proofNum);
+                stats.disproofNum = Math.min(stats.disproofNum, child.disproofNum);
+                stats.proofNumL2 = Math.min(stats.proofNumL2, child.proofNumL2);
+                stats.disproofNumL2 = Math.min(stats.disproofNumL2, child.disproofNumL2);
+            }
+        }
+
+        RootChildStats bestChild = null;
+        int bestVisitCount = Integer.MIN_VALUE;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        int numBestFound = 0;
+
+        for (final RootChildStats child : merged.values()) {
+            final double score = child.scoreSums[mover] / child.visitCount;
+            if (child.visitCount > bestVisitCount || (child.visitCount == bestVisitCount && score > bestScore)) {
+                bestVisitCount = child.visitCount;
+                bestScore = score;
+                bestChild = child;
+                numBestFound = 1;
+            } else if (child.visitCount == bestVisitCount && score == bestScore && ThreadLocalRandom.current().nextInt() % ++numBestFound == 0) {
+                // this case implements random tie-breaking
+                bestChild = child;
+            }
+        }
+
+        // To ensure a proven node will select the proven child too
+        if (config.finMoveSel()) {
+            if (rootProofNum == 0) {
+                for (final RootChildStats child : merged.values()) {
+                    if (child.proofNum == 0) {
+                        bestChild = child;
+                        break;
+                    }
+                }
+            } else if (rootProofNumL2 == 0) { // Level 2 check
+                if (rootScore / rootVisits <= config.contemptFactor()) {
+                    counter.incrementAndGet();
+                    for (final RootChildStats child : merged.values()) {
+                        if (child.proofNumL2 == 0) {
+                            bestChild = child;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (bestChild == null) {
+            return randomMove(roots[0]);
+        }
+        return bestChild.move;
+    }
+
     @Override
     public void initAI(final Game game, final int playerID) {
         this.player = playerID;
+        this.lastRoots = null; // never reuse a tree from a previous game
         // No need to reset stats here since each node has its own stats
     }
 
+    @Override
+    public void closeAI() {
+        lastRoots = null;
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
     @Override
     // Notifies Ludii if the game is playable by PN-MCTS
     public boolean supportsGame(final Game game) {
@@ -360,85 +680,23 @@ public class PNSMCTS_L2_RAVE extends AI {
 
     //---------------------------RAVE start-----------------------------------------------------------------------------------
 
-    // RAVE-specific parameters
-    protected static double RAVE_K = 1000.0;  // Equivalence parameter for RAVE
-
-    private static final int REF_VISITS = 50; // Threshold for reliable AMAF
-
-    // Node-specific RAVE statistics (Q(s,a))
-    public static class NodeRaveStats {
-        int visits = 0;              // N(s,a) - visits to this move in this node
-        double totalScore = 0.0;     // Q(s,a) * N(s,a) - total score from this move in this node
-    }
-    
-    // AMAF statistics for a node
-    public static class NodeAmafStats {
-        private final Map<Move, MoveAmafStats> moveStats = new HashMap<>();
-        
-        public static class MoveAmafStats {
-            int visits = 0;          // AMAF visits for this move
-            double totalScore = 0.0; // AMAF(s,a) * N_AMAF(s,a)
-        }
-        
-        public void update(Move move, double result) {
-            MoveAmafStats stats = moveStats.computeIfAbsent(move, k -> new MoveAmafStats());
-            stats.visits++;
-            stats.totalScore += result;
-        }
-        
-        public double getAmafValue(Move move) {
-            MoveAmafStats stats = moveStats.get(move);
-            return (stats != null && stats.visits > 0) ? (stats.totalScore / stats.visits) : 0.0;
-        }
-        
-        public int getAmafVisits(Move move) {
-            MoveAmafStats stats = moveStats.get(move);
-            return (stats != null) ? stats.visits : 0;
-        }
-        public double averageAmafValue() {
-            if (moveStats.isEmpty()) {
-                return 0.0;
-            }
-
-            double total = 0.0;
-            int count = 0;
-
-            for (Map.Entry<Move, MoveAmafStats> entry : moveStats.entrySet()) {
-                MoveAmafStats stat = entry.getValue();
-                if (stat.visits > 0) {
-                    total += (double) stat.totalScore / stat.visits;
-                    count++;
-                }
-            }
-
-            return count > 0 ? total / count : 0.0;
-        }
-    }
-
-
+    // RAVE-specific parameters (equivalence parameter and threshold for reliable AMAF) are part of the SearchConfig
 
     /**
-     * Calculate the RAVE value for a given move
+     * Calculate the RAVE value for a given move: the mean score of the child blended with the AMAF value of its
+     * move, both from the perspective of the player to move in node
      * @param node
+     * @param child Visited child of node
+     * @param graveReference Node whose AMAF statistics are used unless node itself is reliable, or null
      * @return
      */
     // Method to calculate RAVE value
-    protected static double calculateRaveValue(Node node,Node child, double raveK) {
-        // Standard node value
-        double standardValue = 0.0;
-        if (node.visitCount > 0) {
-            int player = node.context.state().mover();
-            //--------------bound check start---------------------
-            if (player >= 0 && player < node.scoreSums.length) {
-                standardValue = node.scoreSums[player] / node.visitCount;
-            } else {
-                System.err.println("Warning: Invalid player index " + player + " for scoreSums of length " + node.scoreSums.length);
-            }
-            //--------------bound check end--------------------- 
-        }
+    protected static double calculateRaveValue(Node node,Node child, SearchConfig config, Node graveReference) {
+        // Standard child value
+        final double standardValue = child.scoreSums[node.mover] / child.visitCount;
 
         // Get GRAVE AMAF value
-        double amaf = node.getGraveAmafValue(child.moveFromParent);
+        double amaf = node.getGraveAmafValue(graveReference, child.moveCode, config.refVisits());
 
 
         // If no AMAF data, return standard value
@@ -447,64 +705,73 @@ public class PNSMCTS_L2_RAVE extends AI {
 //        }
 
         // Weight for combining standard and AMAF values
+        final double raveK = config.raveK();
         double beta = Math.sqrt(raveK / (3 * node.visitCount + raveK));
 
         // Combine the values
         return (1.0 - beta) * standardValue + beta * amaf;
     }
 
-    // Method to update RAVE statistics
-    protected void updateRaveStats(Node node, FastArrayList<Move> movesInSimulation, double result) {
-
-        // We can directly use the moves from this node's position in the simulation
-        for (int i = 0; i < movesInSimulation.size(); i++) {
-            Move move = movesInSimulation.get(i);
-            //if (isMoveLegal(move, legalMoves)) {
-                //System.out.println("yes move: " + move + "is legal for node: " + node);
-                node.amafStats.update(move, result);
-            //}
-        }
-
-        // Update node-specific stats for the move actually taken from this node
-        if (node.moveFromParent != null) {
-                NodeRaveStats nodeStats = node.nodeRaveStats.computeIfAbsent(
-                        node.moveFromParent,
-                        k -> new NodeRaveStats()
-                );
-                nodeStats.visits++;
-                nodeStats.totalScore += result;
-
+    // Method to update RAVE statistics: the AMAF entry of every move of the node that its mover played
+    // later in this iteration (in the tree below the node or in the playout) gets the result once
+    protected void updateRaveStats(Node node, AmafSweep sweep, double result) {
+        final int mover = node.mover;
+        for (int i = 0; i < node.children.size(); i++) {
+            final long moveCode = node.children.get(i).moveCode;
+            if (sweep.wasPlayed(moveCode, mover)) {
+                node.amafStats.update(moveCode, result);
+            }
         }
-    }
 
-    private static boolean isMoveLegal(Move move, FastArrayList<Move> legalMoves) {
-        // Check if the move is in the list of legal moves
-        for (int i = 0; i < legalMoves.size(); i++) {
-            if (legalMoves.get(i).equals(move)) {
-                return true;
+        // Moves without a child node yet (lazy expansion)
+        if (node.unexpandedMoves != null) {
+            for (int i = 0; i < node.unexpandedMoves.size(); i++) {
+                final long moveCode = MastTable.moveKey(node.unexpandedMoves.get(i));
+                if (sweep.wasPlayed(moveCode, mover)) {
+                    node.amafStats.update(moveCode, result);
+                }
             }
         }
-        return false;
     }
 
     //-----------------------------------RAVE end-----------------------------------------------------------------------------
 
+    /**
+     * Statistics of one root child merged over the trees of all root-parallel workers
+     */
+    private static class RootChildStats {
+
+        private final Move move;
+
+        private int visitCount = 0;
+
+        /**
+         * For every player, sum of the score sums of this child over all trees
+         */
+        private final double[] scoreSums;
+
+        private double proofNum = Double.POSITIVE_INFINITY;
+        private double disproofNum = Double.POSITIVE_INFINITY;
+        private double proofNumL2 = Double.POSITIVE_INFINITY;
+        private double disproofNumL2 = Double.POSITIVE_INFINITY;
+
+        RootChildStats(final Move move, final int numScores) {
+            this.move = move;
+            this.scoreSums = new double[numScores];
+        }
+    }
+
     /**
      * Inner class for nodes used by PNSMCTS_L2_RAVE
      */
-    private static class Node implements Comparable<Node> {
-        // Q(s,a) statistics for this node
-        private final Map<Move, NodeRaveStats> nodeRaveStats = new HashMap<>();
-        
+    private static class Node {
         // AMAF statistics for this node
-        private final NodeAmafStats amafStats = new NodeAmafStats();
-
-        private Node graveAncestor = null;  // Cached reliable ancestor
+        private final AmafTable amafStats = new AmafTable(0);
 
         /**
-         * Our parent node
+         * Our parent node (null for the root)
          */
-        private final Node parent;
+        private Node parent;
         
         /**
          * The move that led from parent to this node
@@ -512,9 +779,30 @@ public class PNSMCTS_L2_RAVE extends AI {
         private final Move moveFromParent;
 
         /**
-         * This objects contains the game state for this node
+         * Code of moveFromParent (MastTable.moveKey), the key of this move in the AMAF statistics
+         */
+        private final long moveCode;
+
+        /**
+         * Game state for this node (this is why we don't support stochastic games). Only kept for nodes up to the
+         * cached context depth of the config, deeper nodes are null and rebuilt by replaying moves from the closest cached ancestor.
          */
-        private final Context context;
+        private Context context;
+
+        /**
+         * Depth of this node below the current root, re-based by makeRoot
+         */
+        private int depth;
+
+        /**
+         * Player to move in this node
+         */
+        private final int mover;
+
+        /**
+         * Utilities of all players if this node is a terminal game state, null otherwise
+         */
+        private final double[] terminalUtilities;
 
         /**
          * Visit count for this node
@@ -531,10 +819,11 @@ public class PNSMCTS_L2_RAVE extends AI {
          */
         private final List<Node> children = new ArrayList<Node>();
 
+
         /**
-         * List of moves for which we did not yet create a child node
+         * List of moves for which we did not yet create a child node (lazy expansion only, null otherwise)
          */
-        private final FastArrayList<Move> unexpandedMoves;
+        private FastArrayList<Move> unexpandedMoves = null;
 
         private final List<Node> unexpandedChildren = new ArrayList<Node>();
 
@@ -558,7 +847,17 @@ public class PNSMCTS_L2_RAVE extends AI {
         private PNSNodeTypes type;
         private PNSNodeValues value;
         private final int proofPlayer;
-        private int rank;
+
+        /**
+         * Index of this node in the childRanks of its parent, where it is ranked under its proof number
+         * (OR parent) or disproof number (AND parent) compared to "siblings"
+         */
+        private int rankIndex;
+
+        /**
+         * Ranks of the child nodes, ordered best to worst
+         */
+        private final ChildRanks childRanks = new ChildRanks();
 
         public enum PNSNodeTypes {
             /**
@@ -599,8 +898,10 @@ public class PNSMCTS_L2_RAVE extends AI {
 
         /**
          * Constructor
+         *
+         * @param config Search parameters of the agent
          */
-        public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer) {
+        public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer, final SearchConfig config) {
 
             if (context == null) {
                 throw new IllegalArgumentException("Context cannot be null");
@@ -614,12 +915,16 @@ public class PNSMCTS_L2_RAVE extends AI {
 
             this.parent = parent;
             this.moveFromParent = moveFromParent;
-            this.context = context;
+            this.moveCode = (moveFromParent == null) ? -1L : MastTable.moveKey(moveFromParent);
+            this.depth = (parent == null) ? 0 : parent.depth + 1;
+            this.context = (depth <= config.cachedContextDepth()) ? context : null;
+            this.mover = context.state().mover();
+            this.terminalUtilities = context.trial().over() ? RankUtils.utilities(context) : null;
             final Game game = context.game();
             this.proofPlayer = proofPlayer;
             scoreSums = new double[game.players().count() + 1];
             // Set node type
-            if (context.state().mover() == proofPlayer) {
+            if (mover == proofPlayer) {
                 this.type = PNSNodeTypes.OR_NODE;
             } else {
                 this.type = PNSNodeTypes.AND_NODE;
@@ -627,92 +932,70 @@ public class PNSMCTS_L2_RAVE extends AI {
             evaluate();
             setProofAndDisproofNumbers();
 
-            // For simplicity, we just take ALL legal moves.
-            // This means we do not support simultaneous-move games.
-            unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
-
-            if (parent != null)
+            if (parent != null) {
                 parent.children.add(this);
+                rankIndex = parent.childRanks.add((parent.type == PNSNodeTypes.OR_NODE) ? proofNum : disproofNum);
+            }
         }
 
         //---------------------------------------------------------GRAVE start------------------------------------------
         /**
-         * Get GRAVE AMAF value for a move
-         * @param move The move to get AMAF value for
+         * Get GRAVE AMAF value for a move. The reference is tracked during the descent of selection, so no
+         * ancestor pointers have to be searched or rewritten when a node becomes reliable.
+         * @param graveReference Deepest node from the root to this one with the same mover and more than refVisits
+         *                       visits, or null
+         * @param moveCode Code of the move to get AMAF value for (MastTable.moveKey)
+         * @param refVisits Visits above which a node's AMAF statistics are reliable
          * @return AMAF value from this node or nearest reliable ancestor
          */
-        public double getGraveAmafValue(Move move) {
-            // Get the reliable ancestor's AMAF value for this move
-            if(visitCount <= REF_VISITS && REF_VISITS != 0){
-                Node reliableNode = getGraveAncestor();
-                if (reliableNode != null) {
-                    return reliableNode.amafStats.getAmafValue(move);
-                }
+        public double getGraveAmafValue(Node graveReference, long moveCode, int refVisits) {
+            // Use the reliable ancestor's AMAF value for this move while this node itself is not reliable. Only an
+            // ancestor of the same mover scores the move from our side, and it only has an entry for the move if
+            // the move was legal there.
+            if (visitCount <= refVisits && refVisits != 0 && graveReference != null
+                    && graveReference.mover == mover && graveReference.amafStats.getAmafVisits(moveCode) > 0) {
+                return graveReference.amafStats.getAmafValue(moveCode);
             }
 
-            // Fall back to current node's AMAF if no reliable ancestor
-            return amafStats.getAmafValue(move);
+            // Fall back to current node's AMAF if no usable reliable ancestor
+            return amafStats.getAmafValue(moveCode);
         }
 
         public void incrementVisitCount() {
             this.visitCount++;
-
-            // When we cross the threshold, update this node and descendants
-            if (this.visitCount == REF_VISITS + 1 && REF_VISITS != 0) {
-                //System.out.println("I " + this + " am reliable");
-                // This node is reliable, so it can be an ancestor
-                this.graveAncestor = this;
-                this.updateGraveAncestorsInSubtree(this);
-            }
         }
 
-        private void updateGraveAncestorsInSubtree(Node ancestor) {
-
-            if (this.visitCount <= 0) {
-               // System.out.println("i am " + this + " my ancesstor was: " + this.graveAncestor + " now its: " + ancestor);
-                //this.graveAncestor = ancestor;
-               // System.out.println("i am not real");
-                return;
-            }
+        //--------------------------------------------------------------GRAVE end------------------------------------------
 
-            for(Node child : this.children){
-                if(child != null && child.visitCount < REF_VISITS){
-                    //System.out.println("i am " + child + " my ancesstor was: " + child.graveAncestor + " now its: " + ancestor);
-                    child.graveAncestor = ancestor;
-                    child.updateGraveAncestorsInSubtree(ancestor);
-                }
-            }
+        /**
+         * @return True if this node is a terminal game state
+         */
+        public boolean isTerminal() {
+            return terminalUtilities != null;
         }
 
-        // get the GRAVE ancestor
-        public Node getGraveAncestor() {
-            // If we already found our ancestor, return it
-            if (graveAncestor != null) {
-                return graveAncestor;
-            }
-
-            // Otherwise, find the closest reliable ancestor
-            Node ancestor = parent;
-            while (ancestor != null) {
-                if (ancestor.visitCount > REF_VISITS) {
-                    graveAncestor = ancestor;  // Cache the result
-                    return ancestor;
-                }
-                ancestor = ancestor.parent;
+        /**
+         * Rebuilds the game state of this node by replaying the moves from the closest ancestor that kept its Context.
+         *
+         * @return A new Context that may be modified by the caller
+         */
+        public Context replayState() {
+            if (context != null) {
+                return new Context(context);
             }
-            return null;
+            final Context state = parent.replayState();
+            state.game().apply(state, moveFromParent);
+            return state;
         }
 
-        //--------------------------------------------------------------GRAVE end------------------------------------------
-
         /**
          * Evaluates a node as in PNS according to L. V. Allis' "Searching for Solutions in Games and Artificial Intelligence"
          */
         public void evaluate() {
-            if (this.context.trial().over()) {
-                if (RankUtils.utilities(this.context)[proofPlayer] == 1.0) {
+            if (isTerminal()) {
+                if (terminalUtilities[proofPlayer] == 1.0) {
                     this.value = PNSNodeValues.TRUE;
-                } else if (RankUtils.utilities(this.context)[proofPlayer] >= 0.0) {
+                } else if (terminalUtilities[proofPlayer] >= 0.0) {
                     this.value = PNSNodeValues.DRAW;
                 } else {
                     this.value = PNSNodeValues.FALSE;
@@ -748,6 +1031,14 @@ public class PNSMCTS_L2_RAVE extends AI {
                             disproofL2 = this.children.get(i).getDisproofNumL2();
                         }
                     }
+                    // Moves without a child node yet count as unknown children (proof and disproof number 1)
+                    final int numUnexpanded = numUnexpandedMoves();
+                    if (numUnexpanded > 0) {
+                        proof += numUnexpanded;
+                        proofL2 += numUnexpanded;
+                        disproof = Math.min(disproof, 1);
+                        disproofL2 = Math.min(disproofL2, 1);
+                    }
                     //If nothing changed return false
                     if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
                         return false;
@@ -775,6 +1066,14 @@ public class PNSMCTS_L2_RAVE extends AI {
                             proofL2 = this.children.get(i).getProofNumL2();
                         }
                     }
+                    // Moves without a child node yet count as unknown children (proof and disproof number 1)
+                    final int numUnexpanded = numUnexpandedMoves();
+                    if (numUnexpanded > 0) {
+                        disproof += numUnexpanded;
+                        disproofL2 += numUnexpanded;
+                        proof = Math.min(proof, 1);
+                        proofL2 = Math.min(proofL2, 1);
+                    }
                     //If nothing changed return false
                     if (this.proofNum == proof && this.proofNumL2 == proofL2 && this.disproofNum == disproof && this.disproofNumL2 == disproofL2) {
                         return false;
@@ -817,15 +1116,27 @@ public class PNSMCTS_L2_RAVE extends AI {
         /**
          * Develops a node by adding all the children nodes. Then returns one child at random for the selection phase.
          *
+         * @param state  Game state of this node, left unchanged
+         * @param config Search parameters of the agent
          * @return One of the new child nodes
          */
-        public Node developNode() {
+        public Node developNode(final Context state, final SearchConfig config) {
             if (this.value == PNSNodeValues.UNKNOWN) {
-                for (int i = 0; i < this.unexpandedMoves.size(); i++) {
-                    final Move move = this.unexpandedMoves.get(i);
-                    final Context context = new Context(this.context);
+                // For simplicity, we just take ALL legal moves.
+                // This means we do not support simultaneous-move games.
+                final FastArrayList<Move> legalMoves = state.game().moves(state).moves();
+                amafStats.ensureCapacity(legalMoves.size());
+                if (config.lazyExpansion()) {
+                    // Children are only created once selection picks their move
+                    this.unexpandedMoves = legalMoves;
+                    this.expanded = true;
+                    return materialiseChild(state, config);
+                }
+                for (int i = 0; i < legalMoves.size(); i++) {
+                    final Move move = legalMoves.get(i);
+                    final Context context = new Context(state);
                     context.game().apply(context, move);
-                    Node node = new Node(this, move, context, this.proofPlayer);
+                    Node node = new Node(this, move, context, this.proofPlayer, config);
                     unexpandedChildren.add(node);
                 }
                 this.expanded = true;
@@ -837,22 +1148,76 @@ public class PNSMCTS_L2_RAVE extends AI {
             }
         }
 
-        public void setChildRanks() {
-            List<Node> sorted = new ArrayList<Node>(this.children);
-            Collections.sort(sorted);
-            Node lastNode = null;
-            for (int i = 0; i < sorted.size(); i++) {
-                Node child = sorted.get(i);
-                // If there's a tie
-                if (lastNode != null && this.type == PNSNodeTypes.OR_NODE && lastNode.getProofNum() == child.getProofNum()) {
-                    child.setRank(lastNode.getRank());
-                    // If there's a tie
-                } else if (lastNode != null && this.type == PNSNodeTypes.AND_NODE && lastNode.getDisproofNum() == child.getDisproofNum()) {
-                    child.setRank(lastNode.getRank());
-                } else {
-                    child.setRank(i + 1);
+        /**
+         * Creates the child node for a random move that has no node yet (lazy expansion).
+         *
+         * @param state  Game state of this node, left unchanged
+         * @param config Search parameters of the agent
+         * @return The new child node
+         */
+        public Node materialiseChild(final Context state, final SearchConfig config) {
+            final int index = ThreadLocalRandom.current().nextInt(unexpandedMoves.size());
+            final Move move = unexpandedMoves.get(index);
+            unexpandedMoves.removeSwap(index);
+            final Context context = new Context(state);
+            context.game().apply(context, move);
+            return new Node(this, move, context, this.proofPlayer, config);
+        }
+
+        /**
+         * @return Number of legal moves for which no child node was created yet (lazy expansion)
+         */
+        public int numUnexpandedMoves() {
+            return (unexpandedMoves == null) ? 0 : unexpandedMoves.size();
+        }
+
+        /**
+         * @return True if selecting from this node may create a child, which requires the game state of this node
+         */
+        public boolean needsState() {
+            return !expanded || numUnexpandedMoves() > 0;
+        }
+
+        /**
+         * Re-positions a child in the UCT-PN ranking after its proof or disproof number may have changed
+         */
+        public void updateChildRank(final Node child) {
+            final double key = (this.type == PNSNodeTypes.OR_NODE) ? child.getProofNum() : child.getDisproofNum();
+            childRanks.update(child.rankIndex, key);
+        }
+
+        /**
+         * @return The child reached by the given move, or null if there is no node for it
+         */
+        public Node findChild(final Move move) {
+            for (int i = 0; i < children.size(); i++) {
+                final Node child = children.get(i);
+                if (child.moveFromParent.equals(move)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Detaches this node from its parent so it can serve as the root of a new search. The depths of the
+         * subtree are re-based on this node, so the cached context depth keeps counting from the current root.
+         *
+         * @param context Game state of this node
+         */
+        public void makeRoot(final Context context) {
+            this.parent = null;
+            this.context = context;
+
+            final int shift = this.depth;
+            final Deque<Node> open = new ArrayDeque<Node>();
+            open.push(this);
+            while (!open.isEmpty()) {
+                final Node node = open.pop();
+                node.depth -= shift;
+                for (int i = 0; i < node.children.size(); ++i) {
+                    open.push(node.children.get(i));
                 }
-                lastNode = child;
             }
         }
 
@@ -881,46 +1246,11 @@ public class PNSMCTS_L2_RAVE extends AI {
         }
 
         public int getRank() {
-            return this.rank;
+            return parent.childRanks.rank(rankIndex);
         }
 
         public List<Node> getUnexpandedChildren() {
             return this.unexpandedChildren;
         }
-
-        public void setRank(int rank) {
-            this.rank = rank;
-        }
-
-        // Used to rank children
-        @Override
-        public int compareTo(Node o) {
-            if (this.parent.getType() == PNSNodeTypes.OR_NODE) {
-                if (this.getProofNum() < o.getProofNum()) {
-                    return -1;
-                } else if (this.getProofNum() > o.getProofNum()) {
-                    return 1;
-                } else if (this.getProofNumL2() < o.getProofNumL2()) {
-                    return -1;
-                } else if (this.getProofNumL2() > o.getProofNumL2()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else if (this.parent.getType() == PNSNodeTypes.AND_NODE) {
-                if (this.getDisproofNum() < o.getDisproofNum()) {
-                    return -1;
-                } else if (this.getDisproofNum() > o.getDisproofNum()) {
-                    return 1;
-                } else if (this.getDisproofNumL2() < o.getDisproofNumL2()) {
-                    return -1;
-                } else if (this.getDisproofNumL2() > o.getDisproofNumL2()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            return 0;
-        }
     }
 }
@@ -9,15 +9,12 @@ import other.move.Move;
 
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 public class PNSMCTS_MAST extends AI {
 
 
-    public static boolean FIN_MOVE_SEL = false;
-    public static int SOLVERLIKE_MINVISITS = Integer.MAX_VALUE; // 5; // Integer.MAX_VALUE;
-
-
     //-------------------------------------------------------------------------
 
     /**
@@ -26,15 +23,15 @@ public class PNSMCTS_MAST extends AI {
     protected int player = -1;
 
     /**
-     * Settings contain (in order): pnConstant, explorationConstant, time per turn
+     * Search parameters of this agent
      */
-    private static double[] settings; // PN-Constant, MCTS-Constant, Time per turn
+    private final SearchConfig config;
 
 
-    // Used to count simulations per second
-    private static double sims = 0;
-    private static double simsThisTurn = 0;
-    private static double turns = 0;
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
 
     //-------------------------------------------------------------------------
 
@@ -43,7 +40,7 @@ public class PNSMCTS_MAST extends AI {
      * @return The number of simulations performed in the current turn
      */
     public double getSimsThisTurn() {
-        return simsThisTurn;
+        return simsThisTurn.sum();
     }
     //-----------MAST---------------------------
 
@@ -75,18 +72,17 @@ public class PNSMCTS_MAST extends AI {
     }
 
 
-    private final Map<Move, Map<PNSMCTS_MAST.NGramKey, Double>> nGramScores = new HashMap<>();
-    private final Map<Move, Map<PNSMCTS_MAST.NGramKey, Integer>> nGramVisits = new HashMap<>();
+    // N-gram statistics for our player, grouped by the move key (MastTable.moveKey) of the last move
+    private final Map<Long, Map<PNSMCTS_MAST.NGramKey, Double>> nGramScores = new HashMap<>();
+    private final Map<Long, Map<PNSMCTS_MAST.NGramKey, Integer>> nGramVisits = new HashMap<>();
 
     // N-gram statistics for the opponent
-    private final Map<Move, Map<PNSMCTS_MAST.NGramKey, Double>> opponentNGramScores = new HashMap<>();
-    private final Map<Move, Map<PNSMCTS_MAST.NGramKey, Integer>> opponentNGramVisits = new HashMap<>();
+    private final Map<Long, Map<PNSMCTS_MAST.NGramKey, Double>> opponentNGramScores = new HashMap<>();
+    private final Map<Long, Map<PNSMCTS_MAST.NGramKey, Integer>> opponentNGramVisits = new HashMap<>();
 
     // Move scores for both players (1-gram scores)
-    private final Map<Move, Double> aiMoveScores = new HashMap<>();
-    private final Map<Move, Integer> aiMoveVisits = new HashMap<>();
-    private final Map<Move, Double> opponentMoveScores = new HashMap<>();
-    private final Map<Move, Integer> opponentMoveVisits = new HashMap<>();
+    private final MastTable aiMoveStats = new MastTable();
+    private final MastTable opponentMoveStats = new MastTable();
 
     private final Object statsLock = new Object();
 
@@ -132,28 +128,31 @@ public class PNSMCTS_MAST extends AI {
     public PNSMCTS_MAST() {
         this.nGramSize = 1; // Default to 1-gram (MAST)
         this.friendlyName = "PNS_MAST UCT";
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, false, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
     }
 
     public PNSMCTS_MAST(boolean finMove, int minVisits, double pnCons, int nGramSize) {
         this.nGramSize = Math.max(1, Math.min(3, nGramSize));
-        this.FIN_MOVE_SEL = finMove;
-        this.SOLVERLIKE_MINVISITS = minVisits;
         this.friendlyName = "PNS_MAST UCT";
-        double[] defaultSettings = {pnCons, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
     }
 
     public PNSMCTS_MAST(double[] settings) {
         this.nGramSize = 1; // Default to 1-gram (MAST)
         this.friendlyName = "PNS_MAST UCT";
-        this.settings = settings;
+        this.config = SearchConfig.fromSettings(settings, false, Integer.MAX_VALUE, -100);
     }
 
 
     //-------------------------------------------------------------------------
 
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
+    }
+
     @Override
     public Move selectAction(
             final Game game,
@@ -164,8 +163,8 @@ public class PNSMCTS_MAST extends AI {
     ) {
 //        this.simsThisTurn = this.sims;
 //        this.turns++;
-        this.simsThisTurn = 0;
-        this.turns++;
+        simsThisTurn.reset();
+        turns.increment();
 
         // Start out by creating a new root node (no tree reuse in this example)
         final Node root = new Node(null, null, context, player);
@@ -192,7 +191,7 @@ public class PNSMCTS_MAST extends AI {
                     break;
                 }
 
-                current = select(current);
+                current = select(current, config);
 
                 if (current.visitCount == 0) {
                     // We've expanded a new node, time for playout!
@@ -259,8 +258,8 @@ public class PNSMCTS_MAST extends AI {
 //                System.out.println("\n=== Playout Complete ===");
 //                System.out.println("Total moves: " + (numMoves));
 //                System.out.println("Final utilities: " + Arrays.toString(RankUtils.utilities(contextEnd)));
-                sims++;
-                simsThisTurn++;
+                sims.increment();
+                simsThisTurn.increment();
             }
 
             // This computes utilities for all players at the of the playout,
@@ -270,6 +269,7 @@ public class PNSMCTS_MAST extends AI {
             // Backpropagate utilities through the tree
             boolean changed = true;
             boolean firstNode = true;
+            Node child = null;
             while (current != null) {
                 current.visitCount += 1;
                 for (int p = 1; p <= game.players().count(); ++p) {
@@ -278,14 +278,13 @@ public class PNSMCTS_MAST extends AI {
                 if (!firstNode) {
                     if (changed) {
                         changed = current.setProofAndDisproofNumbers();
-                        if (current.getChildren().size() > 0) {
-                            current.setChildRanks();
-                        }
+                        current.updateChildRank(child);
                     }
                 } else {
                     firstNode = false;
                 }
 
+                child = current;
                 current = current.parent;
             }
             // if proofNum of root changed -> check is proven or disproven
@@ -304,12 +303,12 @@ public class PNSMCTS_MAST extends AI {
 
         // Apply decay if needed
         if (doDecay ) {
-            applyMoveDecay(nGramScores, nGramVisits);
-            applyMoveDecay(opponentNGramScores, opponentNGramVisits);
+            applyMoveDecay(nGramScores, nGramVisits, aiMoveStats);
+            applyMoveDecay(opponentNGramScores, opponentNGramVisits, opponentMoveStats);
         }
 
         // Return the move we wish to play
-        return finalMoveSelection(root);
+        return finalMoveSelection(root, config);
     }
 
     /**
@@ -318,9 +317,10 @@ public class PNSMCTS_MAST extends AI {
      * new nodes if the given current node has unexpanded moves.
      *
      * @param current
+     * @param config Search parameters of the agent
      * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
      */
-    public static Node select(final Node current) {
+    public static Node select(final Node current, final SearchConfig config) {
         // All child nodes are created and added to the child list of the current node
         if (!current.expanded) {
             return current.developNode();
@@ -336,9 +336,9 @@ public class PNSMCTS_MAST extends AI {
         double bestValue = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
 
-        double explorationConstant = settings[1];
+        double explorationConstant = config.explorationConstant();
 
-        double pnConstant = settings[0];
+        double pnConstant = config.pnConstant();
         double total = current.getChildren().size();
 
         final int numChildren = current.children.size();
@@ -348,8 +348,8 @@ public class PNSMCTS_MAST extends AI {
             final Node child = current.children.get(i);
 
             if (current.proofNum != 0 && current.disproofNum != 0) {
-                if (child.proofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
-                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
+                if (child.proofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
+                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
             }
 
             final double exploit = child.scoreSums[mover] / child.visitCount;
@@ -379,9 +379,10 @@ public class PNSMCTS_MAST extends AI {
      * with the highest visit count).
      *
      * @param rootNode
+     * @param config Search parameters of the agent
      * @return Final move as selected by PN-MCTS
      */
-    public static Move finalMoveSelection(final Node rootNode) {
+    public static Move finalMoveSelection(final Node rootNode, final SearchConfig config) {
         Node bestChild = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
@@ -403,7 +404,7 @@ public class PNSMCTS_MAST extends AI {
         }
 
         // To ensure a proven node will select the proven child too
-        if (FIN_MOVE_SEL) {
+        if (config.finMoveSel()) {
             //System.out.println("XXXXXXX");
             if (rootNode.proofNum == 0) {
                 for (Node child : rootNode.children) {
@@ -442,7 +443,7 @@ public class PNSMCTS_MAST extends AI {
      *
      * @author Dennis Soemers
      */
-    private static class Node implements Comparable<Node> {
+    private static class Node {
 
         /**
          * Our parent node
@@ -493,9 +494,15 @@ public class PNSMCTS_MAST extends AI {
         private double disproofNum;
 
         /**
-         * Rank of a node compared to "siblings". Needed for UCT-PN. Ranks ordered best to worst
+         * Index of this node in the childRanks of its parent, where it is ranked under its proof number
+         * (OR parent) or disproof number (AND parent) compared to "siblings"
+         */
+        private int rankIndex;
+
+        /**
+         * Ranks of the child nodes, ordered best to worst
          */
-        private int rank;
+        private final ChildRanks childRanks = new ChildRanks();
 
         /**
          * Various necessary information variables.
@@ -566,8 +573,10 @@ public class PNSMCTS_MAST extends AI {
             // This means we do not support simultaneous-move games.
             unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
 
-            if (parent != null)
+            if (parent != null) {
                 parent.children.add(this);
+                rankIndex = parent.childRanks.add((parent.type == PNSNodeTypes.OR_NODE) ? proofNum : disproofNum);
+            }
         }
 
         /**
@@ -675,26 +684,11 @@ public class PNSMCTS_MAST extends AI {
         }
 
         /**
-         * Set an ordered ranking for the UCT-PN formula in the selection step of MCTS
+         * Re-positions a child in the UCT-PN ranking after its proof or disproof number may have changed
          */
-
-        public void setChildRanks() {
-            List<Node> sorted = new ArrayList<Node>(this.children);
-            Collections.sort(sorted);
-            Node lastNode = null;
-            for (int i = 0; i < sorted.size(); i++) {
-                Node child = sorted.get(i);
-                // If there's a tie
-                if (lastNode != null && this.type == PNSNodeTypes.OR_NODE && lastNode.getProofNum() == child.getProofNum()) {
-                    child.setRank(lastNode.getRank());
-                    // If there's a tie
-                } else if (lastNode != null && this.type == PNSNodeTypes.AND_NODE && lastNode.getDisproofNum() == child.getDisproofNum()) {
-                    child.setRank(lastNode.getRank());
-                } else {
-                    child.setRank(i + 1);
-                }
-                lastNode = child;
-            }
+        public void updateChildRank(final Node child) {
+            final double key = (this.type == PNSNodeTypes.OR_NODE) ? child.getProofNum() : child.getDisproofNum();
+            childRanks.update(child.rankIndex, key);
         }
 
         public List<Node> getChildren() {
@@ -714,39 +708,12 @@ public class PNSMCTS_MAST extends AI {
         }
 
         public int getRank() {
-            return rank;
+            return parent.childRanks.rank(rankIndex);
         }
 
         public List<Node> getUnexpandedChildren() {
             return unexpandedChildren;
         }
-
-        public void setRank(int rank) {
-            this.rank = rank;
-        }
-
-        // Used to rank children
-        @Override
-        public int compareTo(Node o) {
-            if (this.parent.getType() == PNSNodeTypes.OR_NODE) {
-                if (this.getProofNum() < o.getProofNum()) {
-                    return -1;
-                } else if (this.getProofNum() > o.getProofNum()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else if (this.parent.getType() == PNSNodeTypes.AND_NODE) {
-                if (this.getDisproofNum() < o.getDisproofNum()) {
-                    return -1;
-                } else if (this.getDisproofNum() > o.getDisproofNum()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            return 0;
-        }
     }
 
     //-------------------------------------------------------------------------
@@ -907,9 +874,11 @@ public class PNSMCTS_MAST extends AI {
             System.out.println("----------------------");
         }
 
-        // Find the move with the highest score
-        for (Move move : legalMoves) {
-            double score = getMoveScore(move, currentPlayer);
+        // Find the move with the highest score, one table probe per move
+        final MastTable moveStats = (currentPlayer == this.player) ? aiMoveStats : opponentMoveStats;
+        for (int i = 0; i < legalMoves.size(); i++) {
+            final Move move = legalMoves.get(i);
+            double score = moveStats.score(MastTable.moveKey(move), newMoveExploration);
 
             if (printDebug) {
                 System.out.printf("%s\t%.4f%n",
@@ -932,23 +901,6 @@ public class PNSMCTS_MAST extends AI {
         return bestMove;
     }
 
-    /**
-     * Gets the N-gram score for a move, considering both AI and opponent statistics
-     *
-     * @param move          The move to evaluate
-     * @param currentPlayer The player making the move
-     * @return The weighted average score for the move based on N-gram statistics
-     */
-
-    private double getMoveScore(Move move, int currentPlayer) {
-        // For 1-grams, use the precomputed move scores
-        if (currentPlayer == this.player) {
-            return aiMoveScores.getOrDefault(move, newMoveExploration);
-        } else {
-            return opponentMoveScores.getOrDefault(move, newMoveExploration);
-        }
-    }
-
 
 
 
@@ -1061,21 +1013,20 @@ public class PNSMCTS_MAST extends AI {
 //                }
 
             // Select appropriate maps
-            Map<Move, Map<PNSMCTS_MAST.NGramKey, Double>> scoresMap = isAI ? nGramScores : opponentNGramScores;
-            Map<Move, Map<PNSMCTS_MAST.NGramKey, Integer>> visitsMap = isAI ? nGramVisits : opponentNGramVisits;
+            Map<Long, Map<PNSMCTS_MAST.NGramKey, Double>> scoresMap = isAI ? nGramScores : opponentNGramScores;
+            Map<Long, Map<PNSMCTS_MAST.NGramKey, Integer>> visitsMap = isAI ? nGramVisits : opponentNGramVisits;
             Map<PNSMCTS_MAST.NGramKey, Integer> lastSeenMap = isAI ? nGramLastSeen : opponentNGramLastSeen;
-            Map<Move, Integer> moveVisitsMap = isAI ? aiMoveVisits : opponentMoveVisits;
-            Map<Move, Double> moveScoresMap = isAI ? aiMoveScores : opponentMoveScores;
+            MastTable moveStats = isAI ? aiMoveStats : opponentMoveStats;
 
             // Process each n-gram for this player
             for (Map.Entry<PNSMCTS_MAST.NGramKey, Integer> ngramEntry : playerEntry.getValue().entrySet()) {
                 PNSMCTS_MAST.NGramKey ngram = ngramEntry.getKey();
                 int occurrences = ngramEntry.getValue();
-                Move move = ngram.sequence.get(ngram.sequence.size() - 1);
+                long moveKey = MastTable.moveKey(ngram.sequence.get(ngram.sequence.size() - 1));
 
-                // Get or create score and visit maps for this move
-                Map<PNSMCTS_MAST.NGramKey, Double> moveScores = scoresMap.computeIfAbsent(move, k -> new HashMap<>());
-                Map<PNSMCTS_MAST.NGramKey, Integer> moveVisits = visitsMap.computeIfAbsent(move, k -> new HashMap<>());
+                // Get or create score and visit maps for the move key, shared by all moves the move-level statistics merge
+                Map<PNSMCTS_MAST.NGramKey, Double> moveScores = scoresMap.computeIfAbsent(moveKey, k -> new HashMap<>());
+                Map<PNSMCTS_MAST.NGramKey, Integer> moveVisits = visitsMap.computeIfAbsent(moveKey, k -> new HashMap<>());
 
                 // Update last seen and track additions
                 lastSeenMap.put(ngram, currentTotalSimulations);
@@ -1086,6 +1037,7 @@ public class PNSMCTS_MAST extends AI {
                 double currentScore = moveScores.getOrDefault(ngram, 0.0);
                 int currentVisits = moveVisits.getOrDefault(ngram, 0);
                 int newVisits = currentVisits + occurrences;
+                double oldContribution = moveScoreContribution(ngram.sequence.size(), currentVisits, currentScore);
 
                 // Weighted average update: (currentScore * currentVisits + utility * occurrences) / (currentVisits + occurrences)
                 double newScore = (currentScore * currentVisits + utility * occurrences) / newVisits;
@@ -1094,13 +1046,16 @@ public class PNSMCTS_MAST extends AI {
                 moveScores.put(ngram, newScore);
                 moveVisits.put(ngram, newVisits);
 
-                // Update move-level statistics
-                updateMoveStats(move, moveScores, moveVisits, moveScoresMap, moveVisitsMap);
-                // Apply decay if needed
+                // Update move-level statistics by the change of this n-gram alone
+                moveStats.add(moveKey,
+                        moveScoreContribution(ngram.sequence.size(), newVisits, newScore) - oldContribution);
+                // Apply decay if needed, then recompute the move-level score of the decayed move
                 if (doDecay && (currentTotalSimulations % DECAY_INTERVAL == 0) && isAI) {
                     applySimulationDecay(nGramScores, nGramVisits, ngram, occurrences);
+                    updateMoveStats(moveKey, moveScores, moveVisits, moveStats);
                 }else if(doDecay && (currentTotalSimulations % DECAY_INTERVAL == 0) && !isAI){
                     applySimulationDecay(opponentNGramScores, opponentNGramVisits, ngram, occurrences);
+                    updateMoveStats(moveKey, moveScores, moveVisits, moveStats);
                 }
             }
         }
@@ -1110,8 +1065,8 @@ public class PNSMCTS_MAST extends AI {
     // Helper method to apply decay to score and visit maps for a specific NGramKey
     // The decay is applied based on the number of occurrences of the NGramKey
     private void applySimulationDecay(
-            Map<Move, Map<PNSMCTS_MAST.NGramKey, Double>> scoresMap,
-            Map<Move, Map<PNSMCTS_MAST.NGramKey, Integer>> visitsMap,
+            Map<Long, Map<PNSMCTS_MAST.NGramKey, Double>> scoresMap,
+            Map<Long, Map<PNSMCTS_MAST.NGramKey, Integer>> visitsMap,
             PNSMCTS_MAST.NGramKey nGramKey,
             int occurrences
     ) {
@@ -1128,10 +1083,11 @@ public class PNSMCTS_MAST extends AI {
         }
     }
 
-    // Helper method to apply decay to score and visit maps
+    // Helper method to apply decay to score and visit maps, after which all move-level scores are recomputed
     private void applyMoveDecay(
-            Map<Move, Map<PNSMCTS_MAST.NGramKey, Double>> scoresMap,
-            Map<Move, Map<PNSMCTS_MAST.NGramKey, Integer>> visitsMap
+            Map<Long, Map<PNSMCTS_MAST.NGramKey, Double>> scoresMap,
+            Map<Long, Map<PNSMCTS_MAST.NGramKey, Integer>> visitsMap,
+            MastTable moveStats
     ) {
 //        System.out.println("movedecay in progress");
         for (Map<PNSMCTS_MAST.NGramKey, Double> scores : scoresMap.values()) {
@@ -1140,15 +1096,24 @@ public class PNSMCTS_MAST extends AI {
         for (Map<PNSMCTS_MAST.NGramKey, Integer> visits : visitsMap.values()) {
             visits.replaceAll((k, v) -> (int)Math.ceil(v * moveDecayFactor));
         }
+        for (Map.Entry<Long, Map<PNSMCTS_MAST.NGramKey, Double>> entry : scoresMap.entrySet()) {
+            updateMoveStats(entry.getKey(), entry.getValue(), visitsMap.get(entry.getKey()), moveStats);
+        }
+    }
+
+    // Share of one n-gram in the move-level score of its last move: its mean score once it is trusted
+    // (always for 1-grams, after MIN_VISITS visits for longer n-grams)
+    private static double moveScoreContribution(int length, int visits, double score) {
+        return (visits > 0 && (length == 1 || visits >= MIN_VISITS)) ? score : 0.0;
     }
 
-    // Helper method to update move-level statistics
+    // Helper method to recompute move-level statistics from scratch (only needed after decay), from all n-grams
+    // ending in a move with the given move key
     private void updateMoveStats(
-            Move move,
+            long moveKey,
             Map<PNSMCTS_MAST.NGramKey, Double> scoresMap,
             Map<PNSMCTS_MAST.NGramKey, Integer> visitsMap,
-            Map<Move, Double> moveScoresMap,
-            Map<Move, Integer> moveVisitsMap
+            MastTable moveStats
     ) {
         double totalScore = 0.0;
         int validNGrams = 0;
@@ -1167,8 +1132,7 @@ public class PNSMCTS_MAST extends AI {
 
         // Update move statistics if we have valid n-grams
         if (validNGrams > 0) {
-            moveScoresMap.put(move, totalScore);
-            moveVisitsMap.put(move, moveVisitsMap.getOrDefault(move, 0) + 1);
+            moveStats.update(moveKey, totalScore);
         }
     }
 
@@ -1188,10 +1152,8 @@ public class PNSMCTS_MAST extends AI {
 //            opponentNGramScores.clear();
 //            opponentNGramLastSeen.clear();
 //            opponentNGramVisits.clear();
-//            aiMoveScores.clear();
-//            aiMoveVisits.clear();
-//            opponentMoveScores.clear();
-//            opponentMoveVisits.clear();
+//            aiMoveStats.clear();
+//            opponentMoveStats.clear();
 //
 //            // Reset instance counters
 //            totalSimulations = 0;
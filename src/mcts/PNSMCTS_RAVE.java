@@ -8,17 +8,12 @@ import other.context.Context;
 import other.move.Move;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PNSMCTS_RAVE extends AI {
 
-
-    public static boolean FIN_MOVE_SEL = false;
-    public static int SOLVERLIKE_MINVISITS = Integer.MAX_VALUE; // 5; // Integer.MAX_VALUE;
-
-
     //-------------------------------------------------------------------------
 
     /**
@@ -27,15 +22,24 @@ public class PNSMCTS_RAVE extends AI {
     protected int player = -1;
 
     /**
-     * Settings contain (in order): pnConstant, explorationConstant, time per turn
+     * Search parameters of this agent, including the RAVE parameters
+     */
+    private final SearchConfig config;
+
+    /**
+     * GRAVE selection on AMAF statistics if true, plain UCT-PN with Ludii's built-in playout otherwise
      */
-    private static double[] settings; // PN-Constant, MCTS-Constant, Time per turn
+    private final boolean rave;
 
+    // Used to count simulations per second, per instance and without locking
+    private final LongAdder sims = new LongAdder();
+    private final LongAdder simsThisTurn = new LongAdder();
+    private final LongAdder turns = new LongAdder();
 
-    // Used to count simulations per second
-    private static double sims = 0;
-    private static double simsThisTurn = 0;
-    private static double turns = 0;
+    /**
+     * Playout moves and tree moves of the current iteration, for the AMAF updates
+     */
+    private final AmafSweep amafSweep = new AmafSweep();
 
     //-------------------------------------------------------------------------
 
@@ -44,26 +48,44 @@ public class PNSMCTS_RAVE extends AI {
      */
     public PNSMCTS_RAVE() {
         this.friendlyName = "PNS_RAVE UCT";
-        double[] defaultSettings = {1.0, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(1.0, Math.sqrt(2), 1.0, false, Integer.MAX_VALUE, -100); // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+        this.rave = true;
     }
 
     public PNSMCTS_RAVE(boolean finMove, int minVisits, double pnCons) {
-        this.FIN_MOVE_SEL = finMove;
-        this.SOLVERLIKE_MINVISITS = minVisits;
+        this(finMove, minVisits, pnCons, true, 1000.0, 50);
+    }
+
+    /**
+     * Constructor with RAVE parameters
+     *
+     * @param rave      True for GRAVE selection on AMAF statistics, false for plain UCT-PN
+     * @param raveK     Equivalence parameter, the number of visits at which the mean and AMAF values weigh the same
+     * @param refVisits Visits above which a node's AMAF statistics are reliable enough for its descendants
+     */
+    public PNSMCTS_RAVE(boolean finMove, int minVisits, double pnCons, boolean rave, double raveK, int refVisits) {
         this.friendlyName = "PNS_RAVE UCT";
-        double[] defaultSettings = {pnCons, Math.sqrt(2), 1.0}; // PN-Constant, MCTS-Constant, Time per turn
-        this.settings = defaultSettings;
+        this.config = new SearchConfig(pnCons, Math.sqrt(2), 1.0, finMove, minVisits, -100) // PN-Constant, MCTS-Constant, Time per turn, FinMove, MinVisits, Contempt
+                .withRave(raveK, refVisits);
+        this.rave = rave;
     }
 
     public PNSMCTS_RAVE(double[] settings) {
         this.friendlyName = "PNS_RAVE UCT";
-        this.settings = settings;
+        this.config = SearchConfig.fromSettings(settings, false, Integer.MAX_VALUE, -100);
+        this.rave = true;
     }
 
 
     //-------------------------------------------------------------------------
 
+    /**
+     * @return The search parameters of this agent
+     */
+    public SearchConfig getConfig() {
+        return config;
+    }
+
     @Override
     public Move selectAction(
             final Game game,
@@ -74,8 +96,8 @@ public class PNSMCTS_RAVE extends AI {
     ) {
 //        this.simsThisTurn = this.sims;
 //        this.turns++;
-        simsThisTurn = 0;
-        turns++;
+        simsThisTurn.reset();
+        turns.increment();
         // Start out by creating a new root node (no tree reuse in this example)
         final Node root = new Node(null, null, context, player);
 
@@ -94,6 +116,10 @@ public class PNSMCTS_RAVE extends AI {
             // Start in root node
             Node current = root;
 
+            // GRAVE references: for every player, the deepest node on the path so far where that player moves and
+            // that has more than refVisits visits. The AMAF statistics of a node only hold moves of its own mover.
+            final Node[] graveReferences = new Node[game.players().count() + 1];
+
             // Traverse tree
             while (true) {
                 if (current.context.trial().over()) {
@@ -101,7 +127,11 @@ public class PNSMCTS_RAVE extends AI {
                     break;
                 }
 
-                current = select(current);
+                final int mover = current.context.state().mover();
+                if (current.visitCount > config.refVisits()) {
+                    graveReferences[mover] = current;
+                }
+                current = select(current, graveReferences[mover], config);
 
                 if (current.visitCount == 0) {
                     // We've expanded a new node, time for playout!
@@ -111,39 +141,37 @@ public class PNSMCTS_RAVE extends AI {
 
             Context contextEnd = current.context;
 
-            // Store the simulation moves
-            FastArrayList<Move> movesInSimulation = new FastArrayList<>();
+            if (rave) {
+                // Start a new set of the (mover, move) pairs played after the current node
+                amafSweep.start();
+            }
 
             if (!contextEnd.trial().over()) {
                 // Run a playout if we don't already have a terminal game state in node
                 contextEnd = new Context(contextEnd);
-//                game.playout
-//                        (
-//                                contextEnd,
-//                                null,
-//                                -1.0,
-//                                null,
-//                                0,
-//                                -1,
-//                                ThreadLocalRandom.current()
-//                        );
-
-                // Run the playout and track moves
-                while (!contextEnd.trial().over()) {
-                    FastArrayList<Move> legalMoves = contextEnd.game().moves(contextEnd).moves();
-                    if (legalMoves.isEmpty()) {
-                        // Handle case with no legal moves
-                        Move defaultMove = contextEnd.game().moves(contextEnd).moves().get(0);
-                        contextEnd.game().apply(contextEnd, defaultMove);
-                    } else {
-                        // Select a random move
-                        Move move = legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
-                        movesInSimulation.add(move);  // Track the move
-                        contextEnd.game().apply(contextEnd, move);
+                if (rave) {
+                    // Run the playout and track moves
+                    while (!contextEnd.trial().over()) {
+                        final FastArrayList<Move> legalMoves = game.moves(contextEnd).moves();
+                        final Move move = legalMoves.get(ThreadLocalRandom.current().nextInt(legalMoves.size()));
+                        amafSweep.markPlayed(MastTable.moveKey(move), contextEnd.state().mover());
+                        game.apply(contextEnd, move);
                     }
+                } else {
+                    // No AMAF statistics to collect, so Ludii's faster built-in playout will do
+                    game.playout
+                            (
+                                    contextEnd,
+                                    null,
+                                    -1.0,
+                                    null,
+                                    0,
+                                    -1,
+                                    ThreadLocalRandom.current()
+                            );
                 }
-                sims++;
-                simsThisTurn++;
+                sims.increment();
+                simsThisTurn.increment();
             }
 
             // This computes utilities for all players at the of the playout,
@@ -153,22 +181,30 @@ public class PNSMCTS_RAVE extends AI {
             // Backpropagate utilities through the tree
             boolean changed = true;
             boolean firstNode = true;
+            Node child = null;
             while (current != null) {
                 current.visitCount += 1;
                 for (int p = 1; p <= game.players().count(); ++p) {
                     current.scoreSums[p] += utilities[p];
                 }
+                if (rave) {
+                    // The move into the child we came from was played by the mover of this node
+                    final int mover = current.context.state().mover();
+                    if (child != null) {
+                        amafSweep.markPlayed(child.moveCode, mover);
+                    }
+                    updateRaveStats(current, mover, utilities[mover]);
+                }
                 if (!firstNode) {
                     if (changed) {
                         changed = current.setProofAndDisproofNumbers();
-                        if (current.getChildren().size() > 0) {
-                            current.setChildRanks();
-                        }
+                        current.updateChildRank(child);
                     }
                 } else {
                     firstNode = false;
                 }
 
+                child = current;
                 current = current.parent;
             }
             // if proofNum of root changed -> check is proven or disproven
@@ -186,7 +222,7 @@ public class PNSMCTS_RAVE extends AI {
         }
 
         // Return the move we wish to play
-        return finalMoveSelection(root);
+        return finalMoveSelection(root, config);
     }
 
     /**
@@ -195,12 +231,15 @@ public class PNSMCTS_RAVE extends AI {
      * new nodes if the given current node has unexpanded moves.
      *
      * @param current
+     * @param graveReference Deepest node from the root to current with the same mover and more than refVisits
+     *                       visits, or null
+     * @param config Search parameters of the agent
      * @return Selected node (if it has 0 visits, it will be a newly-expanded node).
      */
-    public static Node select(final Node current) {
+    public Node select(final Node current, final Node graveReference, final SearchConfig config) {
         // All child nodes are created and added to the child list of the current node
         if (!current.expanded) {
-            return current.developNode();
+            return current.developNode(rave);
         }
 
         // Don't use UCT-PN until all nodes have been visited once
@@ -213,9 +252,9 @@ public class PNSMCTS_RAVE extends AI {
         double bestValue = Double.NEGATIVE_INFINITY;
         int numBestFound = 0;
 
-        double explorationConstant = settings[1];
+        double explorationConstant = config.explorationConstant();
 
-        double pnConstant = settings[0];
+        double pnConstant = config.pnConstant();
         double total = current.getChildren().size();
 
         final int numChildren = current.children.size();
@@ -225,11 +264,11 @@ public class PNSMCTS_RAVE extends AI {
             final Node child = current.children.get(i);
 
             if (current.proofNum != 0 && current.disproofNum != 0) {
-                if (child.proofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
-                if (child.disproofNum == 0 && child.visitCount > SOLVERLIKE_MINVISITS) continue;
+                if (child.proofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
+                if (child.disproofNum == 0 && child.visitCount > config.solverlikeMinVisits()) continue;
             }
 
-            final double exploit = child.scoreSums[mover] / child.visitCount;
+            final double exploit = rave ? calculateRaveValue(current, child, mover, graveReference) : child.scoreSums[mover] / child.visitCount;
             final double explore = Math.sqrt((Math.log(current.visitCount)) / child.visitCount); //UCT with changeable exploration constant
             final double pnEffect = 1 - (child.getRank() / total); // This formula assures that the node with lowest rank (best node) has the highest pnEffect
 
@@ -256,9 +295,10 @@ public class PNSMCTS_RAVE extends AI {
      * with the highest visit count).
      *
      * @param rootNode
+     * @param config Search parameters of the agent
      * @return Final move as selected by PN-MCTS
      */
-    public static Move finalMoveSelection(final Node rootNode) {
+    public static Move finalMoveSelection(final Node rootNode, final SearchConfig config) {
         Node bestChild = null;
         int bestVisitCount = Integer.MIN_VALUE;
         int numBestFound = 0;
@@ -280,7 +320,7 @@ public class PNSMCTS_RAVE extends AI {
         }
 
         // To ensure a proven node will select the proven child too
-        if (FIN_MOVE_SEL) {
+        if (config.finMoveSel()) {
             //System.out.println("XXXXXXX");
             if (rootNode.proofNum == 0) {
                 for (Node child : rootNode.children) {
@@ -295,6 +335,33 @@ public class PNSMCTS_RAVE extends AI {
         return bestChild.moveFromParent;
     }
 
+    /**
+     * Blends the mean score of a child with the GRAVE AMAF value of its move, weighted like
+     * PNSMCTS_L2_RAVE.calculateRaveValue. Both are taken from the perspective of the player to move in node.
+     *
+     * @param graveReference Node whose AMAF statistics are used unless node itself is reliable, or null
+     */
+    private double calculateRaveValue(final Node node, final Node child, final int mover, final Node graveReference) {
+        final double standardValue = child.scoreSums[mover] / child.visitCount;
+        final double amaf = node.getGraveAmafValue(graveReference, child.moveCode, config.refVisits());
+        final double raveK = config.raveK();
+        final double beta = Math.sqrt(raveK / (3 * node.visitCount + raveK));
+        return (1.0 - beta) * standardValue + beta * amaf;
+    }
+
+    /**
+     * Adds the result to the AMAF entry of every move of the node that its mover played later in this
+     * iteration (in the tree below the node or in the playout), once per move
+     */
+    private void updateRaveStats(final Node node, final int mover, final double result) {
+        for (int i = 0; i < node.children.size(); ++i) {
+            final long moveCode = node.children.get(i).moveCode;
+            if (amafSweep.wasPlayed(moveCode, mover)) {
+                node.amafStats.update(moveCode, result);
+            }
+        }
+    }
+
     @Override
     public void initAI(final Game game, final int playerID) {
         this.player = playerID;
@@ -319,7 +386,7 @@ public class PNSMCTS_RAVE extends AI {
      *
      * @author Dennis Soemers
      */
-    private static class Node implements Comparable<Node> {
+    private static class Node {
 
         /**
          * Our parent node
@@ -331,6 +398,16 @@ public class PNSMCTS_RAVE extends AI {
          */
         private final Move moveFromParent;
 
+        /**
+         * Code of moveFromParent (MastTable.moveKey), the key of this move in the AMAF statistics
+         */
+        private final long moveCode;
+
+        /**
+         * AMAF statistics of the moves of this node, as seen by its mover
+         */
+        private final AmafTable amafStats = new AmafTable(0);
+
         /**
          * This objects contains the game state for this node (this is why we don't support stochastic games)
          */
@@ -370,9 +447,15 @@ public class PNSMCTS_RAVE extends AI {
         private double disproofNum;
 
         /**
-         * Rank of a node compared to "siblings". Needed for UCT-PN. Ranks ordered best to worst
+         * Index of this node in the childRanks of its parent, where it is ranked under its proof number
+         * (OR parent) or disproof number (AND parent) compared to "siblings"
+         */
+        private int rankIndex;
+
+        /**
+         * Ranks of the child nodes, ordered best to worst
          */
-        private int rank;
+        private final ChildRanks childRanks = new ChildRanks();
 
         /**
          * Various necessary information variables.
@@ -426,6 +509,7 @@ public class PNSMCTS_RAVE extends AI {
         public Node(final Node parent, final Move moveFromParent, final Context context, final int proofPlayer) {
             this.parent = parent;
             this.moveFromParent = moveFromParent;
+            this.moveCode = (moveFromParent == null) ? -1L : MastTable.moveKey(moveFromParent);
             this.context = context;
             final Game game = context.game();
             this.proofPlayer = proofPlayer;
@@ -443,8 +527,10 @@ public class PNSMCTS_RAVE extends AI {
             // This means we do not support simultaneous-move games.
             unexpandedMoves = new FastArrayList<Move>(game.moves(context).moves());
 
-            if (parent != null)
+            if (parent != null) {
                 parent.children.add(this);
+                rankIndex = parent.childRanks.add((parent.type == PNSNodeTypes.OR_NODE) ? proofNum : disproofNum);
+            }
         }
 
         /**
@@ -531,10 +617,14 @@ public class PNSMCTS_RAVE extends AI {
         /**
          * Develops a node by adding all the children nodes. Then returns one child at random for the selection phase.
          *
+         * @param rave True to size the AMAF statistics for the moves of this node
          * @return One of the new child nodes
          */
-        public Node developNode() {
+        public Node developNode(final boolean rave) {
             if (this.value == PNSNodeValues.UNKNOWN) {
+                if (rave) {
+                    amafStats.ensureCapacity(this.unexpandedMoves.size());
+                }
                 for (int i = 0; i < this.unexpandedMoves.size(); i++) {
                     final Move move = this.unexpandedMoves.get(i);
                     final Context context = new Context(this.context);
@@ -552,26 +642,27 @@ public class PNSMCTS_RAVE extends AI {
         }
 
         /**
-         * Set an ordered ranking for the UCT-PN formula in the selection step of MCTS
+         * @param graveReference Deepest node from the root to this one with the same mover and more than refVisits
+         *                       visits, or null
+         * @param refVisits      Visits above which a node's AMAF statistics are reliable
+         * @return AMAF value of a move from the reference node, or from this node if it is reliable itself, there
+         * is no reference of its mover or the reference has no statistics for the move
          */
-
-        public void setChildRanks() {
-            List<Node> sorted = new ArrayList<Node>(this.children);
-            Collections.sort(sorted);
-            Node lastNode = null;
-            for (int i = 0; i < sorted.size(); i++) {
-                Node child = sorted.get(i);
-                // If there's a tie
-                if (lastNode != null && this.type == PNSNodeTypes.OR_NODE && lastNode.getProofNum() == child.getProofNum()) {
-                    child.setRank(lastNode.getRank());
-                    // If there's a tie
-                } else if (lastNode != null && this.type == PNSNodeTypes.AND_NODE && lastNode.getDisproofNum() == child.getDisproofNum()) {
-                    child.setRank(lastNode.getRank());
-                } else {
-                    child.setRank(i + 1);
-                }
-                lastNode = child;
+        public double getGraveAmafValue(final Node graveReference, final long moveCode, final int refVisits) {
+            if (visitCount <= refVisits && refVisits != 0 && graveReference != null
+                    && graveReference.context.state().mover() == context.state().mover()
+                    && graveReference.amafStats.getAmafVisits(moveCode) > 0) {
+                return graveReference.amafStats.getAmafValue(moveCode);
             }
+            return amafStats.getAmafValue(moveCode);
+        }
+
+        /**
+         * Re-positions a child in the UCT-PN ranking after its proof or disproof number may have changed
+         */
+        public void updateChildRank(final Node child) {
+            final double key = (this.type == PNSNodeTypes.OR_NODE) ? child.getProofNum() : child.getDisproofNum();
+            childRanks.update(child.rankIndex, key);
         }
 
         public List<Node> getChildren() {
@@ -591,39 +682,12 @@ public class PNSMCTS_RAVE extends AI {
         }
 
         public int getRank() {
-            return rank;
+            return parent.childRanks.rank(rankIndex);
         }
 
         public List<Node> getUnexpandedChildren() {
             return unexpandedChildren;
         }
-
-        public void setRank(int rank) {
-            this.rank = rank;
-        }
-
-        // Used to rank children
-        @Override
-        public int compareTo(Node o) {
-            if (this.parent.getType() == PNSNodeTypes.OR_NODE) {
-                if (this.getProofNum() < o.getProofNum()) {
-                    return -1;
-                } else if (this.getProofNum() > o.getProofNum()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            } else if (this.parent.getType() == PNSNodeTypes.AND_NODE) {
-                if (this.getDisproofNum() < o.getDisproofNum()) {
-                    return -1;
-                } else if (this.getDisproofNum() > o.getDisproofNum()) {
-                    return 1;
-                } else {
-                    return 0;
-                }
-            }
-            return 0;
-        }
     }
 
     //-------------------------------------------------------------------------
@@ -0,0 +1,326 @@
+package mcts;
+
+/**
+ * Immutable search parameters of one PN-MCTS agent. Every agent keeps its own instance and hands it to
+ * select() and finalMoveSelection(), so agents with different parameters can search in parallel in one JVM
+ * without seeing each other's settings.
+ * <p>
+ * Besides the UCT-PN parameters it carries the implementation switches of the agents (tree reuse, lazy
+ * expansion, MAST/NST and RAVE parameters, ...). An agent ignores the switches it does not implement. The
+ * constructor sets them to their defaults, the with* methods return a copy with one of them changed, built
+ * through a private Builder, so every field is final. The
+ * switches that change how long or how far an agent searches (tree reuse, proof stop, solved-subtree compaction
+ * and the time bank) are off by default, so an agent only uses them when its caller opts in.
+ */
+public final class SearchConfig {
+
+    /**
+     * Weight of the proof number rank in UCT-PN
+     */
+    private final double pnConstant;
+
+    /**
+     * UCT exploration constant
+     */
+    private final double explorationConstant;
+
+    /**
+     * Time per turn in seconds
+     */
+    private final double timePerTurn;
+
+    /**
+     * If true, a proven root plays its proven child (and on level 2 its drawing child, see contemptFactor)
+     */
+    private final boolean finMoveSel;
+
+    /**
+     * Solved children with more visits than this are skipped by selection
+     */
+    private final int solverlikeMinVisits;
+
+    /**
+     * Root score up to which a level 2 proof (win or draw) is taken, applies only if finMoveSel is true
+     */
+    private final double contemptFactor;
+
+    // Implementation switches, set through the Builder by the with* methods
+
+    private final int cachedContextDepth; // nodes up to this depth keep their Context, deeper ones are replayed
+    private final boolean lazyExpansion; // only create a child node once selection picks its move
+    private final boolean treeReuse; // continue from the subtree of the previous search that matches the current state
+    private final boolean proofStop; // stop searching once the root value is settled and the move to play is proven
+    private final int transpositionBits; // log2 of the transposition table size, 0 disables the table
+    private final boolean compactSolved; // replace subtrees with a value settled on both levels by a single leaf
+    private final double timeBankShare; // share of the banked seconds added to the timePerTurn budget of a move (up to maxSeconds), 0 disables the bank
+    private final int mastFlushInterval; // playouts a root-parallel worker buffers before adding them to the shared MAST/NST statistics
+    private final boolean gibbsPlayout; // sample playout moves from a softmax over the MAST/NST scores instead of epsilon-greedy
+    private final double gibbsTemperature; // temperature (> 0) of the Gibbs playout policy, lower is greedier
+    private final double raveK; // equivalence parameter for RAVE
+    private final int refVisits; // threshold for reliable AMAF (GRAVE), 0 always uses the AMAF statistics of the node itself
+    private final int initialCapacity; // nodes of an arena tree, the arena doubles its columns whenever it runs full
+
+    /**
+     * Mutable set of all parameters, holding the defaults of the implementation switches until they are changed
+     */
+    private static final class Builder {
+        private final double pnConstant;
+        private final double explorationConstant;
+        private final double timePerTurn;
+        private final boolean finMoveSel;
+        private final int solverlikeMinVisits;
+        private final double contemptFactor;
+
+        private int cachedContextDepth = 1;
+        private boolean lazyExpansion = false;
+        private boolean treeReuse = false;
+        private boolean proofStop = false;
+        private int transpositionBits = 0;
+        private boolean compactSolved = false;
+        private double timeBankShare = 0.0;
+        private int mastFlushInterval = 16;
+        private boolean gibbsPlayout = false;
+        private double gibbsTemperature = 1.0;
+        private double raveK = 1000.0;
+        private int refVisits = 50;
+        private int initialCapacity = 1 << 16;
+
+        Builder(final double pnConstant, final double explorationConstant, final double timePerTurn,
+                final boolean finMoveSel, final int solverlikeMinVisits, final double contemptFactor) {
+            this.pnConstant = pnConstant;
+            this.explorationConstant = explorationConstant;
+            this.timePerTurn = timePerTurn;
+            this.finMoveSel = finMoveSel;
+            this.solverlikeMinVisits = solverlikeMinVisits;
+            this.contemptFactor = contemptFactor;
+        }
+
+        /**
+         * Starts from all parameters of the given configuration
+         */
+        Builder(final SearchConfig config) {
+            this(config.pnConstant, config.explorationConstant, config.timePerTurn, config.finMoveSel,
+                    config.solverlikeMinVisits, config.contemptFactor);
+            this.cachedContextDepth = config.cachedContextDepth;
+            this.lazyExpansion = config.lazyExpansion;
+            this.treeReuse = config.treeReuse;
+            this.proofStop = config.proofStop;
+            this.transpositionBits = config.transpositionBits;
+            this.compactSolved = config.compactSolved;
+            this.timeBankShare = config.timeBankShare;
+            this.mastFlushInterval = config.mastFlushInterval;
+            this.gibbsPlayout = config.gibbsPlayout;
+            this.gibbsTemperature = config.gibbsTemperature;
+            this.raveK = config.raveK;
+            this.refVisits = config.refVisits;
+            this.initialCapacity = config.initialCapacity;
+        }
+
+        SearchConfig build() {
+            return new SearchConfig(this);
+        }
+    }
+
+    public SearchConfig(final double pnConstant, final double explorationConstant, final double timePerTurn,
+                        final boolean finMoveSel, final int solverlikeMinVisits, final double contemptFactor) {
+        this(new Builder(pnConstant, explorationConstant, timePerTurn, finMoveSel, solverlikeMinVisits, contemptFactor));
+    }
+
+    private SearchConfig(final Builder builder) {
+        this.pnConstant = builder.pnConstant;
+        this.explorationConstant = builder.explorationConstant;
+        this.timePerTurn = builder.timePerTurn;
+        this.finMoveSel = builder.finMoveSel;
+        this.solverlikeMinVisits = builder.solverlikeMinVisits;
+        this.contemptFactor = builder.contemptFactor;
+        this.cachedContextDepth = builder.cachedContextDepth;
+        this.lazyExpansion = builder.lazyExpansion;
+        this.treeReuse = builder.treeReuse;
+        this.proofStop = builder.proofStop;
+        this.transpositionBits = builder.transpositionBits;
+        this.compactSolved = builder.compactSolved;
+        this.timeBankShare = builder.timeBankShare;
+        this.mastFlushInterval = builder.mastFlushInterval;
+        this.gibbsPlayout = builder.gibbsPlayout;
+        this.gibbsTemperature = builder.gibbsTemperature;
+        this.raveK = builder.raveK;
+        this.refVisits = builder.refVisits;
+        this.initialCapacity = builder.initialCapacity;
+    }
+
+    /**
+     * @param settings PN-Constant, MCTS-Constant and optionally the time per turn (1 second if missing)
+     * @return Configuration with the given settings
+     */
+    public static SearchConfig fromSettings(final double[] settings, final boolean finMoveSel,
+                                            final int solverlikeMinVisits, final double contemptFactor) {
+        return new SearchConfig(settings[0], settings[1], settings.length > 2 ? settings[2] : 1.0,
+                finMoveSel, solverlikeMinVisits, contemptFactor);
+    }
+
+    public SearchConfig withCachedContextDepth(final int cachedContextDepth) {
+        final Builder builder = new Builder(this);
+        builder.cachedContextDepth = cachedContextDepth;
+        return builder.build();
+    }
+
+    public SearchConfig withLazyExpansion(final boolean lazyExpansion) {
+        final Builder builder = new Builder(this);
+        builder.lazyExpansion = lazyExpansion;
+        return builder.build();
+    }
+
+    public SearchConfig withTreeReuse(final boolean treeReuse) {
+        final Builder builder = new Builder(this);
+        builder.treeReuse = treeReuse;
+        return builder.build();
+    }
+
+    public SearchConfig withProofStop(final boolean proofStop) {
+        final Builder builder = new Builder(this);
+        builder.proofStop = proofStop;
+        return builder.build();
+    }
+
+    public SearchConfig withTranspositionBits(final int transpositionBits) {
+        final Builder builder = new Builder(this);
+        builder.transpositionBits = transpositionBits;
+        return builder.build();
+    }
+
+    public SearchConfig withCompactSolved(final boolean compactSolved) {
+        final Builder builder = new Builder(this);
+        builder.compactSolved = compactSolved;
+        return builder.build();
+    }
+
+    public SearchConfig withTimeBankShare(final double timeBankShare) {
+        final Builder builder = new Builder(this);
+        builder.timeBankShare = timeBankShare;
+        return builder.build();
+    }
+
+    public SearchConfig withMastFlushInterval(final int mastFlushInterval) {
+        final Builder builder = new Builder(this);
+        builder.mastFlushInterval = mastFlushInterval;
+        return builder.build();
+    }
+
+    /**
+     * @param temperature Temperature (> 0) of the softmax, lower is greedier
+     * @return A copy that samples MAST/NST playout moves from a softmax over their scores
+     */
+    public SearchConfig withGibbsPlayout(final double temperature) {
+        final Builder builder = new Builder(this);
+        builder.gibbsPlayout = true;
+        builder.gibbsTemperature = temperature;
+        return builder.build();
+    }
+
+    /**
+     * @param raveK     Equivalence parameter, the number of visits at which the mean and AMAF values weigh the same
+     * @param refVisits Visits above which a node's AMAF statistics are reliable enough for its descendants
+     * @return A copy with the given RAVE parameters
+     */
+    public SearchConfig withRave(final double raveK, final int refVisits) {
+        final Builder builder = new Builder(this);
+        builder.raveK = raveK;
+        builder.refVisits = refVisits;
+        return builder.build();
+    }
+
+    public SearchConfig withInitialCapacity(final int initialCapacity) {
+        final Builder builder = new Builder(this);
+        builder.initialCapacity = initialCapacity;
+        return builder.build();
+    }
+
+    public double pnConstant() {
+        return pnConstant;
+    }
+
+    public double explorationConstant() {
+        return explorationConstant;
+    }
+
+    public double timePerTurn() {
+        return timePerTurn;
+    }
+
+    public boolean finMoveSel() {
+        return finMoveSel;
+    }
+
+    public int solverlikeMinVisits() {
+        return solverlikeMinVisits;
+    }
+
+    public double contemptFactor() {
+        return contemptFactor;
+    }
+
+    public int cachedContextDepth() {
+        return cachedContextDepth;
+    }
+
+    public boolean lazyExpansion() {
+        return lazyExpansion;
+    }
+
+    public boolean treeReuse() {
+        return treeReuse;
+    }
+
+    public boolean proofStop() {
+        return proofStop;
+    }
+
+    public int transpositionBits() {
+        return transpositionBits;
+    }
+
+    public boolean compactSolved() {
+        return compactSolved;
+    }
+
+    public double timeBankShare() {
+        return timeBankShare;
+    }
+
+    public int mastFlushInterval() {
+        return mastFlushInterval;
+    }
+
+    public boolean gibbsPlayout() {
+        return gibbsPlayout;
+    }
+
+    public double gibbsTemperature() {
+        return gibbsTemperature;
+    }
+
+    public double raveK() {
+        return raveK;
+    }
+
+    public int refVisits() {
+        return refVisits;
+    }
+
+    public int initialCapacity() {
+        return initialCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchConfig{pnConstant=" + pnConstant + ", explorationConstant=" + explorationConstant
+                + ", timePerTurn=" + timePerTurn + ", finMoveSel=" + finMoveSel
+                + ", solverlikeMinVisits=" + solverlikeMinVisits + ", contemptFactor=" + contemptFactor
+                + ", cachedContextDepth=" + cachedContextDepth + ", lazyExpansion=" + lazyExpansion
+                + ", treeReuse=" + treeReuse + ", proofStop=" + proofStop
+                + ", transpositionBits=" + transpositionBits + ", compactSolved=" + compactSolved
+                + ", timeBankShare=" + timeBankShare + ", mastFlushInterval=" + mastFlushInterval
+                + ", gibbsPlayout=" + gibbsPlayout + ", gibbsTemperature=" + gibbsTemperature
+                + ", raveK=" + raveK + ", refVisits=" + refVisits + ", initialCapacity=" + initialCapacity + "}";
+    }
+}
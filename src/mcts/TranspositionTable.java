@@ -0,0 +1,124 @@
+package mcts;
+
+/**
+ * Fixed-size transposition table for PN-MCTS, keyed by Ludii's full state hash.
+ * <p>
+ * The search itself stays a tree: every node keeps its own children and its proof numbers are computed from
+ * them alone, so nothing is counted twice in the proof number sums. Nodes for the same position share one
+ * Entry, which pools their visit statistics and the positions that were solved (proven or disproven on
+ * either level). A solved value is exact, so a node may take it over no matter where it was found.
+ * <p>
+ * Every position maps to one slot. A slot is taken over by a new position unless its entry was visited
+ * during the current search, or is solved. A replaced entry keeps working for the nodes that still hold it,
+ * it is just no longer shared with nodes created later.
+ */
+final class TranspositionTable {
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int numScores;
+
+    /**
+     * Number of the current search, entries of earlier searches may always be replaced
+     */
+    private int generation = 0;
+
+    /**
+     * @param bits      The table holds 2^bits entries
+     * @param numScores Length of the score arrays (number of players + 1)
+     */
+    TranspositionTable(final int bits, final int numScores) {
+        this.entries = new Entry[1 << bits];
+        this.mask = (1 << bits) - 1;
+        this.numScores = numScores;
+    }
+
+    /**
+     * Marks the start of a new search
+     */
+    synchronized void newSearch() {
+        ++generation;
+    }
+
+    /**
+     * @return Number of score entries per position (number of players + 1)
+     */
+    int numScores() {
+        return numScores;
+    }
+
+    /**
+     * @return The entry for the given position, a new entry if its slot could be taken over, or null if
+     * the position can't be stored right now
+     */
+    synchronized Entry lookup(final long hash) {
+        final int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        final Entry resident = entries[slot];
+        if (resident != null) {
+            if (resident.hash == hash) {
+                resident.generation = generation;
+                return resident;
+            }
+            if (resident.generation == generation && (resident.visitCount > 0 || resident.isSolved())) {
+                return null;
+            }
+        }
+        final Entry entry = new Entry(hash, numScores, generation);
+        entries[slot] = entry;
+        return entry;
+    }
+
+    /**
+     * Statistics shared by all nodes of one position. Updates are synchronized on the entry; selection reads
+     * the scores without locking, which may give a slightly stale mean under tree parallelisation.
+     */
+    static final class Entry {
+
+        private final long hash;
+
+        private int generation;
+
+        int visitCount = 0;
+
+        final double[] scoreSums;
+
+        /**
+         * Solved values found for this position: proven (proofNum 0) and disproven (disproofNum 0),
+         * on level 1 and level 2
+         */
+        boolean proven = false;
+        boolean disproven = false;
+        boolean provenL2 = false;
+        boolean disprovenL2 = false;
+
+        Entry(final long hash, final int numScores, final int generation) {
+            this.hash = hash;
+            this.scoreSums = new double[numScores];
+            this.generation = generation;
+        }
+
+        /**
+         * Adds the results of playouts through a node of this position
+         *
+         * @param utilities Utilities summed over the playouts
+         * @param visits    Number of playouts
+         */
+        synchronized void update(final double[] utilities, final int visits) {
+            visitCount += visits;
+            for (int p = 1; p < scoreSums.length; ++p) {
+                scoreSums[p] += utilities[p];
+            }
+        }
+
+        /**
+         * @return Mean score of the given player over all visits of this position
+         */
+        double meanScore(final int player) {
+            return scoreSums[player] / visitCount;
+        }
+
+        boolean isSolved() {
+            return proven || disproven || provenL2 || disprovenL2;
+        }
+    }
+}